@@ -25,6 +25,7 @@ public class Managers {
     private ImapHostManager imapHostManager = null;
     private UserManager userManager = null;
     private SmtpManager smtpManager = null;
+    private GreenMailConfiguration startupConfig = null;
 
     /**
      * Public constructor wihtout Startup Configuration
@@ -42,6 +43,7 @@ public class Managers {
      * @param startupConfig - The startup configuration
      */
     public Managers(Store store, GreenMailConfiguration startupConfig) {
+        this.startupConfig = startupConfig;
         this.imapHostManager = new ImapHostManagerImpl(store);
         this.userManager = new UserManager(imapHostManager);
         this.smtpManager = new SmtpManager(imapHostManager, userManager, startupConfig);
@@ -59,4 +61,8 @@ public class Managers {
         return imapHostManager;
     }
 
+    public GreenMailConfiguration getStartupConfig() {
+        return startupConfig;
+    }
+
 }
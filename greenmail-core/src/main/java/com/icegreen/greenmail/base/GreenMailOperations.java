@@ -4,11 +4,16 @@ import com.icegreen.greenmail.Managers;
 import com.icegreen.greenmail.configuration.GreenMailConfiguration;
 import com.icegreen.greenmail.imap.ImapServer;
 import com.icegreen.greenmail.pop3.Pop3Server;
+import com.icegreen.greenmail.smtp.DeliveryListener;
+import com.icegreen.greenmail.smtp.DeliveryPredicate;
+import com.icegreen.greenmail.smtp.DeliverySubscription;
 import com.icegreen.greenmail.smtp.SmtpServer;
 import com.icegreen.greenmail.store.FolderException;
 import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.util.RawMessage;
 
 import javax.mail.internet.MimeMessage;
+import java.util.Iterator;
 import java.util.Properties;
 
 /**
@@ -69,6 +74,37 @@ public interface GreenMailOperations {
      */
     boolean waitForIncomingEmail(int emailCount);
 
+    /**
+     * Subscribes to the next message delivered via SMTP matching the given predicate, such as
+     * {@link com.icegreen.greenmail.smtp.DeliveryPredicates#recipient(String)}.
+     * Messages are matched once when stored, so messages delivered before subscribing are not considered.
+     *
+     * @param predicate the predicate, evaluated for each stored copy of a message.
+     * @return future completing with the first matching message.
+     */
+    DeliverySubscription subscribe(DeliveryPredicate predicate);
+
+    /**
+     * Subscribes to all messages delivered via SMTP matching the given predicate, until the subscription is cancelled.
+     * The future of the subscription completes with the first matching message.
+     *
+     * @param predicate the predicate, evaluated for each stored copy of a message.
+     * @param listener  invoked on the delivering thread for each matching message, must not block.
+     * @return the subscription.
+     */
+    DeliverySubscription subscribe(DeliveryPredicate predicate, DeliveryListener listener);
+
+    /**
+     * Loads raw messages directly into the store, creating missing users and folders.
+     * Messages are parsed in parallel and appended to each folder in batches, bypassing SMTP,
+     * so neither {@link #waitForIncomingEmail(int)} nor subscriptions are triggered.
+     *
+     * @param messages the messages to load, appended to each folder in the given order.
+     * @return the number of loaded messages.
+     * @throws FolderException if a folder can not be created.
+     */
+    int loadMessages(Iterator<RawMessage> messages) throws FolderException;
+
     /**
      * @return Returns all messags in all folders for all users
      * {@link com.icegreen.greenmail.util.GreenMailUtil} has a bunch of static helper methods to extract body text etc.
@@ -4,6 +4,7 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.icegreen.greenmail.server.ConnectionExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,6 +20,12 @@ public class GreenMailConfiguration {
     private boolean mailsinkKeepInOriginalMailboxes = true;
     private String storeClassImplementation = "com.icegreen.greenmail.store.InMemoryStore";
     private String fileStoreRootDirectory = "greenmailstore";
+    private String connectionExecutor = ConnectionExecutors.PLATFORM;
+    private int deliveryThreads = 0;
+    private boolean deliveryAckAfterEnqueue = false;
+    private int spoolThreshold = -1;
+    private String spoolDirectory = null;
+    private boolean offHeapMessageContent = false;
 
     public void logConfiguration() {
         log.info("  Startup property greenmail.auth.disabled                       : " + disableAuthenticationCheck);
@@ -30,6 +37,12 @@ public class GreenMailConfiguration {
         log.info("  Startup property greenmail.mailsink.keep.in.original.mailboxes : " + mailsinkKeepInOriginalMailboxes);
         log.info("  Startup property greenmail.mailstore.impl.class                : " + storeClassImplementation);
         log.info("  Startup property greenmail.filestore.rootdir                   : " + Paths.get(fileStoreRootDirectory).toAbsolutePath().toString());
+        log.info("  Startup property greenmail.connection.executor                 : " + connectionExecutor);
+        log.info("  Startup property greenmail.delivery.threads                    : " + deliveryThreads);
+        log.info("  Startup property greenmail.delivery.ack.after.enqueue          : " + deliveryAckAfterEnqueue);
+        log.info("  Startup property greenmail.spool.threshold                     : " + spoolThreshold);
+        log.info("  Startup property greenmail.spool.dir                           : " + spoolDirectory);
+        log.info("  Startup property greenmail.mailstore.offheap                   : " + offHeapMessageContent);
     }
 
     /**
@@ -115,6 +128,48 @@ public class GreenMailConfiguration {
         return this.fileStoreRootDirectory;
     }
 
+    /**
+     * @return the default type of executor serving client connections, if not configured per server setup.
+     */
+    public String getConnectionExecutor() {
+        return this.connectionExecutor;
+    }
+
+    /**
+     * @return the number of delivery workers storing received messages, or 0 for delivery on the SMTP session thread.
+     */
+    public int getDeliveryThreads() {
+        return this.deliveryThreads;
+    }
+
+    /**
+     * @return true, if SMTP acknowledges a message once queued for delivery instead of once stored.
+     */
+    public boolean isDeliveryAckAfterEnqueue() {
+        return this.deliveryAckAfterEnqueue;
+    }
+
+    /**
+     * @return the message size in octets above which received content is spooled to disk, or -1 for no spooling.
+     */
+    public int getSpoolThreshold() {
+        return this.spoolThreshold;
+    }
+
+    /**
+     * @return the directory of spool files, or null for the default temporary directory.
+     */
+    public String getSpoolDirectory() {
+        return this.spoolDirectory;
+    }
+
+    /**
+     * @return true, if the in-memory store keeps raw message content off heap.
+     */
+    public boolean isOffHeapMessageContent() {
+        return this.offHeapMessageContent;
+    }
+
     /**
      * Disables authentication.
      *
@@ -186,6 +241,84 @@ public class GreenMailConfiguration {
         return this;
     }
 
+    /**
+     * Sets the default type of executor serving client connections. Possible values:
+     *   * platform (default) - pool of platform threads
+     *   * virtual - virtual thread per connection, requires JDK 21+
+     *   * fully qualified name of a {@link com.icegreen.greenmail.server.ConnectionExecutor} implementation
+     *
+     * Can be overridden per server by {@link com.icegreen.greenmail.util.ServerSetup#setConnectionExecutor(String)}.
+     *
+     * @param connectionExecutor - the executor type
+     */
+    public GreenMailConfiguration withConnectionExecutor(String connectionExecutor) {
+        this.connectionExecutor = connectionExecutor;
+        return this;
+    }
+
+    /**
+     * Sets the number of delivery workers, storing messages received via SMTP into the recipient mailboxes.
+     * Deliveries to the same mailbox are always handled by the same worker, keeping their order.
+     *
+     * Default is 0, storing messages on the SMTP session thread, one message at a time.
+     *
+     * @param deliveryThreads - the number of workers, or 0 for inline delivery
+     */
+    public GreenMailConfiguration withDeliveryThreads(int deliveryThreads) {
+        this.deliveryThreads = deliveryThreads;
+        return this;
+    }
+
+    /**
+     * Sets whether SMTP replies 250 once a message is queued for the delivery workers (true),
+     * or once it is stored in all recipient mailboxes (false, default).
+     *
+     * This property is only evaluated when delivery threads are configured.
+     *
+     * @param deliveryAckAfterEnqueue - true for acknowledging after enqueue
+     */
+    public GreenMailConfiguration withDeliveryAckAfterEnqueue(boolean deliveryAckAfterEnqueue) {
+        this.deliveryAckAfterEnqueue = deliveryAckAfterEnqueue;
+        return this;
+    }
+
+    /**
+     * Spools message content received via SMTP to temporary files once it exceeds the given size,
+     * keeping heap usage bounded while large messages are in flight. Spool files are reused for later messages.
+     *
+     * Default is -1, keeping all received content in memory.
+     *
+     * @param spoolThreshold - the size in octets, or -1 for no spooling
+     */
+    public GreenMailConfiguration withSpoolThreshold(int spoolThreshold) {
+        this.spoolThreshold = spoolThreshold;
+        return this;
+    }
+
+    /**
+     * Sets the directory of spool files, when a spool threshold is configured.
+     *
+     * @param spoolDirectory - the directory, created if it does not exist, or null for the default temporary directory
+     */
+    public GreenMailConfiguration withSpoolDirectory(String spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+        return this;
+    }
+
+    /**
+     * Sets whether the in-memory store keeps raw message content in direct memory, off the Java heap.
+     * Only parsed headers and flags of stored messages remain on heap, keeping garbage collection pauses short
+     * with many stored messages. Direct memory is limited by the JVM option -XX:MaxDirectMemorySize.
+     *
+     * Default is false, keeping message content on heap.
+     *
+     * @param offHeapMessageContent - true for keeping message content off heap
+     */
+    public GreenMailConfiguration withOffHeapMessageContent(boolean offHeapMessageContent) {
+        this.offHeapMessageContent = offHeapMessageContent;
+        return this;
+    }
+
 
 
     public String toString() {
@@ -216,6 +349,30 @@ public class GreenMailConfiguration {
 
         b.append("fileStoreRootDirectory=");
         b.append(this.fileStoreRootDirectory);
+        b.append(";");
+
+        b.append("connectionExecutor=");
+        b.append(this.connectionExecutor);
+        b.append(";");
+
+        b.append("deliveryThreads=");
+        b.append(this.deliveryThreads);
+        b.append(";");
+
+        b.append("deliveryAckAfterEnqueue=");
+        b.append(this.deliveryAckAfterEnqueue);
+        b.append(";");
+
+        b.append("spoolThreshold=");
+        b.append(this.spoolThreshold);
+        b.append(";");
+
+        b.append("spoolDirectory=");
+        b.append(this.spoolDirectory);
+        b.append(";");
+
+        b.append("offHeapMessageContent=");
+        b.append(this.offHeapMessageContent);
 
         b.append("}");
         return b.toString();
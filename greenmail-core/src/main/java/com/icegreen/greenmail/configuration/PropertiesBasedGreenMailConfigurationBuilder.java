@@ -60,6 +60,51 @@ public class PropertiesBasedGreenMailConfigurationBuilder {
      */
     public static final String GREENMAIL_FILESTORE_ROOT_DIR = "greenmail.filestore.rootdir";
 
+    /**
+     * The default executor type for serving client connections: platform, virtual or a
+     * {@link com.icegreen.greenmail.server.ConnectionExecutor} implementation class name.
+     *
+     * Default value: platform
+     */
+    public static final String GREENMAIL_CONNECTION_EXECUTOR = "greenmail.connection.executor";
+
+    /**
+     * The number of delivery workers storing received messages, 0 for delivery on the SMTP session thread.
+     *
+     * Default value: 0
+     */
+    public static final String GREENMAIL_DELIVERY_THREADS = "greenmail.delivery.threads";
+
+    /**
+     * Boolean property, when set to true, SMTP acknowledges a message once queued for the delivery workers
+     * instead of once stored.
+     *
+     * Default value: false
+     */
+    public static final String GREENMAIL_DELIVERY_ACK_AFTER_ENQUEUE = "greenmail.delivery.ack.after.enqueue";
+
+    /**
+     * The message size in octets above which content received via SMTP is spooled to temporary files,
+     * -1 for keeping it in memory.
+     *
+     * Default value: -1
+     */
+    public static final String GREENMAIL_SPOOL_THRESHOLD = "greenmail.spool.threshold";
+
+    /**
+     * The directory of spool files.
+     *
+     * Default value: the default temporary directory
+     */
+    public static final String GREENMAIL_SPOOL_DIR = "greenmail.spool.dir";
+
+    /**
+     * Whether the in-memory store keeps raw message content off heap.
+     *
+     * Default value: false
+     */
+    public static final String GREENMAIL_MAILSTORE_OFFHEAP = "greenmail.mailstore.offheap";
+
     /**
      * Builds a configuration object based on given properties.
      *
@@ -101,6 +146,30 @@ public class PropertiesBasedGreenMailConfigurationBuilder {
         if (null != fileStoreRoot) {
             configuration.withFileStoreRootDirectory(fileStoreRoot);
         }
+        String connectionExecutor = properties.getProperty(GREENMAIL_CONNECTION_EXECUTOR);
+        if (null != connectionExecutor) {
+            configuration.withConnectionExecutor(connectionExecutor.trim());
+        }
+        String deliveryThreads = properties.getProperty(GREENMAIL_DELIVERY_THREADS);
+        if (null != deliveryThreads) {
+            configuration.withDeliveryThreads(Integer.parseInt(deliveryThreads.trim()));
+        }
+        String deliveryAckAfterEnqueue = properties.getProperty(GREENMAIL_DELIVERY_ACK_AFTER_ENQUEUE);
+        if (null != deliveryAckAfterEnqueue) {
+            configuration.withDeliveryAckAfterEnqueue(Boolean.parseBoolean(deliveryAckAfterEnqueue.trim()));
+        }
+        String spoolThreshold = properties.getProperty(GREENMAIL_SPOOL_THRESHOLD);
+        if (null != spoolThreshold) {
+            configuration.withSpoolThreshold(Integer.parseInt(spoolThreshold.trim()));
+        }
+        String spoolDirectory = properties.getProperty(GREENMAIL_SPOOL_DIR);
+        if (null != spoolDirectory) {
+            configuration.withSpoolDirectory(spoolDirectory.trim());
+        }
+        String offHeap = properties.getProperty(GREENMAIL_MAILSTORE_OFFHEAP);
+        if (null != offHeap) {
+            configuration.withOffHeapMessageContent(Boolean.parseBoolean(offHeap.trim()));
+        }
         return configuration;
     }
 
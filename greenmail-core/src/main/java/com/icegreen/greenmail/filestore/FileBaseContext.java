@@ -12,6 +12,7 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.icegreen.greenmail.filestore.binary.FilestoreSettings;
 import org.slf4j.Logger;
@@ -46,6 +47,8 @@ public class FileBaseContext {
     private HashMap<Path, FileHierarchicalFolder> mailboxCache = new HashMap<>();
 
     private FilestoreSettings filestoreSettings;
+    // Number of messages in all mailboxes
+    private final AtomicLong messageCount = new AtomicLong();
     private long nextUidToUse = 0;
 
     // When a mailbox is not used for more than 12 hours, assume that nobody is really doing something
@@ -78,6 +81,22 @@ public class FileBaseContext {
         this.initUidGenerator();
     }
 
+    /**
+     * @return the number of messages in all mailboxes.
+     */
+    long getMessageCount() {
+        return messageCount.get();
+    }
+
+    /**
+     * Updates the number of messages in all mailboxes.
+     *
+     * @param delta the number of added messages, negative for removed messages.
+     */
+    void messageCountChanged(long delta) {
+        messageCount.addAndGet(delta);
+    }
+
     public Path getMboxFileStoreRootDir() {
         return this.mboxFileStoreRootDir;
     }
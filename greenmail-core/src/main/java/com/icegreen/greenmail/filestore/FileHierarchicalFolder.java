@@ -276,25 +276,23 @@ public class FileHierarchicalFolder implements MailFolder, UIDFolder {
         log.debug("Entering appendMessage with flags '" + flags + "' and receivedDate: '" + receivedDate);
 
         long uid = this.ctx.getNextUid();
-        try {
-            message.setFlags(flags, true);
-            message.setFlag(Flags.Flag.RECENT, true);
-        }
-        catch (MessagingException e) {
-            throw new IllegalStateException("Can not set flags", e);
-        }
+        // Flags are set on the copy, as the message may be shared by concurrent deliveries
         StoredMessage storedMessage = new StoredMessage(message, receivedDate, uid);
+        storedMessage.setFlags(flags, true);
+        storedMessage.setFlag(Flags.Flag.RECENT, true);
 
         MessageEntry entry = new MessageEntry(uid);
+        // Flags are set before adding the entry, which counts them
+        entry.setRecDateMillis(storedMessage.getReceivedDate().getTime());
+        entry.setFlagBitSet(FileStoreUtil.convertFlagsToFlagBitSet(storedMessage.getFlags()));
 
         int newIndex = this.entries.createNewMessageEntry(entry);
+        this.ctx.messageCountChanged(1);
 
         try {
             // Now, adapt the messages:
             this.mtf.addMessage(storedMessage, entry);
 
-            entry.setRecDateMillis(storedMessage.getReceivedDate().getTime());
-            entry.setFlagBitSet(FileStoreUtil.convertFlagsToFlagBitSet(storedMessage.getMimeMessage().getFlags()));
             log.debug("Successfully added a new entry to the FS with uid '" + entry.getUid() + "' and flags: " + entry.getFlagBitSet());
 
             this.entries.storeFileToFSForSingleEntry(newIndex);
@@ -319,6 +317,16 @@ public class FileHierarchicalFolder implements MailFolder, UIDFolder {
         return uid;
     }
 
+    @Override
+    public long[] appendMessages(List<MimeMessage> messages, Flags flags, Date receivedDate) {
+        // Each message is persisted individually, so appending one after the other
+        long[] uids = new long[messages.size()];
+        for (int i = 0; i < uids.length; i++) {
+            uids[i] = appendMessage(messages.get(i), flags, receivedDate);
+        }
+        return uids;
+    }
+
     @Override
     public List<StoredMessage> getNonDeletedMessages() {
         this.setLastAccessed();
@@ -471,7 +479,7 @@ public class FileHierarchicalFolder implements MailFolder, UIDFolder {
     public void deleteAllMessages() {
         this.setLastAccessed();
 
-        this.entries.deleteAllMessages(this.pathToDir);
+        this.ctx.messageCountChanged(-this.entries.deleteAllMessages(this.pathToDir));
     }
 
 
@@ -508,15 +516,9 @@ public class FileHierarchicalFolder implements MailFolder, UIDFolder {
             throws FolderException {
         this.setLastAccessed();
         StoredMessage originalMessage = getMessage(uid);
-        MimeMessage newMime;
-        try {
-            newMime = new MimeMessage(originalMessage.getMimeMessage());
-        }
-        catch (MessagingException e) {
-            throw new FolderException("Can not copy message " + uid + " to folder " + toFolder, e);
-        }
-
-        return toFolder.appendMessage(newMime, originalMessage.getFlags(), originalMessage.getReceivedDate());
+        // The target folder stores its own copy, sharing the raw content
+        return toFolder.appendMessage(originalMessage.getMimeMessage(), originalMessage.getFlags(),
+                originalMessage.getReceivedDate());
     }
 
     @Override
@@ -530,6 +532,7 @@ public class FileHierarchicalFolder implements MailFolder, UIDFolder {
 
         log.debug("Entering expunge with id range: " + idRanges);
         List<MessageEntry> toDelete = this.entries.expunge(idRanges, this.pathToDir);
+        this.ctx.messageCountChanged(-toDelete.size());
 
         // Finally, inform thee listeners
         // TODO: This has to be done backwards, which is quite ugly. Check out why this is so and fix it, and make the order in
@@ -58,28 +58,37 @@ public class FileStoreUtil {
     public static int convertFlagsToFlagBitSet(Flags flags) {
         int result = 0;
         for (Flags.Flag f : flags.getSystemFlags()) {
-            if (Flags.Flag.ANSWERED.equals(f)) {
-                result |= ANSWERED;
-            }
-            else if (Flags.Flag.DELETED.equals(f)) {
-                result |= DELETED;
-            }
-            else if (Flags.Flag.DRAFT.equals(f)) {
-                result |= DRAFT;
-            }
-            else if (Flags.Flag.FLAGGED.equals(f)) {
-                result |= FLAGGED;
-            }
-            else if (Flags.Flag.RECENT.equals(f)) {
-                result |= RECENT;
-            }
-            else if (Flags.Flag.SEEN.equals(f)) {
-                result |= SEEN;
-            }
+            result |= convertFlagToFlagBit(f);
         }
         return result;
     }
 
+    /**
+     * @param flag a system flag.
+     * @return the bit of the flag in a flag bit set, or 0 if the flag is not kept in flag bit sets.
+     */
+    public static int convertFlagToFlagBit(Flags.Flag flag) {
+        if (Flags.Flag.ANSWERED.equals(flag)) {
+            return ANSWERED;
+        }
+        else if (Flags.Flag.DELETED.equals(flag)) {
+            return DELETED;
+        }
+        else if (Flags.Flag.DRAFT.equals(flag)) {
+            return DRAFT;
+        }
+        else if (Flags.Flag.FLAGGED.equals(flag)) {
+            return FLAGGED;
+        }
+        else if (Flags.Flag.RECENT.equals(flag)) {
+            return RECENT;
+        }
+        else if (Flags.Flag.SEEN.equals(flag)) {
+            return SEEN;
+        }
+        return 0;
+    }
+
     public static Flags convertFlagBitSetToFlags(int bitset) {
         Flags result = new Flags();
         if ((bitset & ANSWERED) != 0) {
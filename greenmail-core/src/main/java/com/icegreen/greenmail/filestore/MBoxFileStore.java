@@ -2,7 +2,6 @@ package com.icegreen.greenmail.filestore;
 
 import static com.icegreen.greenmail.imap.ImapConstants.HIERARCHY_DELIMITER;
 import static com.icegreen.greenmail.imap.ImapConstants.USER_NAMESPACE;
-import static java.nio.file.Files.readAllLines;
 import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
@@ -39,6 +38,8 @@ public class MBoxFileStore implements Store {
 
     private final Path userListFile;
 
+    private final UserJournal userJournal;
+
     private final Path pidFile;
 
     private FileBaseContext ctx;
@@ -60,12 +61,36 @@ public class MBoxFileStore implements Store {
 
         this.userListFile = this.rootDir.resolve("userlist");
         this.ctx = new FileBaseContext(this.rootDir);
+        this.userJournal = new UserJournal(this.userListFile, this.rootDir.resolve("userlist.journal"));
+        this.userJournal.replay();
         this.writePIDFile();
+        this.ctx.messageCountChanged(countExistingMessages());
+    }
+
+    /**
+     * Counts the messages already stored, once at startup. Afterwards, the mailboxes update the count.
+     */
+    private long countExistingMessages() {
+        long count = 0;
+        try {
+            for (MailFolder folder : listMailboxes("*")) {
+                count += folder.getMessageCount();
+            }
+        } catch (FolderException e) {
+            throw new UncheckedFileStoreException("Can not count messages of filestore " + this.rootDir, e);
+        }
+        return count;
+    }
+
+    @Override
+    public long getMessageCount() {
+        return this.ctx.getMessageCount();
     }
 
     public void stop() {
         // Make sure that the UUID generator is stopped correctly and the nextUID persisted to file-system
         this.ctx.deInitUidGenerator();
+        this.userJournal.close();
         this.deletePIDFile();
     }
 
@@ -304,22 +329,31 @@ public class MBoxFileStore implements Store {
     }
 
     /**
-     * Writes the whole userList to disk
+     * Writes the whole userList to disk, replacing all stored users.
      */
-    synchronized public void writeUserStore(Collection<GreenMailUser> userList) {
+    public void writeUserStore(Collection<GreenMailUser> userList) {
         log.info("Writing Greemail users to file: " + this.userListFile.toAbsolutePath().toString());
+        userJournal.reset(userList);
+    }
 
-        try (BufferedWriter bw = Files.newBufferedWriter(userListFile, java.nio.charset.Charset.forName("UTF-8"), CREATE, WRITE, TRUNCATE_EXISTING)) {
-            for (GreenMailUser user : userList) {
-                bw.write(user.toSingleLine());
-                bw.newLine();
-            }
-        }
-        catch (IOException e) {
-            String errorStr = "IOException happened while trying to write file with Greemail users " + this.userListFile;
-            log.error(errorStr, e);
-            throw new UncheckedFileStoreException(errorStr, e);
-        }
+    /**
+     * Appends a created user to the user journal, replacing any stored user with the same login.
+     *
+     * @param user the created user.
+     */
+    public void writeUser(GreenMailUser user) {
+        log.debug("Writing Greenmail user " + user.getLogin() + " to user journal");
+        userJournal.add(user);
+    }
+
+    /**
+     * Appends a deleted user to the user journal.
+     *
+     * @param user the deleted user.
+     */
+    public void deleteUser(GreenMailUser user) {
+        log.debug("Deleting Greenmail user " + user.getLogin() + " from user journal");
+        userJournal.delete(user);
     }
 
     private void writePIDFile() {
@@ -349,21 +383,11 @@ public class MBoxFileStore implements Store {
         }
     }
 
-    synchronized public Collection<GreenMailUser> readUserStore(ImapHostManager imapHostManager) {
+    public Collection<GreenMailUser> readUserStore(ImapHostManager imapHostManager) {
         ArrayList<GreenMailUser> result = new ArrayList<>();
-        if (Files.isRegularFile(userListFile)) {
-            log.info("Reading Greemail users from file: " + this.userListFile.toAbsolutePath().toString());
-            try {
-                List<String> allLines = readAllLines(this.userListFile, java.nio.charset.Charset.forName("UTF-8"));
-                for (String line : allLines) {
-                    log.info("  Adding user: " + line);
-                    result.add(new UserImpl(line, imapHostManager));
-                }
-            }
-            catch (IOException e) {
-                String errorStr = "IOException happened while trying to read file with Greemail users " + this.userListFile;
-                throw new UncheckedFileStoreException(errorStr, e);
-            }
+        for (String line : userJournal.getUsers()) {
+            log.debug("  Adding user: " + line);
+            result.add(new UserImpl(line, imapHostManager));
         }
         return result;
     }
@@ -0,0 +1,313 @@
+package com.icegreen.greenmail.filestore;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.user.UserImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists the users of the file store as a snapshot file plus an append-only journal.
+ * <p/>
+ * Each created or deleted user appends a single record to the journal, instead of rewriting all users.
+ * Records of concurrent callers are written and forced to disk together by whichever caller gets the
+ * write lock first (group commit). Once the journal holds more records than there are users, the users
+ * are written to a new snapshot and the journal is truncated, keeping the amortized cost per change constant.
+ * <p/>
+ * Records are idempotent, so replaying a journal on top of a newer snapshot yields the same users.
+ * A record is complete only once terminated by a line feed. A torn last record, as left by a crash,
+ * is skipped and cut off the journal on replay, so that later records are not appended to it.
+ */
+class UserJournal {
+    private static final Logger log = LoggerFactory.getLogger(UserJournal.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char ADD = '+';
+    private static final char DELETE = '-';
+    /**
+     * Minimal number of journal records before compacting, avoiding frequent snapshots of few users.
+     */
+    static final int MIN_COMPACTION_RECORDS = 1000;
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Queue<Record> pending = new ConcurrentLinkedQueue<>();
+    private final Object writeLock = new Object();
+    /**
+     * Serialized users by normalized login, in creation order. Guarded by writeLock.
+     */
+    private final Map<String, String> users = new LinkedHashMap<>();
+    private FileChannel journal;
+    private int journalRecords;
+
+    /**
+     * @param snapshotFile the snapshot file, with one serialized user per line.
+     * @param journalFile  the journal file.
+     */
+    UserJournal(Path snapshotFile, Path journalFile) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Reads the snapshot and replays the journal.
+     */
+    void replay() {
+        synchronized (writeLock) {
+            users.clear();
+            try {
+                if (Files.isRegularFile(snapshotFile)) {
+                    try (BufferedReader reader = Files.newBufferedReader(snapshotFile, UTF8)) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            if (!line.isEmpty()) {
+                                users.put(getKey(line), line);
+                            }
+                        }
+                    }
+                }
+                int records = 0;
+                if (Files.isRegularFile(journalFile)) {
+                    byte[] content = Files.readAllBytes(journalFile);
+                    int complete = content.length;
+                    while (complete > 0 && content[complete - 1] != '\n') {
+                        complete--;
+                    }
+                    String lines = new String(content, 0, complete, UTF8);
+                    for (int start = 0, end; start < lines.length(); start = end + 1) {
+                        end = lines.indexOf('\n', start);
+                        if (replayRecord(lines.substring(start, end))) {
+                            records++;
+                        }
+                    }
+                    if (complete < content.length) {
+                        log.warn("Skipping torn user journal record in {}: '{}'", journalFile,
+                                new String(content, complete, content.length - complete, UTF8));
+                        try (FileChannel channel = FileChannel.open(journalFile, WRITE)) {
+                            channel.truncate(complete);
+                            channel.force(false);
+                        }
+                    }
+                }
+                log.info("Read {} Greenmail users from {}, replaying {} journal records",
+                        users.size(), snapshotFile.toAbsolutePath(), records);
+                if (records > 0) {
+                    compact();
+                }
+            } catch (IOException e) {
+                String errorStr = "IOException happened while trying to read file with Greemail users " + snapshotFile;
+                throw new UncheckedFileStoreException(errorStr, e);
+            }
+        }
+    }
+
+    private boolean replayRecord(String record) {
+        try {
+            if (record.length() > 1 && record.charAt(0) == ADD) {
+                String line = record.substring(1);
+                users.put(getKey(line), line);
+                return true;
+            } else if (record.length() > 1 && record.charAt(0) == DELETE) {
+                users.remove(normalize(record.substring(1)));
+                return true;
+            }
+        } catch (UncheckedFileStoreException e) {
+            log.debug("Can not replay journal record", e);
+        }
+        log.warn("Skipping invalid user journal record in {}: '{}'", journalFile, record);
+        return false;
+    }
+
+    /**
+     * @return the serialized users.
+     */
+    List<String> getUsers() {
+        synchronized (writeLock) {
+            return new ArrayList<>(users.values());
+        }
+    }
+
+    /**
+     * Durably records a created user, replacing any user with the same login.
+     *
+     * @param user the user.
+     */
+    void add(GreenMailUser user) {
+        append(new Record(normalize(user.getLogin()), user.toSingleLine()));
+    }
+
+    /**
+     * Durably records a deleted user.
+     *
+     * @param user the user.
+     */
+    void delete(GreenMailUser user) {
+        append(new Record(normalize(user.getLogin()), null));
+    }
+
+    private void append(Record record) {
+        pending.add(record);
+        synchronized (writeLock) {
+            if (!record.written) {
+                writePending();
+            }
+            if (null != record.failure) {
+                String errorStr = "IOException happened while trying to write file with Greemail users " + journalFile;
+                throw new UncheckedFileStoreException(errorStr, record.failure);
+            }
+        }
+    }
+
+    /**
+     * Writes all pending records, of this and any concurrent caller, with a single write and force.
+     */
+    private void writePending() {
+        List<Record> batch = new ArrayList<>();
+        StringBuilder content = new StringBuilder();
+        Record record;
+        while ((record = pending.poll()) != null) {
+            batch.add(record);
+            if (null == record.line) {
+                users.remove(record.key);
+                content.append(DELETE).append(record.key);
+            } else {
+                users.put(record.key, record.line);
+                content.append(ADD).append(record.line);
+            }
+            content.append('\n');
+        }
+        IOException failure = null;
+        try {
+            if (null == journal) {
+                journal = FileChannel.open(journalFile, CREATE, WRITE, APPEND);
+            }
+            ByteBuffer buffer = UTF8.encode(content.toString());
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+            journal.force(false);
+            journalRecords += batch.size();
+            if (journalRecords > Math.max(MIN_COMPACTION_RECORDS, users.size())) {
+                compact();
+            }
+        } catch (IOException e) {
+            log.error("Can not write user journal " + journalFile, e);
+            failure = e;
+        }
+        for (Record written : batch) {
+            written.written = true;
+            written.failure = failure;
+        }
+    }
+
+    /**
+     * Replaces all users by the given users.
+     *
+     * @param userList the users.
+     */
+    void reset(Collection<GreenMailUser> userList) {
+        synchronized (writeLock) {
+            users.clear();
+            for (GreenMailUser user : userList) {
+                users.put(normalize(user.getLogin()), user.toSingleLine());
+            }
+            try {
+                compact();
+            } catch (IOException e) {
+                String errorStr = "IOException happened while trying to write file with Greemail users " + snapshotFile;
+                log.error(errorStr, e);
+                throw new UncheckedFileStoreException(errorStr, e);
+            }
+        }
+    }
+
+    /**
+     * Writes a new snapshot and truncates the journal. Caller must hold writeLock.
+     */
+    private void compact() throws IOException {
+        log.debug("Compacting {} users to {}", users.size(), snapshotFile);
+        Path tmpFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, UTF8, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            for (String line : users.values()) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        try {
+            Files.move(tmpFile, snapshotFile, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile, snapshotFile, REPLACE_EXISTING);
+        }
+        if (null != journal) {
+            journal.truncate(0);
+        } else {
+            Files.deleteIfExists(journalFile);
+        }
+        journalRecords = 0;
+    }
+
+    /**
+     * Compacts and closes the journal. The journal is reopened when appending again.
+     */
+    void close() {
+        synchronized (writeLock) {
+            try {
+                if (journalRecords > 0) {
+                    compact();
+                }
+                if (null != journal) {
+                    journal.close();
+                    journal = null;
+                }
+            } catch (IOException e) {
+                log.warn("Can not close user journal " + journalFile, e);
+            }
+        }
+    }
+
+    private static String getKey(String line) {
+        return normalize(new UserImpl(line, null).getLogin());
+    }
+
+    private static String normalize(String login) {
+        return login.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static class Record {
+        final String key;
+        /**
+         * The serialized user, or null for a deletion.
+         */
+        final String line;
+        boolean written;
+        IOException failure;
+
+        Record(String key, String line) {
+            this.key = key;
+            this.line = line;
+        }
+    }
+}
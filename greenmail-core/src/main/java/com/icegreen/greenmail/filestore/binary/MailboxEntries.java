@@ -27,6 +27,7 @@ import com.icegreen.greenmail.filestore.UncheckedFileStoreException;
 import com.icegreen.greenmail.filestore.fs.MessageToFS;
 import com.icegreen.greenmail.foedus.util.MsgRangeFilter;
 import com.icegreen.greenmail.imap.commands.IdRange;
+import com.icegreen.greenmail.store.FlagCounters;
 import com.icegreen.greenmail.store.StoredMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +42,8 @@ public class MailboxEntries extends BaseBinarySettingsFile {
 
     // Mailbox list which are stored in the mailboxEntriesFile, every change here must be synced to the FS:
     private ArrayList<MessageEntry> list = new ArrayList<>();
+    // Counters of the flags in the list, every change of the list or of a flag must be applied here:
+    private final FlagCounters counters = new FlagCounters();
 
     public MailboxEntries(Path pathToEntriesFile) {
         super(pathToEntriesFile, "mailbox entries");
@@ -53,38 +56,22 @@ public class MailboxEntries extends BaseBinarySettingsFile {
     }
 
     public int getUnseenCount() {
-        int numUnSeen = 0;
         synchronized (this.syncLock) {
-            for (MessageEntry entry : this.list) {
-                if (!FileStoreUtil.isSeenFlagSet(entry.getFlagBitSet())) {
-                    numUnSeen++;
-                }
-            }
+            return counters.getUnseenCount();
         }
-        return numUnSeen;
     }
 
     public int getRecentCount() {
-        int numRecent = 0;
         synchronized (this.syncLock) {
-            for (MessageEntry entry : this.list) {
-                if (FileStoreUtil.isRecentFlagSet(entry.getFlagBitSet())) {
-                    numRecent++;
-                }
-            }
+            return counters.getRecentCount();
         }
-        return numRecent;
     }
 
     public int getFirstUnseen() {
         synchronized (this.syncLock) {
-            for (MessageEntry entry : this.list) {
-                if (!FileStoreUtil.isSeenFlagSet(entry.getFlagBitSet())) {
-                    return entry.getMsgNum();
-                }
-            }
+            // Message numbers are the 1-based index into the list
+            return counters.getFirstUnseen();
         }
-        return -1;
     }
 
     public int getMsnForUID(long uid) {
@@ -232,6 +219,7 @@ public class MailboxEntries extends BaseBinarySettingsFile {
             entry.setMsgNum(this.list.size() + 1);
             newIndex = this.list.size();
             this.list.add(entry);
+            this.counters.add(entry.getFlagBitSet());
         }
         return newIndex;
     }
@@ -278,6 +266,7 @@ public class MailboxEntries extends BaseBinarySettingsFile {
                     int newFlags = me.getFlagBitSet();
                     newFlags |= flagsToSet;
                     me.setFlagBitSet(newFlags);
+                    this.counters.update(meIndex, newFlags);
                     log.debug("  Bitset after  setting Flags: " + me.getFlagBitSet());
                 }
                 else {
@@ -306,6 +295,7 @@ public class MailboxEntries extends BaseBinarySettingsFile {
             if (me != null) {
                 // Set the flags
                 me.setFlagBitSet(FileStoreUtil.convertFlagsToFlagBitSet(flags));
+                this.counters.update(meIndex, me.getFlagBitSet());
             }
 
             this.storeFileToFSForSingleEntryWithoutSync(meIndex);
@@ -317,6 +307,9 @@ public class MailboxEntries extends BaseBinarySettingsFile {
         ArrayList<MessageEntry> toDelete = new ArrayList<>();
 
         synchronized (this.syncLock) {
+            if (this.counters.getDeletedCount() == 0) {
+                return toDelete;
+            }
             for (MessageEntry entry : this.list) {
                 if (FileStoreUtil.isDeletedFlagSet(entry.getFlagBitSet()) && (idRanges == null || IdRange.containsUid(idRanges, entry.getUid()))) {
                     toDelete.add(entry);
@@ -348,12 +341,23 @@ public class MailboxEntries extends BaseBinarySettingsFile {
                 entry.setMsgNum(index);
                 index++;
             }
+            this.recount();
 
             this.storeFileToFSWithoutSync();
         }
         return toDelete;
     }
 
+    /**
+     * Counts the flags of all messages again, after removing messages from the list.
+     */
+    private void recount() {
+        this.counters.clear();
+        for (MessageEntry entry : this.list) {
+            this.counters.add(entry.getFlagBitSet());
+        }
+    }
+
     public List<MessageEntry> cloneList() {
         List<MessageEntry> copyList = new ArrayList<>();
         synchronized (this.syncLock) {
@@ -362,8 +366,9 @@ public class MailboxEntries extends BaseBinarySettingsFile {
         return copyList;
     }
 
-    public void deleteAllMessages(Path mailboxDir) {
+    public int deleteAllMessages(Path mailboxDir) {
         synchronized (this.syncLock) {
+            int count = this.list.size();
             for (MessageEntry entry : this.list) {
                 Path fullpath = mailboxDir.resolve(entry.getShortFileName());
                 if (Files.isRegularFile(fullpath)) {
@@ -375,7 +380,9 @@ public class MailboxEntries extends BaseBinarySettingsFile {
                 }
             }
             this.list.clear();
+            this.counters.clear();
             this.storeFileToFSWithoutSync();
+            return count;
         }
     }
 
@@ -453,6 +460,7 @@ public class MailboxEntries extends BaseBinarySettingsFile {
 
                     // Make sure that we really delete messages which no longer exist on the file system:
                     boolean changedEntries = mtf.cleanupAfterLoading(this.list);
+                    this.recount();
 
                     if (changedEntries) {
                         // cleanupAfterLoading changed the entries in the file, store them immediatly back to the FS
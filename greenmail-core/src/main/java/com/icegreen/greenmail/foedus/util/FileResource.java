@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.foedus.util;
+
+import javax.mail.util.SharedFileInputStream;
+import java.io.*;
+
+
+/**
+ * Resource backed by a temporary file, as handed out by {@link SpoolingWorkspace}.
+ * <p/>
+ * Content is written and read as octets.
+ */
+public class FileResource
+        implements Resource {
+    private final File file;
+    private OutputStream out;
+
+    public FileResource(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Opens the file for writing, replacing any previous content.
+     *
+     * @return the stream.
+     * @throws IOException on IO error.
+     */
+    @Override
+    public OutputStream getOutputStream()
+            throws IOException {
+        closeOutput();
+        out = new BufferedOutputStream(new FileOutputStream(file));
+
+        return out;
+    }
+
+    @Override
+    public InputStream getInputStream()
+            throws IOException {
+        closeOutput();
+
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    @Override
+    public long getSize()
+            throws IOException {
+        closeOutput();
+
+        return file.length();
+    }
+
+    /**
+     * Opens the file for shared reading, such as parsing a message without reading its body.
+     * The stream must be closed before the resource is released.
+     *
+     * @return the stream.
+     * @throws IOException on IO error.
+     */
+    public SharedFileInputStream getSharedInputStream()
+            throws IOException {
+        closeOutput();
+
+        return new SharedFileInputStream(file);
+    }
+
+    /**
+     * Discards the content, keeping the file for reuse.
+     *
+     * @throws IOException on IO error.
+     */
+    public void truncate()
+            throws IOException {
+        closeOutput();
+        new FileOutputStream(file).close();
+    }
+
+    @Override
+    public void delete()
+            throws IOException {
+        closeOutput();
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Can not delete " + file);
+        }
+    }
+
+    private void closeOutput()
+            throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+}
@@ -8,18 +8,14 @@ package com.icegreen.greenmail.foedus.util;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.Reader;
-import java.io.Writer;
+import java.io.OutputStream;
 
 
 public interface Resource {
     public InputStream getInputStream()
             throws IOException;
 
-    public Writer getWriter()
-            throws IOException;
-
-    public Reader getReader()
+    public OutputStream getOutputStream()
             throws IOException;
 
     public long getSize()
@@ -27,6 +23,4 @@ public interface Resource {
 
     public void delete()
             throws IOException;
-
-    public String getAsString() throws IOException;
 }
\ No newline at end of file
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.foedus.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Workspace spooling content above a threshold to temporary files.
+ * <p/>
+ * Content up to the threshold is kept in memory by the user of the workspace, so only
+ * large content is handed to the {@link FileResource file resources} of this workspace.
+ * Released resources are truncated and reused, avoiding a file creation per message.
+ * <p/>
+ * Thread safe.
+ */
+public class SpoolingWorkspace
+        implements Workspace {
+    private static final Logger log = LoggerFactory.getLogger(SpoolingWorkspace.class);
+    private static final int MAX_POOLED_RESOURCES = 16;
+
+    private final int threshold;
+    private final File directory;
+    private final Queue<FileResource> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledResources = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param threshold the content size in octets above which content is spooled.
+     * @param directory the directory of the temporary files, created if missing,
+     *                  or null for the default temporary directory.
+     */
+    public SpoolingWorkspace(int threshold, File directory) {
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    /**
+     * @return the content size in octets above which content is spooled.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public Resource getTmpFile()
+            throws IOException {
+        FileResource resource = pool.poll();
+        if (null != resource) {
+            pooledResources.decrementAndGet();
+            return resource;
+        }
+        if (null != directory && !directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Can not create spool directory " + directory);
+        }
+        File file = File.createTempFile("greenmail", ".spool", directory);
+        file.deleteOnExit();
+
+        return new FileResource(file);
+    }
+
+    @Override
+    public void release(Resource tmpFile) {
+        if (!(tmpFile instanceof FileResource)) {
+            return;
+        }
+        FileResource resource = (FileResource) tmpFile;
+        try {
+            if (!closed) {
+                resource.truncate();
+                if (pooledResources.incrementAndGet() <= MAX_POOLED_RESOURCES) {
+                    pool.offer(resource);
+                    return;
+                }
+                pooledResources.decrementAndGet();
+            }
+            resource.delete();
+        } catch (IOException e) {
+            log.warn("Can not release spool file " + resource.getFile(), e);
+        }
+    }
+
+    /**
+     * Deletes the files of all pooled resources. Resources released afterwards are deleted as well.
+     */
+    public void close() {
+        closed = true;
+        FileResource resource;
+        while ((resource = pool.poll()) != null) {
+            pooledResources.decrementAndGet();
+            try {
+                resource.delete();
+            } catch (IOException e) {
+                log.warn("Can not delete spool file " + resource.getFile(), e);
+            }
+        }
+    }
+}
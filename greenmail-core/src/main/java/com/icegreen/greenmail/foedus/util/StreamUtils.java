@@ -7,6 +7,7 @@
 package com.icegreen.greenmail.foedus.util;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
 import java.io.Writer;
 
@@ -28,6 +29,33 @@ public class StreamUtils {
         return sbuf.toString();
     }
 
+    /**
+     * Reads a line of 8-bit characters, terminated by LF or CRLF.
+     * <p/>
+     * Reads no further than the line terminator, so any following
+     * content remains available in the stream.
+     *
+     * @param in the stream, preferably buffered.
+     * @return the line without terminator, or null at end of stream.
+     */
+    public static String readLine(InputStream in)
+            throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int len = line.length();
+                if (len > 0 && line.charAt(len - 1) == '\r') {
+                    line.setLength(len - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c); // ISO-8859-1
+        }
+
+        return line.length() > 0 ? line.toString() : null;
+    }
+
     public static void copy(Reader in, Writer out)
             throws IOException {
         char[] buffer = new char[1024];
@@ -13,7 +13,7 @@ import java.io.*;
 
 public class StringBufferResource
         implements Resource {
-    StringWriter _currentWriter;
+    ByteArrayOutputStream _currentStream;
     StringBuilder _contentBuffer;
 
     public StringBufferResource() {
@@ -25,11 +25,11 @@ public class StringBufferResource
     }
 
     @Override
-    public Writer getWriter()
+    public OutputStream getOutputStream()
             throws IOException {
-        _currentWriter = new StringWriter();
+        _currentStream = new ByteArrayOutputStream();
 
-        return _currentWriter;
+        return _currentStream;
     }
 
     @Override
@@ -40,19 +40,11 @@ public class StringBufferResource
         return new ByteArrayInputStream(_contentBuffer.toString().getBytes(EncodingUtil.CHARSET_EIGHT_BIT_ENCODING));
     }
 
-    @Override
-    public Reader getReader()
-            throws IOException {
-        closeInput();
-
-        return new StringReader(_contentBuffer.toString());
-    }
-
     private void closeInput()
             throws IOException {
-        if (_currentWriter != null) {
-            _contentBuffer = new StringBuilder(_currentWriter.getBuffer());
-            _currentWriter = null;
+        if (_currentStream != null) {
+            _contentBuffer = new StringBuilder(_currentStream.toString(EncodingUtil.EIGHT_BIT_ENCODING));
+            _currentStream = null;
         }
 
         if (_contentBuffer == null)
@@ -64,16 +56,10 @@ public class StringBufferResource
         return _contentBuffer.length();
     }
 
-    @Override
-    public String getAsString() throws IOException {
-        closeInput();
-        return _contentBuffer.toString();
-    }
-
     @Override
     public void delete() {
         _contentBuffer = null;
-        _currentWriter = null;
+        _currentStream = null;
     }
 
 }
\ No newline at end of file
@@ -6,7 +6,7 @@
  */
 package com.icegreen.greenmail.imap;
 
-import com.icegreen.greenmail.server.ProtocolHandler;
+import com.icegreen.greenmail.server.SelectableProtocolHandler;
 import com.icegreen.greenmail.user.UserManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,7 +20,7 @@ import java.net.Socket;
  * @author Federico Barbieri <scoobie@systemy.it>
  * @author Peter M. Goldstein <farsight@alum.mit.edu>
  */
-public class ImapHandler implements ImapConstants, ProtocolHandler {
+public class ImapHandler implements ImapConstants, SelectableProtocolHandler {
     protected final Logger log = LoggerFactory.getLogger(getClass());
     private ImapRequestHandler requestHandler = new ImapRequestHandler();
     private ImapSession session;
@@ -33,6 +33,8 @@ public class ImapHandler implements ImapConstants, ProtocolHandler {
     private Socket socket;
 
     private ImapResponse response;
+    private InputStream ins;
+    private OutputStream outs;
 
     UserManager userManager;
     private ImapHostManager imapHost;
@@ -51,20 +53,8 @@ public class ImapHandler implements ImapConstants, ProtocolHandler {
     @Override
     public void run() {
         // Closed automatically when socket is closed via #close()
-        try (InputStream ins = new BufferedInputStream(socket.getInputStream(), 512);
-             OutputStream outs = new BufferedOutputStream(socket.getOutputStream(), 1024)
-        ) {
-
-            response = new ImapResponse(outs);
-
-            // Write welcome message
-            String responseBuffer = VERSION + " Server GreenMail ready";
-            response.okResponse(null, responseBuffer);
-
-            session = new ImapSessionImpl(imapHost,
-                    userManager,
-                    this,
-                    socket.getInetAddress().getHostAddress());
+        try {
+            open();
 
             while (requestHandler.handleRequest(ins, outs, session)) {
                 // Loop ...
@@ -80,6 +70,39 @@ public class ImapHandler implements ImapConstants, ProtocolHandler {
         }
     }
 
+    @Override
+    public void open() throws IOException {
+        ins = new BufferedInputStream(socket.getInputStream(), 512);
+        outs = new BufferedOutputStream(socket.getOutputStream(), 1024);
+
+        response = new ImapResponse(outs);
+
+        // Write welcome message
+        String responseBuffer = VERSION + " Server GreenMail ready";
+        response.okResponse(null, responseBuffer);
+
+        session = new ImapSessionImpl(imapHost,
+                userManager,
+                this,
+                socket.getInetAddress().getHostAddress());
+    }
+
+    @Override
+    public boolean handleRequest() throws IOException {
+        try {
+            return null != session && requestHandler.handleRequest(ins, outs, session);
+        } catch (ProtocolException e) {
+            throw new IOException("Can not handle IMAP request", e);
+        }
+    }
+
+    @Override
+    public boolean isInputPending() throws IOException {
+        synchronized (closeMonitor) {
+            return null != socket && ins.available() > 0;
+        }
+    }
+
     /**
      * Resets the handler data to a basic state.
      */
@@ -103,6 +126,8 @@ public class ImapHandler implements ImapConstants, ProtocolHandler {
             // Clear user data
             session = null;
             response = null;
+            ins = null;
+            outs = null;
         }
     }
 }
@@ -107,8 +107,17 @@ public class ImapHostManagerImpl implements ImapHostManager, ImapConstants {
     @Override
     public void createPrivateMailAccount(GreenMailUser user) throws FolderException {
         MailFolder root = store.getMailbox(USER_NAMESPACE);
-        MailFolder userRoot = store.createMailbox(root, user.getQualifiedMailboxName(), false);
-        store.createMailbox(userRoot, INBOX_NAME, true);
+        // Reuses the personal mail space of a previously deleted user of the same name
+        MailFolder userRoot = store.getMailbox(root, user.getQualifiedMailboxName());
+        if (null == userRoot) {
+            userRoot = store.createMailbox(root, user.getQualifiedMailboxName(), false);
+        }
+        MailFolder inbox = store.getMailbox(userRoot, INBOX_NAME);
+        if (null == inbox) {
+            store.createMailbox(userRoot, INBOX_NAME, true);
+        } else {
+            store.setSelectable(inbox, true);
+        }
     }
 
     /**
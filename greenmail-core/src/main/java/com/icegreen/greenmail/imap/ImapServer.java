@@ -26,6 +26,11 @@ public final class ImapServer extends AbstractServer {
         return new ImapHandler(managers.getUserManager(), managers.getImapHostManager(), clientSocket);
     }
 
+    @Override
+    protected String getConnectionRejectedResponse() {
+        return "* BYE Too many connections, try again later";
+    }
+
     @Override
     public IMAPStore createStore() throws NoSuchProviderException {
         return (IMAPStore) super.createStore();
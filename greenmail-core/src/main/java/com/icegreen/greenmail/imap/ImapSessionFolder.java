@@ -200,6 +200,11 @@ public class ImapSessionFolder implements MailFolder, FolderListener, UIDFolder
         return _folder.appendMessage(message, flags, receivedDate);
     }
 
+    @Override
+    public long[] appendMessages(List<MimeMessage> messages, Flags flags, Date receivedDate) {
+        return _folder.appendMessages(messages, flags, receivedDate);
+    }
+
     @Override
     public void store(MovingMessage mail) throws Exception {
         _folder.store(mail);
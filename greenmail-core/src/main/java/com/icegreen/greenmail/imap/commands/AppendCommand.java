@@ -12,11 +12,10 @@ import com.icegreen.greenmail.imap.ImapSession;
 import com.icegreen.greenmail.imap.ProtocolException;
 import com.icegreen.greenmail.store.FolderException;
 import com.icegreen.greenmail.store.MailFolder;
-import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.store.SharedMimeMessage;
 
 import javax.mail.Flags;
 import javax.mail.internet.MimeMessage;
-import java.io.ByteArrayInputStream;
 import java.util.Date;
 
 /**
@@ -113,7 +112,7 @@ class AppendCommand extends AuthenticatedStateCommand {
             byte[] mail = consumeLiteralAsBytes(request);
 
             try {
-                return GreenMailUtil.newMimeMessage(new ByteArrayInputStream(mail));
+                return new SharedMimeMessage(mail);
             } catch (Exception e) {
                 throw new ProtocolException("Can not create new mime message", e);
             }
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.mail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Growable byte buffer for received message content, reading directly into the backing array.
+ * <p/>
+ * Buffers are recycled via a small pool, so messages do not re-grow a fresh array each time.
+ * The pool retains at most {@value #MAX_POOLED_BYTES} octets in total, and drops buffers grown beyond
+ * {@value #MAX_POOLED_SIZE} octets, so a single large message does not pin its memory.
+ * A buffer is owned by a single message until {@link #release() released}, and is not thread safe.
+ * <p/>
+ * Optionally, content exceeding a threshold is {@link #spoolTo(OutputStream, int) spooled} to a stream,
+ * keeping the buffer itself bounded.
+ */
+final class ContentBuffer extends ByteArrayOutputStream {
+    private static final int READ_SIZE = 8 * 1024;
+    static final int MAX_POOLED_SIZE = 1024 * 1024;
+    static final long MAX_POOLED_BYTES = 8L * 1024 * 1024;
+    private static final Queue<ContentBuffer> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicLong pooledBytes = new AtomicLong();
+
+    // States of dot terminated content parsing, for the current line
+    private static final int LINE_START = 0;
+    private static final int TEXT = 1;
+    private static final int DOT = 2;
+    private static final int DOT_CR = 3;
+
+    private OutputStream spool;
+    private int spoolThreshold;
+    private long spooledCount;
+
+    private ContentBuffer() {
+        super(READ_SIZE);
+    }
+
+    /**
+     * Gets an empty buffer from the pool, or a new one.
+     *
+     * @return the buffer.
+     */
+    static ContentBuffer acquire() {
+        ContentBuffer buffer = pool.poll();
+        if (null == buffer) {
+            return new ContentBuffer();
+        }
+        pooledBytes.addAndGet(-buffer.buf.length);
+        return buffer;
+    }
+
+    /**
+     * Returns this buffer to the pool, unless grown too large or the pool is full.
+     * The buffer must not be used afterwards.
+     */
+    void release() {
+        final int size = buf.length;
+        if (size > MAX_POOLED_SIZE) {
+            return;
+        }
+        if (pooledBytes.addAndGet(size) > MAX_POOLED_BYTES) {
+            pooledBytes.addAndGet(-size);
+            return;
+        }
+        reset();
+        pool.offer(this);
+    }
+
+    /**
+     * Drops all pooled buffers, releasing their memory.
+     */
+    static void drainPool() {
+        ContentBuffer buffer;
+        while (null != (buffer = pool.poll())) {
+            pooledBytes.addAndGet(-buffer.buf.length);
+        }
+    }
+
+    /**
+     * @return the total capacity of all pooled buffers, in octets.
+     */
+    static long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * Spools the buffered content to the given stream, whenever it exceeds the given threshold.
+     *
+     * @param spool     the stream, owned by the caller.
+     * @param threshold the maximum number of buffered octets.
+     */
+    void spoolTo(OutputStream spool, int threshold) {
+        this.spool = spool;
+        this.spoolThreshold = threshold;
+    }
+
+    /**
+     * Checks if any content was spooled, so the buffer no longer contains the complete content.
+     *
+     * @return true, if spooled.
+     */
+    boolean isSpooled() {
+        return spooledCount > 0;
+    }
+
+    /**
+     * Writes the remaining buffered content to the spool, if any content was spooled before.
+     *
+     * @throws IOException on IO error.
+     */
+    void flushSpool() throws IOException {
+        if (isSpooled()) {
+            spoolBuffered();
+            spool.flush();
+        }
+    }
+
+    /**
+     * @return the number of spooled and buffered octets.
+     */
+    long totalSize() {
+        return spooledCount + count;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        spool = null;
+        spooledCount = 0;
+    }
+
+    /**
+     * Reads exactly the given number of octets, unmodified.
+     *
+     * @param in   the stream.
+     * @param size the number of octets.
+     * @throws IOException on IO error, or if the stream ends prematurely.
+     */
+    void readFully(InputStream in, long size) throws IOException {
+        if (null == spool) {
+            readFullyBuffered(in, size);
+            return;
+        }
+        long remaining = size;
+        while (remaining > 0) {
+            int slice = (int) Math.min(remaining, Math.max(spoolThreshold, READ_SIZE));
+            readFullyBuffered(in, slice);
+            remaining -= slice;
+            spoolIfAboveThreshold();
+        }
+    }
+
+    private void readFullyBuffered(InputStream in, long size) throws IOException {
+        if (size > Integer.MAX_VALUE - count) {
+            throw new IOException("Content exceeds maximum size of " + Integer.MAX_VALUE);
+        }
+        int required = count + (int) size;
+        ensureCapacity(required);
+        while (count < required) {
+            int read = in.read(buf, count, required - count);
+            if (read < 0) {
+                throw new EOFException("Expected " + (required - count) + " more octets");
+            }
+            count += read;
+        }
+    }
+
+    /**
+     * Reads content until a line consisting of a single dot, removing dot stuffing.
+     * <p/>
+     * The terminating line is consumed, but nothing beyond. For streams supporting mark and reset,
+     * content is read and unstuffed in blocks, in place.
+     *
+     * @param in the stream.
+     * @throws IOException on IO error, or if the stream ends before the terminating line.
+     */
+    void readDotTerminated(InputStream in) throws IOException {
+        readDotTerminated(in, -1L);
+    }
+
+    /**
+     * Reads content until a line consisting of a single dot, removing dot stuffing.
+     * <p/>
+     * Once the content read exceeds the given limit, the rest is still consumed up to
+     * the terminating line, but discarded. The buffer then only contains what preceded the content.
+     *
+     * @param in    the stream.
+     * @param limit the maximum content size in octets, or 0 or -1 for unlimited.
+     * @return false, if the content exceeded the limit and was discarded.
+     * @throws IOException on IO error, or if the stream ends before the terminating line.
+     */
+    boolean readDotTerminated(InputStream in, long limit) throws IOException {
+        final boolean markSupported = in.markSupported();
+        final int readSize = markSupported ? READ_SIZE : 1;
+        final long start = totalSize();
+        boolean exceeded = false;
+        int state = LINE_START;
+        while (true) {
+            // Reads with a gap of two octets, so a pending ".\r" can always be written back in place
+            ensureCapacity(count + 2 + readSize);
+            int readStart = count + 2;
+            if (markSupported) {
+                in.mark(readSize);
+            }
+            int read = in.read(buf, readStart, readSize);
+            if (read < 0) {
+                throw new EOFException("Did not receive <CRLF>.<CRLF>");
+            }
+
+            int w = count;
+            for (int r = readStart; r < readStart + read; r++) {
+                byte b = buf[r];
+                switch (state) {
+                    case LINE_START:
+                        if (b == '.') {
+                            state = DOT;
+                            continue;
+                        }
+                        break;
+                    case DOT:
+                        if (b == '\r') {
+                            state = DOT_CR;
+                            continue;
+                        }
+                        if (b == '\n') {
+                            finishDotTerminated(in, w, r + 1 - readStart, markSupported);
+                            return checkLimit(start, limit, exceeded);
+                        }
+                        break; // Dot stuffed line
+                    case DOT_CR:
+                        if (b == '\n') {
+                            finishDotTerminated(in, w, r + 1 - readStart, markSupported);
+                            return checkLimit(start, limit, exceeded);
+                        }
+                        buf[w++] = '\r';
+                        break;
+                    default:
+                        break;
+                }
+                buf[w++] = b;
+                state = b == '\n' ? LINE_START : TEXT;
+            }
+            count = w;
+            if (!checkLimit(start, limit, exceeded)) {
+                exceeded = true;
+            }
+            spoolIfAboveThreshold();
+        }
+    }
+
+    /**
+     * Discards any content read since the given start, if exceeding the limit.
+     *
+     * @return false, if the limit is or was exceeded.
+     */
+    private boolean checkLimit(long start, long limit, boolean exceeded) {
+        if (exceeded || (limit > 0 && totalSize() - start > limit)) {
+            // Anything spooled is discarded along with the spool
+            count = isSpooled() ? 0 : (int) start;
+            return false;
+        }
+        return true;
+    }
+
+    private void spoolIfAboveThreshold() throws IOException {
+        if (null != spool && count > spoolThreshold) {
+            spoolBuffered();
+        }
+    }
+
+    private void spoolBuffered() throws IOException {
+        spool.write(buf, 0, count);
+        spooledCount += count;
+        count = 0;
+    }
+
+    private void finishDotTerminated(InputStream in, int newCount, int consumed, boolean markSupported)
+            throws IOException {
+        count = newCount;
+        if (markSupported) {
+            // Unread anything following the terminating line, such as pipelined commands
+            in.reset();
+            long remaining = consumed;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    throw new EOFException("Can not skip " + remaining + " octets");
+                }
+                remaining -= skipped;
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+        }
+    }
+
+    /**
+     * Creates a stream over the current content, without copying.
+     *
+     * @return the stream.
+     */
+    InputStream toInputStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+}
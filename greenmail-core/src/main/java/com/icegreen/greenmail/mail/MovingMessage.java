@@ -6,15 +6,24 @@
  */
 package com.icegreen.greenmail.mail;
 
+import com.icegreen.greenmail.foedus.util.FileResource;
 import com.icegreen.greenmail.foedus.util.Resource;
+import com.icegreen.greenmail.foedus.util.SpoolingWorkspace;
 import com.icegreen.greenmail.foedus.util.Workspace;
-import com.icegreen.greenmail.util.GreenMailUtil;
-import com.icegreen.greenmail.util.InternetPrintWriter;
+import com.icegreen.greenmail.store.SharedMimeMessage;
+import com.icegreen.greenmail.util.EncodingUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.SharedInputStream;
+import javax.mail.util.SharedByteArrayInputStream;
+import javax.mail.util.SharedFileInputStream;
 import java.io.*;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -30,12 +39,19 @@ import java.util.List;
  * </p>
  */
 public class MovingMessage {
+    private static final Logger log = LoggerFactory.getLogger(MovingMessage.class);
     private MailAddress returnPath;
     private List<MailAddress> toAddresses = new LinkedList<>();
     private Workspace _workspace;
     private Resource _content;
+    /** Content of a spooled message, read from the spool file until the message is released */
+    private SharedFileInputStream spooledContent;
     private MimeMessage message;
-    private int _references = 0;
+    private ContentBuffer chunkedContent;
+    private boolean chunked;
+    private long chunkedSize;
+    private boolean binaryMime;
+    private final AtomicInteger _references = new AtomicInteger();
 
     public MovingMessage(Workspace workspace) {
         _workspace = workspace;
@@ -45,26 +61,33 @@ public class MovingMessage {
         return toAddresses;
     }
 
+    /**
+     * Gets the received message. The message of spooled content is only readable until the content is released.
+     *
+     * @return the message, or null if not received.
+     */
     public MimeMessage getMessage() {
         return message;
     }
 
-    public Reader getContent()
-            throws IOException {
-
-        return _content.getReader();
+    /**
+     * Releases the memory of content buffers pooled for receiving messages.
+     * <p/>
+     * The pool is shared by all servers, and refills on demand.
+     */
+    public static void releasePooledContentBuffers() {
+        ContentBuffer.drainPool();
     }
 
     public void acquire() {
-        _references++;
+        _references.incrementAndGet();
     }
 
     public void releaseContent() {
-        if (_references > 0) {
-            _references--;
-        } else if (_content != null) {
-            _workspace.release(_content);
-            _content = null;
+        // Delivery lanes release concurrently, only the release beyond all acquired references frees the content
+        if (_references.decrementAndGet() < 0) {
+            releaseChunkedContent();
+            releaseSpooledContent();
         }
     }
 
@@ -77,6 +100,20 @@ public class MovingMessage {
         this.returnPath = fromAddress;
     }
 
+    /**
+     * Checks if the message was announced with BODY=BINARYMIME (RFC 3030),
+     * requiring transmission by BDAT.
+     *
+     * @return true, if binary.
+     */
+    public boolean isBinaryMime() {
+        return binaryMime;
+    }
+
+    public void setBinaryMime(boolean binaryMime) {
+        this.binaryMime = binaryMime;
+    }
+
     public void addRecipient(MailAddress s) {
         toAddresses.add(s);
     }
@@ -87,39 +124,169 @@ public class MovingMessage {
 
     /**
      * Reads the contents of the stream until
-     * &lt;CRLF&gt;.&lt;CRLF&gt; is encountered.
+     * &lt;CRLF&gt;.&lt;CRLF&gt; is encountered, prefixed by the given header lines.
+     * <p/>
+     * Reads no further than the terminating line, so pipelined commands following
+     * the content remain available in the given stream.
+     *
+     * @param header CRLF terminated header lines to prepend, or null.
+     * @param in     the stream.
+     */
+    public void readDotTerminatedContent(String header, InputStream in)
+            throws IOException {
+        readDotTerminatedContent(header, in, -1L);
+    }
+
+    /**
+     * Reads the contents of the stream until
+     * &lt;CRLF&gt;.&lt;CRLF&gt; is encountered, prefixed by the given header lines.
      * <p/>
+     * Content exceeding the maximum size is consumed up to the terminating line, but neither
+     * buffered nor parsed, leaving the message unset.
+     *
+     * @param header  CRLF terminated header lines to prepend, or null.
+     * @param in      the stream.
+     * @param maxSize the maximum content size in octets, excluding the header, or 0 or -1 for unlimited.
+     * @return false, if the content exceeded the maximum size.
+     */
+    public boolean readDotTerminatedContent(String header, InputStream in, long maxSize)
+            throws IOException {
+        // Unstuffs the raw bytes into a pooled buffer, parsed without any char conversion
+        ContentBuffer buffer = acquireContentBuffer();
+        try {
+            if (null != header) {
+                buffer.write(header.getBytes(EncodingUtil.CHARSET_EIGHT_BIT_ENCODING));
+            }
+            if (!buffer.readDotTerminated(in, maxSize)) {
+                return false;
+            }
+            message = createMessage(getRawContent(buffer));
+            return true;
+        } finally {
+            buffer.release();
+            releaseUnusedSpooledContent();
+        }
+    }
+
+    /**
+     * Checks if content is transmitted in chunks, using BDAT (RFC 3030).
+     *
+     * @return true, if at least one chunk was received.
+     */
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * Reads a chunk of raw content of given size, as transmitted by BDAT (RFC 3030).
      * <p/>
-     * It would be possible and perhaps desirable to prevent the
-     * adding of an unnecessary CRLF at the end of the message, but
-     * it hardly seems worth 30 seconds of effort.
-     * </p>
+     * The octets are read unmodified into the content buffer, without any line processing.
+     *
+     * @param header CRLF terminated header lines to prepend to the first chunk, or null.
+     * @param in     the stream.
+     * @param size   the chunk size in octets.
+     * @throws IOException on IO error, or if the stream ends prematurely.
      */
-    public void readDotTerminatedContent(BufferedReader in)
+    public void readChunk(String header, InputStream in, long size)
             throws IOException {
-        _content = _workspace.getTmpFile();
-        Writer data = _content.getWriter();
-        PrintWriter dataWriter = new InternetPrintWriter(data);
-
-        while (true) {
-            String line = in.readLine();
-            if (line == null)
-                throw new EOFException("Did not receive <CRLF>.<CRLF>");
-
-            if (".".equals(line)) {
-                dataWriter.close();
-
-                break;
-            } else if (line.startsWith(".")) {
-                dataWriter.println(line.substring(1));
-            } else {
-                dataWriter.println(line);
+        if (!chunked) {
+            chunked = true;
+            chunkedContent = acquireContentBuffer();
+            if (null != header) {
+                chunkedContent.write(header.getBytes(EncodingUtil.CHARSET_EIGHT_BIT_ENCODING));
+            }
+        }
+        chunkedContent.readFully(in, size);
+        chunkedSize += size;
+    }
+
+    /**
+     * Gets the total size of all chunks received so far, excluding any prepended header lines.
+     *
+     * @return the size in octets.
+     */
+    public long getChunkedSize() {
+        return chunkedSize;
+    }
+
+    /**
+     * Creates the message from all received chunks, after the last chunk.
+     */
+    public void completeChunkedContent() throws IOException {
+        try {
+            message = createMessage(getRawContent(chunkedContent));
+        } finally {
+            releaseChunkedContent();
+            releaseUnusedSpooledContent();
+        }
+    }
+
+    /**
+     * Acquires a content buffer, spooling large content to the workspace if supported.
+     */
+    private ContentBuffer acquireContentBuffer() throws IOException {
+        ContentBuffer buffer = ContentBuffer.acquire();
+        if (_workspace instanceof SpoolingWorkspace) {
+            _content = _workspace.getTmpFile();
+            buffer.spoolTo(_content.getOutputStream(), ((SpoolingWorkspace) _workspace).getThreshold());
+        }
+        return buffer;
+    }
+
+    /**
+     * Gets the received content. Spooled content is read from the spool file, instead of reading it into memory.
+     */
+    private SharedInputStream getRawContent(ContentBuffer buffer) throws IOException {
+        if (!buffer.isSpooled()) {
+            return new SharedByteArrayInputStream(buffer.toByteArray());
+        }
+        buffer.flushSpool();
+        spooledContent = ((FileResource) _content).getSharedInputStream();
+        return spooledContent;
+    }
+
+    /**
+     * Returns the spool file to the workspace, unless the message is read from it.
+     */
+    private void releaseUnusedSpooledContent() {
+        if (null == spooledContent) {
+            releaseSpooledContent();
+        }
+    }
+
+    /**
+     * Returns the spool file to the workspace.
+     */
+    private void releaseSpooledContent() {
+        if (null != spooledContent) {
+            try {
+                spooledContent.close();
+            } catch (IOException e) {
+                log.warn("Can not close spooled content", e);
             }
+            spooledContent = null;
         }
+        if (_content != null) {
+            _workspace.release(_content);
+            _content = null;
+        }
+    }
+
+    /**
+     * Creates the message over the raw content, shared by the stored copies of all recipient mailboxes.
+     */
+    private static MimeMessage createMessage(SharedInputStream rawContent) {
         try {
-            message = GreenMailUtil.newMimeMessage(_content.getAsString());
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            return new SharedMimeMessage(rawContent);
+        } catch (MessagingException e) {
+            throw new IllegalArgumentException("Can not parse message content", e);
+        }
+    }
+
+    private void releaseChunkedContent() {
+        if (null != chunkedContent) {
+            chunkedContent.release();
+            chunkedContent = null;
         }
     }
-}
\ No newline at end of file
+}
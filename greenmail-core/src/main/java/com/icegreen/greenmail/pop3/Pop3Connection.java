@@ -94,6 +94,17 @@ public class Pop3Connection {
         return line;
     }
 
+    /**
+     * Checks if client input is available without blocking.
+     *
+     * @return true, if input is available.
+     * @throws IOException on IO error.
+     */
+    public boolean isInputPending()
+            throws IOException {
+        return _in.ready();
+    }
+
     public String getClientAddress() {
         return _clientAddress.toString();
     }
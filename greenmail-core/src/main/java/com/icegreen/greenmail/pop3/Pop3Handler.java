@@ -9,7 +9,7 @@ package com.icegreen.greenmail.pop3;
 
 import com.icegreen.greenmail.pop3.commands.Pop3Command;
 import com.icegreen.greenmail.pop3.commands.Pop3CommandRegistry;
-import com.icegreen.greenmail.server.ProtocolHandler;
+import com.icegreen.greenmail.server.SelectableProtocolHandler;
 import com.icegreen.greenmail.user.UserManager;
 
 import java.io.IOException;
@@ -18,7 +18,7 @@ import java.net.SocketTimeoutException;
 import java.util.StringTokenizer;
 
 
-public class Pop3Handler implements ProtocolHandler {
+public class Pop3Handler implements SelectableProtocolHandler {
     Pop3CommandRegistry _registry;
     Pop3Connection _conn;
     UserManager _manager;
@@ -37,12 +37,7 @@ public class Pop3Handler implements ProtocolHandler {
     @Override
     public void run() {
         try {
-            _conn = new Pop3Connection(this, _socket);
-            _state = new Pop3State(_manager);
-
-            _quitting = false;
-
-            sendGreetings();
+            open();
 
             while (!_quitting) {
                 handleCommand();
@@ -62,6 +57,32 @@ public class Pop3Handler implements ProtocolHandler {
 
     }
 
+    @Override
+    public void open() throws IOException {
+        _conn = new Pop3Connection(this, _socket);
+        _state = new Pop3State(_manager);
+
+        _quitting = false;
+
+        sendGreetings();
+    }
+
+    @Override
+    public boolean handleRequest() throws IOException {
+        try {
+            handleCommand();
+        } catch (SocketTimeoutException ste) {
+            _conn.println("421 Service shutting down and closing transmission channel");
+            close();
+        }
+        return !_quitting;
+    }
+
+    @Override
+    public boolean isInputPending() throws IOException {
+        return !_quitting && _conn.isInputPending();
+    }
+
     void sendGreetings() {
         _conn.println("+OK POP3 GreenMail Server ready");
     }
@@ -27,6 +27,11 @@ public class Pop3Server extends AbstractServer {
         return new Pop3Handler(new Pop3CommandRegistry(), managers.getUserManager(), clientSocket);
     }
 
+    @Override
+    protected String getConnectionRejectedResponse() {
+        return "-ERR Too many connections, try again later";
+    }
+
     @Override
     public POP3Store createStore() throws NoSuchProviderException {
         return (POP3Store) super.createStore();
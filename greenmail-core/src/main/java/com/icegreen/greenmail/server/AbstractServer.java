@@ -14,9 +14,18 @@ import org.slf4j.LoggerFactory;
 import javax.mail.NoSuchProviderException;
 import javax.mail.Session;
 import javax.mail.Store;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Wael Chatila
@@ -24,6 +33,10 @@ import java.util.*;
  * @since Feb 2, 2006
  */
 public abstract class AbstractServer extends Thread implements Service {
+    /**
+     * SO_REUSEPORT socket option, if supported by the JDK (9+).
+     */
+    private static final SocketOption<Boolean> SO_REUSEPORT = lookupReusePortOption();
     protected final Logger log = LoggerFactory.getLogger(getClass());
     protected final InetAddress bindTo;
     protected ServerSocket serverSocket = null;
@@ -33,6 +46,17 @@ public abstract class AbstractServer extends Thread implements Service {
     private volatile boolean keepRunning = false;
     private volatile boolean running = false;
     private final Object startupMonitor = new Object();
+    private volatile ConnectionExecutor workers;
+    private final AtomicLong rejectedConnections = new AtomicLong();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    // Server sockets of additional acceptor threads, if bound using SO_REUSEPORT
+    private final List<ServerSocket> additionalServerSockets = new CopyOnWriteArrayList<>();
+    private boolean reusePortEnabled = false;
+    private final TlsHandshakeStatistics tlsHandshakeStatistics = new TlsHandshakeStatistics();
+    private DummySSLServerSocketFactory sslServerSocketFactory;
+    // Non-blocking IO only
+    private SelectorLoop[] selectorLoops;
+    private final AtomicInteger nextSelectorLoop = new AtomicInteger();
 
     protected AbstractServer(ServerSetup setup, Managers managers) {
         this.setup = setup;
@@ -57,16 +81,74 @@ public abstract class AbstractServer extends Thread implements Service {
      */
     protected abstract ProtocolHandler createProtocolHandler(Socket clientSocket);
 
+    /**
+     * Gets the response line sent to a client before closing the connection,
+     * if the connection is rejected due to {@link ServerSetup#getMaxConnections()}.
+     *
+     * @return the response line (without line ending), or null for closing without response.
+     */
+    protected String getConnectionRejectedResponse() {
+        return null;
+    }
+
+    /**
+     * Checks if connections are served by selector loops.
+     *
+     * @return true, if non-blocking IO is configured.
+     */
+    protected boolean isNonBlockingIo() {
+        return setup.isNonBlockingIo();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> lookupReusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
     protected ServerSocket openServerSocket() throws IOException {
+        return openServerSocket(setup.getPort(),
+                setup.isReusePort() && isNonBlockingIo() && setup.getAcceptorThreads() > 1);
+    }
+
+    /**
+     * Opens and binds a server socket.
+     *
+     * @param port      the port.
+     * @param reusePort if true, tries to enable SO_REUSEPORT for binding further sockets to the same port.
+     * @return the bound server socket.
+     * @throws IOException on error.
+     */
+    private ServerSocket openServerSocket(int port, boolean reusePort) throws IOException {
         final ServerSocket socket;
-        if (setup.isSecure()) {
-            socket = DummySSLServerSocketFactory.getDefault().createServerSocket();
+        if (setup.isSecure() && null == sslServerSocketFactory) {
+            sslServerSocketFactory = new DummySSLServerSocketFactory();
+            configureSessionContext(sslServerSocketFactory.getSSLContext());
+        }
+        if (isNonBlockingIo()) {
+            // Accepted sockets provide a channel, which can be registered with a selector.
+            // Secure connections get wrapped by an SSLEngine when accepted.
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            if (reusePort && null != SO_REUSEPORT && channel.supportedOptions().contains(SO_REUSEPORT)) {
+                channel.setOption(SO_REUSEPORT, Boolean.TRUE);
+                reusePortEnabled = true;
+            }
+            socket = channel.socket();
+        } else if (setup.isSecure()) {
+            socket = sslServerSocketFactory.createServerSocket();
         } else {
             socket = new ServerSocket(); // NOSONAR
         }
         socket.setReuseAddress(true); // Try to fix TIME_WAIT on Linux when quickly starting/stopping server
         try {
-            socket.bind(new InetSocketAddress(bindTo, setup.getPort()));
+            if (setup.getAcceptBacklog() > 0) {
+                socket.bind(new InetSocketAddress(bindTo, port), setup.getAcceptBacklog());
+            } else {
+                socket.bind(new InetSocketAddress(bindTo, port));
+            }
         } catch (IOException ex) {
             try {
                 socket.close(); // Do close if bind failed!
@@ -80,6 +162,21 @@ public abstract class AbstractServer extends Thread implements Service {
         return socket;
     }
 
+    /**
+     * Configures the server side TLS session cache, shared by all connections of this server.
+     *
+     * @param sslContext the SSL context.
+     */
+    protected void configureSessionContext(SSLContext sslContext) {
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        if (setup.getTlsSessionCacheSize() >= 0) {
+            sessionContext.setSessionCacheSize(setup.getTlsSessionCacheSize());
+        }
+        if (setup.getTlsSessionTimeout() >= 0) {
+            sessionContext.setSessionTimeout(setup.getTlsSessionTimeout());
+        }
+    }
+
     @Override
     public void run() {
         try {
@@ -89,30 +186,78 @@ public abstract class AbstractServer extends Thread implements Service {
                 log.debug("Started " + getName());
             }
 
-            // Handle connections
-            while (keepOn()) {
+            acceptConnections(serverSocket);
+        } finally {
+            closeServerSocket();
+        }
+    }
+
+    /**
+     * Accepts connections until the server stops.
+     *
+     * @param socket the server socket.
+     */
+    private void acceptConnections(ServerSocket socket) {
+        // Handle connections
+        while (keepOn()) {
+            try {
+                Socket clientSocket = socket.accept();
+                if (!keepOn()) {
+                    clientSocket.close();
+                } else {
+                    handleClientSocket(clientSocket);
+                }
+            } catch (IOException ignored) {
+                //ignored
+                if (log.isTraceEnabled()) {
+                    log.trace("Error while processing client socket for " + getName(), ignored);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts acceptor threads in addition to the server thread, according to {@link ServerSetup#getAcceptorThreads()}.
+     * <p/>
+     * If enabled by {@link ServerSetup#isReusePort()} and available, each acceptor gets its own server socket
+     * bound to the same port using SO_REUSEPORT, and the OS balances incoming connections.
+     * Otherwise all acceptors share the server socket.
+     */
+    private void startAdditionalAcceptors() {
+        for (int i = 2; i <= setup.getAcceptorThreads(); i++) {
+            ServerSocket socket = serverSocket;
+            if (reusePortEnabled) {
                 try {
-                    Socket clientSocket = serverSocket.accept();
-                    if (!keepOn()) {
-                        clientSocket.close();
-                    } else {
-                        handleClientSocket(clientSocket);
-                    }
-                } catch (IOException ignored) {
-                    //ignored
-                    if (log.isTraceEnabled()) {
-                        log.trace("Error while processing client socket for " + getName(), ignored);
-                    }
+                    socket = openServerSocket(serverSocket.getLocalPort(), true);
+                    additionalServerSockets.add(socket);
+                } catch (IOException e) {
+                    log.warn("Can not open additional server socket for " + getName() + ", sharing server socket", e);
+                    socket = serverSocket;
                 }
             }
-        } finally {
-            closeServerSocket();
+            final ServerSocket acceptorSocket = socket;
+            Thread acceptor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    acceptConnections(acceptorSocket);
+                }
+            }, getName() + "-acceptor-" + i);
+            acceptor.start();
+        }
+        if (log.isDebugEnabled() && setup.getAcceptorThreads() > 1) {
+            log.debug("Started " + setup.getAcceptorThreads() + " acceptor threads for " + getName()
+                    + (reusePortEnabled ? " using SO_REUSEPORT" : " sharing server socket"));
         }
     }
 
     protected synchronized void initServerSocket() {
         try {
             serverSocket = openServerSocket();
+            workers = createConnectionExecutor();
+            if (isNonBlockingIo()) {
+                startSelectorLoops();
+            }
+            startAdditionalAcceptors();
             setRunning(true);
         } catch (IOException e) {
             final String msg = "Can not open server socket for " + getName();
@@ -147,28 +292,309 @@ public abstract class AbstractServer extends Thread implements Service {
                 throw new IllegalStateException("Failed to successfully quit server " + getName(), e);
             }
         }
+        for (ServerSocket socket : additionalServerSockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.warn("Can not close additional server socket " + socket + " of " + getName(), e);
+            }
+        }
+        additionalServerSockets.clear();
     }
 
+    /**
+     * Creates the executor serving client connections.
+     * <p/>
+     * The executor type is configured by {@link ServerSetup#getConnectionExecutor()}, or else by
+     * {@link com.icegreen.greenmail.configuration.GreenMailConfiguration#getConnectionExecutor()}.
+     *
+     * @return the executor, bounded according to {@link ServerSetup#getWorkerThreads()}.
+     */
+    protected ConnectionExecutor createConnectionExecutor() {
+        String type = setup.getConnectionExecutor();
+        if (null == type && null != managers.getStartupConfig()) {
+            type = managers.getStartupConfig().getConnectionExecutor();
+        }
+        int workerThreads = setup.getWorkerThreads();
+        if (workerThreads < 1 && isNonBlockingIo()) {
+            workerThreads = 2 * Runtime.getRuntime().availableProcessors();
+        }
+        ConnectionExecutor executor = ConnectionExecutors.create(type, getName(), workerThreads);
+        if (log.isDebugEnabled()) {
+            log.debug("Using " + executor + " for " + getName());
+        }
+        return executor;
+    }
+
+    /**
+     * Starts the IO threads for non-blocking IO.
+     *
+     * @throws IOException if a selector can not be opened.
+     */
+    protected void startSelectorLoops() throws IOException {
+        selectorLoops = new SelectorLoop[setup.getIoThreads()];
+        for (int i = 0; i < selectorLoops.length; i++) {
+            selectorLoops[i] = new SelectorLoop(getName() + "-io-" + (i + 1), workers);
+            selectorLoops[i].start();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Started " + selectorLoops.length + " IO threads for " + getName());
+        }
+    }
+
+    /**
+     * Stops the IO threads and the worker pool.
+     */
+    protected void stopSelectorLoops() {
+        if (null != selectorLoops) {
+            for (SelectorLoop loop : selectorLoops) {
+                loop.stop();
+            }
+            selectorLoops = null;
+        }
+        final ConnectionExecutor pool = workers;
+        if (null != pool) {
+            workers = null;
+            for (Runnable task : pool.shutdownNow()) {
+                if (task instanceof PendingConnection) {
+                    ((PendingConnection) task).discard();
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands an accepted client connection over to a worker thread.
+     * <p/>
+     * Invoked by the acceptor threads, which only check the connection limit.
+     * Further connection setup is done by {@link #serveClientSocket(Socket)} on the worker thread.
+     *
+     * @param clientSocket the accepted client socket.
+     */
     protected void handleClientSocket(Socket clientSocket) {
-        final ProtocolHandler handler = createProtocolHandler(clientSocket);
+        final ConnectionExecutor pool = workers;
+        if (null == pool) {
+            // Server is stopping
+            closeClientSocket(clientSocket);
+            return;
+        }
+        if (!tryAcquireConnection()) {
+            rejectClientSocket(clientSocket);
+            return;
+        }
+        try {
+            pool.execute(new PendingConnection(clientSocket));
+        } catch (RejectedExecutionException e) {
+            openConnections.decrementAndGet();
+            closeClientSocket(clientSocket);
+        }
+    }
+
+    private boolean tryAcquireConnection() {
+        final int maxConnections = getConnectionLimit();
+        while (true) {
+            int current = openConnections.get();
+            if (maxConnections > 0 && current >= maxConnections) {
+                return false;
+            }
+            if (openConnections.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sets up and serves an accepted client connection, on a worker thread.
+     *
+     * @param socket the accepted client socket.
+     */
+    protected void serveClientSocket(Socket socket) {
+        Socket clientSocket = socket;
+        final ProtocolHandler handler;
+        final SelectorLoop[] loops = selectorLoops;
+        try {
+            configureClientSocket(clientSocket);
+            if (null != loops && null != clientSocket.getChannel() && setup.isSecure()) {
+                clientSocket = new SslEngineSocket(clientSocket, sslServerSocketFactory.createSSLEngine(),
+                        tlsHandshakeStatistics, setup.getTlsHandshakeTimeout());
+            }
+            handler = createProtocolHandler(clientSocket);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Can not set up client connection " + clientSocket + " of " + getName(), e);
+            openConnections.decrementAndGet();
+            closeClientSocket(clientSocket);
+            return;
+        }
         addHandler(handler);
-        String threadName = getName() + "<-" + clientSocket.getInetAddress() + ":" + clientSocket.getPort();
+        if (!keepOn()) {
+            // Stopped while setting up
+            handler.close();
+            removeHandler(handler);
+            return;
+        }
+
+        if (null != loops && null != clientSocket.getChannel() && handler instanceof SelectableProtocolHandler) {
+            SelectorLoop loop = loops[(nextSelectorLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+            SelectorConnection connection = new SelectorConnection(this, (SelectableProtocolHandler) handler,
+                    clientSocket.getChannel(), loop);
+            if (log.isDebugEnabled()) {
+                log.debug("Handling new client connection " + clientSocket + " via " + loop);
+            }
+            if (clientSocket instanceof SslEngineSocket) {
+                // Handshake and greeting require the ClientHello, so wait for it without occupying a worker
+                loop.register(connection);
+            } else {
+                connection.run(); // Greeting, then parks connection in selector loop
+            }
+            return;
+        }
+
+        final String threadName = getName() + "<-" + clientSocket.getInetAddress() + ":" + clientSocket.getPort();
         if(log.isDebugEnabled()) {
             log.debug("Handling new client connection "+threadName);
         }
-        final Thread thread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    handler.run(); // NOSONAR
-                } finally {
-                    // Make sure to de-register, see https://github.com/greenmail-mail-test/greenmail/issues/18
-                    removeHandler(handler);
-                }
-            }
-        });
+        final Thread thread = Thread.currentThread();
+        final String workerName = thread.getName();
         thread.setName(threadName);
-        thread.start();
+        try {
+            handler.run(); // NOSONAR
+        } finally {
+            // Make sure to de-register, see https://github.com/greenmail-mail-test/greenmail/issues/18
+            removeHandler(handler);
+            thread.setName(workerName);
+        }
+    }
+
+    /**
+     * Configures socket options of an accepted client connection.
+     *
+     * @param clientSocket the client socket.
+     * @throws IOException on error.
+     */
+    protected void configureClientSocket(Socket clientSocket) throws IOException {
+        // Protocols are request/response based, so do not delay small responses
+        clientSocket.setTcpNoDelay(true);
+    }
+
+    private void closeClientSocket(Socket clientSocket) {
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            if (log.isTraceEnabled()) {
+                log.trace("Ignoring attempt to close connection", e);
+            }
+        }
+    }
+
+    /**
+     * Accepted client connection, waiting for a worker thread.
+     */
+    private class PendingConnection implements Runnable {
+        private final Socket clientSocket;
+
+        PendingConnection(Socket clientSocket) {
+            this.clientSocket = clientSocket;
+        }
+
+        @Override
+        public void run() {
+            serveClientSocket(clientSocket);
+        }
+
+        void discard() {
+            openConnections.decrementAndGet();
+            closeClientSocket(clientSocket);
+        }
+    }
+
+    /**
+     * Gets the maximum number of concurrently open client connections.
+     * <p/>
+     * In blocking mode each connection occupies a worker thread for the whole session, so connections exceeding
+     * a bounded number of worker threads are rejected instead of waiting unanswered for a thread.
+     * Executors not bounding the threads, such as {@link VirtualThreadConnectionExecutor}, do not limit connections.
+     *
+     * @return the limit, or less than one for unlimited.
+     */
+    private int getConnectionLimit() {
+        int limit = setup.getMaxConnections();
+        int workerThreads = setup.getWorkerThreads();
+        final ConnectionExecutor pool = workers;
+        if (!isNonBlockingIo() && workerThreads > 0 && null != pool && pool.isBounded()
+                && (limit < 1 || workerThreads < limit)) {
+            limit = workerThreads;
+        }
+        return limit;
+    }
+
+    /**
+     * Rejects a client connection exceeding the connection limit.
+     *
+     * @param clientSocket the client socket to close.
+     */
+    protected void rejectClientSocket(Socket clientSocket) {
+        rejectedConnections.incrementAndGet();
+        if (log.isDebugEnabled()) {
+            log.debug("Rejecting client connection " + clientSocket + " for " + getName() + ", exceeding limit of "
+                    + getConnectionLimit() + " connections");
+        }
+        try {
+            final String response = getConnectionRejectedResponse();
+            // Secure connections get closed without response, avoiding a TLS handshake on the accepting thread
+            if (null != response && !setup.isSecure()) {
+                OutputStream os = clientSocket.getOutputStream();
+                os.write((response + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                os.flush();
+            }
+        } catch (IOException e) {
+            if (log.isTraceEnabled()) {
+                log.trace("Can not send rejection response to " + clientSocket, e);
+            }
+        } finally {
+            closeClientSocket(clientSocket);
+        }
+    }
+
+    /**
+     * Gets the number of currently open client connections,
+     * including accepted connections waiting for a worker thread.
+     *
+     * @return the number of active connections.
+     */
+    public int getActiveConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * Gets the number of tasks waiting for a worker thread.
+     * <p/>
+     * For blocking IO these are accepted connections not yet served, for non-blocking IO these are
+     * connections with pending requests.
+     *
+     * @return the number of queued connections.
+     */
+    public int getQueuedConnections() {
+        final ConnectionExecutor pool = workers;
+        return null == pool ? 0 : pool.getQueuedTasks();
+    }
+
+    /**
+     * Gets the number of client connections rejected since server start, due to exceeding
+     * {@link ServerSetup#getMaxConnections()}.
+     *
+     * @return the number of rejected connections.
+     */
+    public long getRejectedConnections() {
+        return rejectedConnections.get();
+    }
+
+    /**
+     * Gets the TLS handshake metrics of secure connections, if served by non-blocking IO.
+     *
+     * @return the handshake metrics.
+     */
+    public TlsHandshakeStatistics getTlsHandshakeStatistics() {
+        return tlsHandshakeStatistics;
     }
 
     /**
@@ -185,8 +611,10 @@ public abstract class AbstractServer extends Thread implements Service {
      *
      * @param handler the handler.
      */
-    private void removeHandler(ProtocolHandler handler) {
-        handlers.remove(handler);
+    void removeHandler(ProtocolHandler handler) {
+        if (handlers.remove(handler)) {
+            openConnections.decrementAndGet();
+        }
     }
 
     /**
@@ -203,8 +631,10 @@ public abstract class AbstractServer extends Thread implements Service {
             for (ProtocolHandler handler : handlers) {
                 handler.close();
             }
+            openConnections.addAndGet(-handlers.size());
             handlers.clear();
         }
+        stopSelectorLoops();
         if (log.isDebugEnabled()) {
             log.debug("Stopped " + getName());
         }
@@ -0,0 +1,48 @@
+package com.icegreen.greenmail.server;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Executes the tasks serving client connections of a server, such as a blocking protocol handler
+ * or a batch of requests in non-blocking mode.
+ * <p/>
+ * Implementations are selected via {@link com.icegreen.greenmail.util.ServerSetup#setConnectionExecutor(String)}
+ * or {@link com.icegreen.greenmail.configuration.GreenMailConfiguration#withConnectionExecutor(String)},
+ * see {@link ConnectionExecutors} for available types.
+ * <p/>
+ * Custom implementations require a public constructor taking the executor name (used as thread name prefix)
+ * and the number of threads (less than one for unbounded), like
+ * {@link PlatformThreadConnectionExecutor#PlatformThreadConnectionExecutor(String, int)}.
+ */
+public interface ConnectionExecutor extends Executor {
+    /**
+     * Executes the given task.
+     *
+     * @param task the task to execute.
+     * @throws java.util.concurrent.RejectedExecutionException if the executor is shut down.
+     */
+    @Override
+    void execute(Runnable task);
+
+    /**
+     * Gets the number of tasks waiting for an available thread.
+     *
+     * @return the number of queued tasks.
+     */
+    int getQueuedTasks();
+
+    /**
+     * Checks if tasks share a limited number of threads, so a task may wait for an available thread.
+     *
+     * @return true, if the number of threads is bounded.
+     */
+    boolean isBounded();
+
+    /**
+     * Shuts down the executor and interrupts running tasks.
+     *
+     * @return the tasks never started.
+     */
+    List<Runnable> shutdownNow();
+}
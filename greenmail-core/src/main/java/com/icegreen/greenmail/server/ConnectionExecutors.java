@@ -0,0 +1,69 @@
+package com.icegreen.greenmail.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Creates {@link ConnectionExecutor} instances by type.
+ */
+public final class ConnectionExecutors {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionExecutors.class);
+
+    /**
+     * Pool of platform threads, see {@link PlatformThreadConnectionExecutor}. Default.
+     */
+    public static final String PLATFORM = "platform";
+    /**
+     * Virtual thread per task, see {@link VirtualThreadConnectionExecutor}.
+     * Falls back to {@link #PLATFORM} if the JDK does not support virtual threads.
+     */
+    public static final String VIRTUAL = "virtual";
+
+    private ConnectionExecutors() {
+        // No instantiation
+    }
+
+    /**
+     * Creates a connection executor.
+     *
+     * @param type    the executor type, such as {@link #PLATFORM} or {@link #VIRTUAL},
+     *                or a fully qualified {@link ConnectionExecutor} implementation class name. Null means default.
+     * @param name    the name, used as thread name prefix.
+     * @param threads the maximum number of threads, or less than one for unbounded.
+     * @return the new executor.
+     */
+    public static ConnectionExecutor create(String type, String name, int threads) {
+        if (null == type || PLATFORM.equals(type)) {
+            return new PlatformThreadConnectionExecutor(name, threads);
+        }
+        if (VIRTUAL.equals(type)) {
+            if (VirtualThreadConnectionExecutor.isSupported()) {
+                try {
+                    return new VirtualThreadConnectionExecutor(name, threads);
+                } catch (UnsupportedOperationException e) {
+                    // Such as JDK 19 and 20 without preview features enabled
+                    log.warn("Can not create virtual threads, using platform threads for " + name, e);
+                    return new PlatformThreadConnectionExecutor(name, threads);
+                }
+            }
+            log.warn("Virtual threads are not supported by JDK " + System.getProperty("java.version")
+                    + ", using platform threads for " + name);
+            return new PlatformThreadConnectionExecutor(name, threads);
+        }
+        try {
+            Class<? extends ConnectionExecutor> executorClass =
+                    Class.forName(type).asSubclass(ConnectionExecutor.class);
+            Constructor<? extends ConnectionExecutor> constructor =
+                    executorClass.getConstructor(String.class, int.class);
+            return constructor.newInstance(name, threads);
+        } catch (ClassNotFoundException | ClassCastException | NoSuchMethodException
+                | InstantiationException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Can not create connection executor of type " + type, e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalArgumentException("Can not create connection executor of type " + type, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.icegreen.greenmail.server;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default connection executor, using a pool of platform threads.
+ */
+public class PlatformThreadConnectionExecutor implements ConnectionExecutor {
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * Creates a new executor.
+     *
+     * @param name    the thread name prefix.
+     * @param threads the maximum number of threads, or less than one for an unbounded, caching pool.
+     */
+    public PlatformThreadConnectionExecutor(final String name, int threads) {
+        if (threads < 1) {
+            pool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>());
+        } else {
+            pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            pool.allowCoreThreadTimeOut(true);
+        }
+        pool.setThreadFactory(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, name + "-worker-" + count.incrementAndGet());
+            }
+        });
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        pool.execute(task);
+    }
+
+    @Override
+    public int getQueuedTasks() {
+        return pool.getQueue().size();
+    }
+
+    @Override
+    public boolean isBounded() {
+        return pool.getMaximumPoolSize() < Integer.MAX_VALUE;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return pool.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "PlatformThreadConnectionExecutor{maxThreads=" + pool.getMaximumPoolSize() + '}';
+    }
+}
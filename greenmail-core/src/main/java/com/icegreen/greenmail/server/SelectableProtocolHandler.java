@@ -0,0 +1,36 @@
+package com.icegreen.greenmail.server;
+
+import java.io.IOException;
+
+/**
+ * A protocol handler which can be driven request by request, instead of owning a thread for
+ * the whole lifetime of the connection.
+ * <p/>
+ * Used by the non-blocking server mode (see {@link com.icegreen.greenmail.util.ServerSetup#setNonBlockingIo(boolean)}):
+ * The connection is parked in a selector while idle, and a worker thread invokes {@link #handleRequest()}
+ * as soon as the client sent data.
+ */
+public interface SelectableProtocolHandler extends ProtocolHandler {
+    /**
+     * Initializes the session and sends the greeting.
+     *
+     * @throws IOException on IO error.
+     */
+    void open() throws IOException;
+
+    /**
+     * Handles a single client request.
+     *
+     * @return true, if the connection expects further requests, false if the connection is done.
+     * @throws IOException on IO error.
+     */
+    boolean handleRequest() throws IOException;
+
+    /**
+     * Checks if client data is already available, so the next request can be handled without blocking.
+     *
+     * @return true, if more input is pending.
+     * @throws IOException on IO error.
+     */
+    boolean isInputPending() throws IOException;
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client connection served by a {@link SelectorLoop}.
+ * <p/>
+ * Running this connection processes all requests available without blocking, and parks the connection
+ * in its selector loop again afterwards.
+ * <p/>
+ * Once a request has started, the worker thread reads it in blocking mode until complete. A client sending
+ * a partial request therefore occupies the worker, bounded by the socket read timeout of the protocol
+ * (SMTP and POP3 use 30 seconds, IMAP has no timeout like in blocking mode).
+ * The same timeout applies while the connection is parked, see {@link #isIdleTimedOut(long)}.
+ */
+class SelectorConnection implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(SelectorConnection.class);
+
+    private final AbstractServer server;
+    private final SelectableProtocolHandler handler;
+    private final SocketChannel channel;
+    private final SelectorLoop loop;
+    private boolean opened = false;
+    /** Time of parking in the selector loop, by {@link System#nanoTime()}. Only used by the loop thread. */
+    private long parkedSince;
+
+    SelectorConnection(AbstractServer server, SelectableProtocolHandler handler, SocketChannel channel, SelectorLoop loop) {
+        this.server = server;
+        this.handler = handler;
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void parked(long now) {
+        parkedSince = now;
+    }
+
+    /**
+     * Checks if the client sent no data for longer than the idle timeout, while parked.
+     * <p/>
+     * The idle timeout is the socket read timeout of the protocol, which bounds idle connections in blocking mode.
+     * Secure connections waiting for the client to start the TLS handshake use the handshake timeout instead.
+     *
+     * @param now current time by {@link System#nanoTime()}.
+     * @return true, if the connection should be closed.
+     */
+    boolean isIdleTimedOut(long now) {
+        long timeout;
+        try {
+            timeout = opened ? channel.socket().getSoTimeout() : server.getServerSetup().getTlsHandshakeTimeout();
+        } catch (SocketException e) {
+            return true; // Broken socket
+        }
+        return timeout > 0 && now - parkedSince > TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (!opened) {
+                opened = true;
+                handler.open();
+            } else if (!handler.handleRequest()) {
+                close();
+                return;
+            }
+
+            // Pipelined requests
+            while (handler.isInputPending()) {
+                if (!handler.handleRequest()) {
+                    close();
+                    return;
+                }
+            }
+
+            if (channel.isOpen()) {
+                loop.register(this);
+            } else {
+                close();
+            }
+        } catch (Exception e) {
+            if (log.isTraceEnabled()) {
+                log.trace("Closing connection " + this + " after error", e);
+            }
+            close();
+        }
+    }
+
+    void close() {
+        try {
+            handler.close();
+        } finally {
+            server.removeHandler(handler);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SelectorConnection{" + channel + '}';
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event loop of a single IO thread, watching idle connections for readability.
+ * <p/>
+ * A readable connection is removed from the selector, switched back to blocking mode and handed to the
+ * worker executor. After processing, the worker re-registers the connection via {@link #register(SelectorConnection)}.
+ * <p/>
+ * Connections idle for longer than their timeout are closed, see {@link SelectorConnection#isIdleTimedOut(long)}.
+ */
+class SelectorLoop implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(SelectorLoop.class);
+    /** Interval for checking parked connections for idle timeout */
+    private static final long IDLE_CHECK_INTERVAL_MILLIS = 250L;
+
+    private final Selector selector;
+    private final Executor workers;
+    private final Queue<SelectorConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean keepRunning = true;
+    private long lastIdleCheck = System.nanoTime();
+
+    SelectorLoop(String name, Executor workers) throws IOException {
+        this.workers = workers;
+        selector = Selector.open();
+        thread = new Thread(this, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Parks an idle connection in this loop, until the client sends more data.
+     * Thread safe.
+     *
+     * @param connection the connection.
+     */
+    void register(SelectorConnection connection) {
+        pendingRegistrations.add(connection);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (keepRunning) {
+                selector.select(IDLE_CHECK_INTERVAL_MILLIS);
+                registerPending();
+                closeIdle();
+                dispatchReadable();
+            }
+        } catch (ClosedSelectorException ignored) {
+            // Loop stopped
+        } catch (IOException e) {
+            if (keepRunning) {
+                log.error("Error in selector loop " + thread.getName(), e);
+            }
+        } finally {
+            closeSelector();
+        }
+    }
+
+    private void registerPending() {
+        SelectorConnection connection;
+        while (null != (connection = pendingRegistrations.poll())) {
+            try {
+                connection.getChannel().configureBlocking(false);
+                connection.getChannel().register(selector, SelectionKey.OP_READ, connection);
+                connection.parked(System.nanoTime());
+            } catch (IOException e) {
+                if (log.isTraceEnabled()) {
+                    log.trace("Can not register " + connection + ", closing", e);
+                }
+                connection.close();
+            }
+        }
+    }
+
+    private void closeIdle() throws IOException {
+        final long now = System.nanoTime();
+        if (now - lastIdleCheck < TimeUnit.MILLISECONDS.toNanos(IDLE_CHECK_INTERVAL_MILLIS)) {
+            return;
+        }
+        lastIdleCheck = now;
+
+        List<SelectorConnection> idle = new ArrayList<>();
+        for (SelectionKey key : selector.keys()) {
+            SelectorConnection connection = (SelectorConnection) key.attachment();
+            if (key.isValid() && connection.isIdleTimedOut(now)) {
+                key.cancel();
+                idle.add(connection);
+            }
+        }
+        if (idle.isEmpty()) {
+            return;
+        }
+        // Flushes the cancelled keys, so closing can write in blocking mode (e.g. TLS close notification)
+        selector.selectNow();
+
+        for (SelectorConnection connection : idle) {
+            if (log.isDebugEnabled()) {
+                log.debug("Closing idle connection " + connection);
+            }
+            try {
+                connection.getChannel().configureBlocking(true);
+            } catch (IOException e) {
+                if (log.isTraceEnabled()) {
+                    log.trace("Can not switch " + connection + " to blocking mode", e);
+                }
+            }
+            connection.close();
+        }
+    }
+
+    private void dispatchReadable() throws IOException {
+        List<SelectorConnection> readable = new ArrayList<>();
+        Set<SelectionKey> selected = selector.selectedKeys();
+        while (!selected.isEmpty()) {
+            for (SelectionKey key : selected) {
+                key.cancel();
+                readable.add((SelectorConnection) key.attachment());
+            }
+            selected.clear();
+            // Flushes the cancelled keys, required before the channels can be switched to blocking mode
+            selector.selectNow();
+        }
+
+        for (SelectorConnection connection : readable) {
+            try {
+                connection.getChannel().configureBlocking(true);
+                workers.execute(connection);
+            } catch (IOException | RejectedExecutionException e) {
+                if (log.isTraceEnabled()) {
+                    log.trace("Can not dispatch " + connection + ", closing", e);
+                }
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Stops the loop. Registered connections are not closed.
+     */
+    void stop() {
+        keepRunning = false;
+        selector.wakeup();
+        try {
+            thread.join(1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return thread.getName();
+    }
+
+    private void closeSelector() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.warn("Can not close selector of " + thread.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketImpl;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TLS socket on top of an accepted plain socket channel, encrypting by an {@link SSLEngine}.
+ * <p/>
+ * In contrast to an {@link javax.net.ssl.SSLSocket}, the underlying channel can be parked in a selector
+ * while the connection is idle. Protocol handlers use the socket streams as usual, while a worker
+ * thread serves the connection.
+ * <p/>
+ * The handshake is performed on first use of the streams, bounded by the handshake timeout.
+ */
+class SslEngineSocket extends Socket {
+    private static final Logger log = LoggerFactory.getLogger(SslEngineSocket.class);
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Socket socket;
+    private final SSLEngine engine;
+    private final TlsHandshakeStatistics statistics;
+    private final int handshakeTimeout;
+    private final InputStream rawIn;
+    private final OutputStream rawOut;
+    private final InputStream in = new SslInputStream();
+    private final OutputStream out = new SslOutputStream();
+    private final Object readLock = new Object();
+    private final Object writeLock = new Object();
+    private volatile boolean handshakeDone = false;
+    /** Received encrypted data, in write mode */
+    private ByteBuffer netIn;
+    /** Decrypted application data, in read mode */
+    private ByteBuffer appIn;
+    /** Encrypted data to send */
+    private ByteBuffer netOut;
+
+    /**
+     * @param socket           the accepted plain socket.
+     * @param engine           the server engine.
+     * @param statistics       statistics recording the handshake.
+     * @param handshakeTimeout timeout for reading handshake messages in milliseconds, or 0 for no timeout.
+     */
+    SslEngineSocket(Socket socket, SSLEngine engine, TlsHandshakeStatistics statistics, int handshakeTimeout)
+            throws IOException {
+        super((SocketImpl) null);
+        this.socket = socket;
+        this.engine = engine;
+        this.statistics = statistics;
+        this.handshakeTimeout = handshakeTimeout;
+        rawIn = socket.getInputStream();
+        rawOut = socket.getOutputStream();
+        engine.setUseClientMode(false);
+        int packetBufferSize = engine.getSession().getPacketBufferSize();
+        netIn = ByteBuffer.allocate(packetBufferSize);
+        netOut = ByteBuffer.allocate(packetBufferSize);
+        appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        ((Buffer) appIn).flip();
+    }
+
+    private void ensureHandshake() throws IOException {
+        if (handshakeDone) {
+            return;
+        }
+        synchronized (readLock) {
+            synchronized (writeLock) {
+                if (handshakeDone) {
+                    return;
+                }
+                final long start = System.nanoTime();
+                // A stalling client must not block the serving worker thread forever
+                final int soTimeout = socket.getSoTimeout();
+                if (handshakeTimeout > 0) {
+                    socket.setSoTimeout(handshakeTimeout);
+                }
+                boolean resumed;
+                try {
+                    engine.beginHandshake();
+                    resumed = processHandshake();
+                } catch (IOException | RuntimeException e) {
+                    statistics.handshakeFailed();
+                    // Connection is unusable, and must not retry the handshake when flushing on close
+                    socket.close();
+                    throw e;
+                } finally {
+                    if (handshakeTimeout > 0 && !socket.isClosed()) {
+                        socket.setSoTimeout(soTimeout);
+                    }
+                }
+                handshakeDone = true;
+                statistics.handshakeCompleted(System.nanoTime() - start, resumed);
+                if (log.isDebugEnabled()) {
+                    log.debug("Finished " + (resumed ? "resumed " : "") + "TLS handshake for " + socket + " using "
+                            + engine.getSession().getProtocol() + '/' + engine.getSession().getCipherSuite() + " in "
+                            + (System.nanoTime() - start) / 1000000L + "ms");
+                }
+            }
+        }
+    }
+
+    /**
+     * Drives the engine until no further handshake steps are required.
+     * Caller must hold read and write lock.
+     *
+     * @return true, if the handshake resumed a session.
+     */
+    private boolean processHandshake() throws IOException {
+        Boolean resumed = null;
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        while (status != SSLEngineResult.HandshakeStatus.FINISHED
+                && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                wrap(EMPTY);
+            } else if (unwrap(true) < 0) {
+                throw new EOFException("Connection closed during TLS handshake");
+            }
+            SSLSession handshakeSession = engine.getHandshakeSession();
+            if (null == resumed && null != handshakeSession) {
+                resumed = statistics.sessionNegotiated(handshakeSession);
+            }
+            status = engine.getHandshakeStatus();
+        }
+        return Boolean.TRUE.equals(resumed);
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while (null != (task = engine.getDelegatedTask())) {
+            task.run();
+        }
+    }
+
+    /**
+     * Decrypts received data.
+     * Caller must hold read lock.
+     *
+     * @param mayBlock if true, reads from the network until a complete TLS record is available.
+     * @return the number of decrypted bytes, or -1 if the connection is closed.
+     */
+    private int unwrap(boolean mayBlock) throws IOException {
+        while (true) {
+            SSLEngineResult result;
+            ((Buffer) netIn).flip();
+            appIn.compact();
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+                ((Buffer) appIn).flip();
+            }
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            }
+            switch (result.getStatus()) {
+                case OK:
+                    return result.bytesProduced();
+                case BUFFER_OVERFLOW:
+                    ByteBuffer largerAppIn = ByteBuffer.allocate(
+                            Math.max(2 * appIn.capacity(), engine.getSession().getApplicationBufferSize()));
+                    largerAppIn.put(appIn);
+                    ((Buffer) largerAppIn).flip();
+                    appIn = largerAppIn;
+                    break;
+                case BUFFER_UNDERFLOW:
+                    if (!mayBlock) {
+                        return 0;
+                    }
+                    if (!netIn.hasRemaining()) {
+                        ByteBuffer largerNetIn = ByteBuffer.allocate(
+                                Math.max(2 * netIn.capacity(), engine.getSession().getPacketBufferSize()));
+                        ((Buffer) netIn).flip();
+                        largerNetIn.put(netIn);
+                        netIn = largerNetIn;
+                    }
+                    int count = rawIn.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+                    if (count < 0) {
+                        closeInbound();
+                        return -1;
+                    }
+                    ((Buffer) netIn).position(netIn.position() + count);
+                    break;
+                case CLOSED:
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    private void closeInbound() {
+        try {
+            engine.closeInbound();
+        } catch (SSLException e) {
+            // Peer did not send close_notify
+            if (log.isTraceEnabled()) {
+                log.trace("Connection closed without TLS close notification by " + socket, e);
+            }
+        }
+    }
+
+    /**
+     * Encrypts and sends data.
+     * Caller must hold write lock.
+     *
+     * @param src the data to send, can be empty for handshake messages.
+     */
+    private void wrap(ByteBuffer src) throws IOException {
+        while (true) {
+            ((Buffer) netOut).clear();
+            SSLEngineResult result = engine.wrap(src, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                netOut = ByteBuffer.allocate(Math.max(2 * netOut.capacity(), engine.getSession().getPacketBufferSize()));
+                continue;
+            }
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            }
+            ((Buffer) netOut).flip();
+            if (netOut.hasRemaining()) {
+                rawOut.write(netOut.array(), netOut.arrayOffset(), netOut.remaining());
+                rawOut.flush();
+            }
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED && src.hasRemaining()) {
+                throw new SSLException("TLS engine closed");
+            }
+            return;
+        }
+    }
+
+    /**
+     * Handles post handshake messages, such as key updates.
+     * Caller must hold read lock.
+     */
+    private void processPostHandshake() throws IOException {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        if (status != SSLEngineResult.HandshakeStatus.FINISHED
+                && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+            synchronized (writeLock) {
+                processHandshake();
+            }
+        }
+    }
+
+    private class SslInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return count < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            ensureHandshake();
+            synchronized (readLock) {
+                while (!appIn.hasRemaining()) {
+                    if (unwrap(true) < 0) {
+                        return -1;
+                    }
+                    processPostHandshake();
+                }
+                int count = Math.min(len, appIn.remaining());
+                appIn.get(b, off, count);
+                return count;
+            }
+        }
+
+        /**
+         * Gets the number of decrypted bytes, which can be read without blocking.
+         * Complete TLS records already received are decrypted, but no data is read from the network.
+         */
+        @Override
+        public int available() throws IOException {
+            if (!handshakeDone) {
+                return 0;
+            }
+            synchronized (readLock) {
+                if (!appIn.hasRemaining() && netIn.position() > 0) {
+                    unwrap(false);
+                }
+                return appIn.remaining();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            SslEngineSocket.this.close();
+        }
+    }
+
+    private class SslOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureHandshake();
+            synchronized (writeLock) {
+                ByteBuffer src = ByteBuffer.wrap(b, off, len);
+                while (src.hasRemaining()) {
+                    wrap(src);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            SslEngineSocket.this.close();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return out;
+    }
+
+    @Override
+    public SocketChannel getChannel() {
+        return socket.getChannel();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (socket.isClosed()) {
+            return;
+        }
+        try {
+            if (handshakeDone) {
+                engine.closeOutbound();
+                synchronized (writeLock) {
+                    wrap(EMPTY); // close_notify
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            if (log.isTraceEnabled()) {
+                log.trace("Can not send TLS close notification for " + socket, e);
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    @Override
+    public boolean isBound() {
+        return socket.isBound();
+    }
+
+    @Override
+    public boolean isInputShutdown() {
+        return socket.isInputShutdown();
+    }
+
+    @Override
+    public boolean isOutputShutdown() {
+        return socket.isOutputShutdown();
+    }
+
+    @Override
+    public void shutdownInput() throws IOException {
+        socket.shutdownInput();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        socket.shutdownOutput();
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return socket.getInetAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return socket.getPort();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return socket.getLocalAddress();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return socket.getRemoteSocketAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return socket.getLocalSocketAddress();
+    }
+
+    @Override
+    public synchronized void setSoTimeout(int timeout) throws SocketException {
+        socket.setSoTimeout(timeout);
+    }
+
+    @Override
+    public synchronized int getSoTimeout() throws SocketException {
+        return socket.getSoTimeout();
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) throws SocketException {
+        socket.setTcpNoDelay(on);
+    }
+
+    @Override
+    public boolean getTcpNoDelay() throws SocketException {
+        return socket.getTcpNoDelay();
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) throws SocketException {
+        socket.setKeepAlive(on);
+    }
+
+    @Override
+    public boolean getKeepAlive() throws SocketException {
+        return socket.getKeepAlive();
+    }
+
+    @Override
+    public String toString() {
+        return "SslEngineSocket{" + socket + '}';
+    }
+}
@@ -0,0 +1,121 @@
+package com.icegreen.greenmail.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLSession;
+
+/**
+ * Metrics of TLS handshakes performed by a server using non-blocking IO.
+ * <p/>
+ * Thread safe.
+ */
+public class TlsHandshakeStatistics {
+    private static final AtomicLong instances = new AtomicLong();
+
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+    private final AtomicLong failedHandshakes = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    /**
+     * Name of the value bound to sessions negotiated by full handshakes of this server.
+     */
+    private final String sessionValueName = TlsHandshakeStatistics.class.getName() + '.' + instances.incrementAndGet();
+
+    /**
+     * Marks the session of a handshake in progress, by binding a value to it.
+     * <p/>
+     * Up to TLS 1.2 a resumed session is the cached session object itself. TLS 1.3 resumes a copy with a new id,
+     * sharing the bound values of the original session. As the JDK issues no stateless session tickets for
+     * sessions with bound values, such sessions are kept in the server session cache instead.
+     * <p/>
+     * Must be invoked once the handshake session is available, before the handshake finishes and issues
+     * session tickets.
+     *
+     * @param handshakeSession the session of the handshake, see {@link javax.net.ssl.SSLEngine#getHandshakeSession()}.
+     * @return true, if the session was negotiated by a previous handshake, so this handshake resumes it.
+     */
+    boolean sessionNegotiated(SSLSession handshakeSession) {
+        if (null != handshakeSession.getValue(sessionValueName)) {
+            return true;
+        }
+        handshakeSession.putValue(sessionValueName, Boolean.TRUE);
+        return false;
+    }
+
+    /**
+     * Records a successful handshake.
+     *
+     * @param durationNanos the duration of the handshake.
+     * @param resumed       true, if the handshake resumed a session, see {@link #sessionNegotiated(SSLSession)}.
+     */
+    void handshakeCompleted(long durationNanos, boolean resumed) {
+        handshakes.incrementAndGet();
+        if (resumed) {
+            resumedHandshakes.incrementAndGet();
+        }
+        totalNanos.addAndGet(durationNanos);
+        long max;
+        do {
+            max = maxNanos.get();
+        } while (durationNanos > max && !maxNanos.compareAndSet(max, durationNanos));
+    }
+
+    void handshakeFailed() {
+        failedHandshakes.incrementAndGet();
+    }
+
+    /**
+     * @return the number of successful handshakes.
+     */
+    public long getHandshakes() {
+        return handshakes.get();
+    }
+
+    /**
+     * @return the number of successful handshakes, which resumed a cached TLS session.
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    /**
+     * @return the number of failed handshakes.
+     */
+    public long getFailedHandshakes() {
+        return failedHandshakes.get();
+    }
+
+    /**
+     * @return the total time of successful handshakes, in milliseconds.
+     */
+    public long getTotalHandshakeTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos.get());
+    }
+
+    /**
+     * @return the average time of successful handshakes in milliseconds, or 0 if none.
+     */
+    public double getAverageHandshakeTimeMillis() {
+        long count = handshakes.get();
+        return count == 0 ? 0d : totalNanos.get() / (count * 1000000d);
+    }
+
+    /**
+     * @return the longest time of a successful handshake, in milliseconds.
+     */
+    public long getMaxHandshakeTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "TlsHandshakeStatistics{" +
+                "handshakes=" + getHandshakes() +
+                ", resumedHandshakes=" + getResumedHandshakes() +
+                ", failedHandshakes=" + getFailedHandshakes() +
+                ", averageHandshakeTimeMillis=" + getAverageHandshakeTimeMillis() +
+                ", maxHandshakeTimeMillis=" + getMaxHandshakeTimeMillis() +
+                '}';
+    }
+}
@@ -0,0 +1,84 @@
+package com.icegreen.greenmail.server;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Connection executor starting a new virtual thread per task.
+ * <p/>
+ * Requires a JDK providing virtual threads (JDK 21+). The JDK API is looked up reflectively,
+ * so GreenMail still builds and runs on older JDKs. Blocking protocol handlers then no longer
+ * occupy a platform thread per connection.
+ */
+public class VirtualThreadConnectionExecutor implements ConnectionExecutor {
+    private final ExecutorService executorService;
+
+    /**
+     * Creates a new executor.
+     *
+     * @param name    the thread name prefix.
+     * @param threads ignored, as virtual threads are not pooled.
+     * @throws UnsupportedOperationException if the JDK does not support virtual threads.
+     */
+    public VirtualThreadConnectionExecutor(String name, int threads) {
+        try {
+            // Thread.ofVirtual().name(name + "-worker-", 1).factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-worker-", 1L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            // Executors.newThreadPerTaskExecutor(threadFactory)
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            executorService = (ExecutorService) newExecutor.invoke(null, threadFactory);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by JDK "
+                    + System.getProperty("java.version"), e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException("Can not create virtual thread executor", e.getCause());
+        }
+    }
+
+    /**
+     * Checks if the current JDK supports virtual threads.
+     *
+     * @return true, if supported.
+     */
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executorService.execute(task);
+    }
+
+    @Override
+    public int getQueuedTasks() {
+        return 0; // Never waits for an available thread
+    }
+
+    @Override
+    public boolean isBounded() {
+        return false; // A new thread per task
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return executorService.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "VirtualThreadConnectionExecutor";
+    }
+}
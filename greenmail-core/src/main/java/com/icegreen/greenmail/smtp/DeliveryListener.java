@@ -0,0 +1,16 @@
+package com.icegreen.greenmail.smtp;
+
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Callback for messages matching a {@link DeliverySubscription}.
+ * <p/>
+ * Invoked on the delivering thread, so implementations must return quickly and not block.
+ */
+public interface DeliveryListener {
+    /**
+     * @param message   the delivered message.
+     * @param recipient the email address of the mailbox the message was stored into.
+     */
+    void delivered(MimeMessage message, String recipient);
+}
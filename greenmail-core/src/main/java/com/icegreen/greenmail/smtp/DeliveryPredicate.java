@@ -0,0 +1,21 @@
+package com.icegreen.greenmail.smtp;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Selects messages delivered via SMTP, for a {@link DeliverySubscription}.
+ * <p/>
+ * Evaluated once per stored copy of a message, on the delivering thread.
+ *
+ * @see DeliveryPredicates
+ */
+public interface DeliveryPredicate {
+    /**
+     * @param message   the delivered message.
+     * @param recipient the email address of the mailbox the message is stored into.
+     * @return true, if matching.
+     * @throws MessagingException on error accessing the message, treated as not matching.
+     */
+    boolean matches(MimeMessage message, String recipient) throws MessagingException;
+}
@@ -0,0 +1,103 @@
+package com.icegreen.greenmail.smtp;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Common {@link DeliveryPredicate delivery predicates}.
+ */
+public final class DeliveryPredicates {
+    private DeliveryPredicates() {
+        // Static helpers only
+    }
+
+    /**
+     * @param email the recipient email address, ignoring case.
+     * @return predicate matching messages stored into the mailbox of the recipient.
+     */
+    public static DeliveryPredicate recipient(final String email) {
+        return new DeliveryPredicate() {
+            @Override
+            public boolean matches(MimeMessage message, String recipient) {
+                return email.equalsIgnoreCase(recipient);
+            }
+        };
+    }
+
+    /**
+     * @param email the sender email address, ignoring case.
+     * @return predicate matching messages with the sender in the From header.
+     */
+    public static DeliveryPredicate sender(final String email) {
+        return new DeliveryPredicate() {
+            @Override
+            public boolean matches(MimeMessage message, String recipient) throws MessagingException {
+                Address[] from = message.getFrom();
+                if (null != from) {
+                    for (Address address : from) {
+                        if (address instanceof InternetAddress
+                                && email.equalsIgnoreCase(((InternetAddress) address).getAddress())) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param subject the exact subject.
+     * @return predicate matching messages with the subject.
+     */
+    public static DeliveryPredicate subject(final String subject) {
+        return new DeliveryPredicate() {
+            @Override
+            public boolean matches(MimeMessage message, String recipient) throws MessagingException {
+                return subject.equals(message.getSubject());
+            }
+        };
+    }
+
+    /**
+     * @param name  the header name, ignoring case.
+     * @param value the exact header value, ignoring surrounding white space.
+     * @return predicate matching messages with at least one such header.
+     */
+    public static DeliveryPredicate header(final String name, final String value) {
+        return new DeliveryPredicate() {
+            @Override
+            public boolean matches(MimeMessage message, String recipient) throws MessagingException {
+                String[] values = message.getHeader(name);
+                if (null != values) {
+                    for (String v : values) {
+                        if (value.equals(v.trim())) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param predicates the predicates, evaluated in the given order.
+     * @return predicate matching messages matching all predicates.
+     */
+    public static DeliveryPredicate and(final DeliveryPredicate... predicates) {
+        return new DeliveryPredicate() {
+            @Override
+            public boolean matches(MimeMessage message, String recipient) throws MessagingException {
+                for (DeliveryPredicate predicate : predicates) {
+                    if (!predicate.matches(message, recipient)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+}
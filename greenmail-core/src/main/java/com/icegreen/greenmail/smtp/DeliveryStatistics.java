@@ -0,0 +1,95 @@
+package com.icegreen.greenmail.smtp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of message delivery into the mailboxes, as performed by {@link SmtpManager}.
+ * <p/>
+ * Latency is measured from accepting the message content until it is stored for all recipients.
+ * <p/>
+ * Thread safe.
+ */
+public class DeliveryStatistics {
+    private final AtomicInteger queuedDeliveries = new AtomicInteger();
+    private final AtomicLong deliveredMessages = new AtomicLong();
+    private final AtomicLong failedMessages = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void deliveryQueued() {
+        queuedDeliveries.incrementAndGet();
+    }
+
+    void deliveryDequeued() {
+        queuedDeliveries.decrementAndGet();
+    }
+
+    void messageDelivered(long durationNanos) {
+        deliveredMessages.incrementAndGet();
+        totalNanos.addAndGet(durationNanos);
+        long max;
+        do {
+            max = maxNanos.get();
+        } while (durationNanos > max && !maxNanos.compareAndSet(max, durationNanos));
+    }
+
+    void messageFailed() {
+        failedMessages.incrementAndGet();
+    }
+
+    /**
+     * @return the current number of queued deliveries to a single mailbox, not yet processed by a delivery worker.
+     */
+    public int getQueuedDeliveries() {
+        return queuedDeliveries.get();
+    }
+
+    /**
+     * @return the number of messages stored for all recipients.
+     */
+    public long getDeliveredMessages() {
+        return deliveredMessages.get();
+    }
+
+    /**
+     * @return the number of messages failing delivery for at least one recipient.
+     */
+    public long getFailedMessages() {
+        return failedMessages.get();
+    }
+
+    /**
+     * @return the total delivery time of delivered messages, in milliseconds.
+     */
+    public long getTotalDeliveryTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos.get());
+    }
+
+    /**
+     * @return the average delivery time of delivered messages in milliseconds, or 0 if none.
+     */
+    public double getAverageDeliveryTimeMillis() {
+        long count = deliveredMessages.get();
+        return count == 0 ? 0d : totalNanos.get() / (count * 1000000d);
+    }
+
+    /**
+     * @return the longest delivery time of a delivered message, in milliseconds.
+     */
+    public long getMaxDeliveryTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "DeliveryStatistics{" +
+                "queuedDeliveries=" + getQueuedDeliveries() +
+                ", deliveredMessages=" + getDeliveredMessages() +
+                ", failedMessages=" + getFailedMessages() +
+                ", averageDeliveryTimeMillis=" + getAverageDeliveryTimeMillis() +
+                ", maxDeliveryTimeMillis=" + getMaxDeliveryTimeMillis() +
+                '}';
+    }
+}
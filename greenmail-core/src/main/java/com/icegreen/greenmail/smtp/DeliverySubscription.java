@@ -0,0 +1,126 @@
+package com.icegreen.greenmail.smtp;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Subscription for messages delivered via SMTP, matching a {@link DeliveryPredicate}.
+ * <p/>
+ * Messages are matched once when stored, so only messages delivered after subscribing are considered.
+ * As a future, the subscription completes with the first matching message.
+ * Without a {@link DeliveryListener}, it is removed once completed. Otherwise, the listener is invoked
+ * for every matching message until the subscription is {@link #cancel(boolean) cancelled}.
+ * <p/>
+ * Thread safe.
+ */
+public class DeliverySubscription implements Future<MimeMessage> {
+    private static final Logger log = LoggerFactory.getLogger(DeliverySubscription.class);
+
+    private final DeliveryPredicate predicate;
+    private final DeliveryListener listener;
+    private final Queue<DeliverySubscription> subscriptions;
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private volatile MimeMessage message;
+    private volatile boolean cancelled;
+
+    DeliverySubscription(DeliveryPredicate predicate, DeliveryListener listener,
+                         Queue<DeliverySubscription> subscriptions) {
+        this.predicate = predicate;
+        this.listener = listener;
+        this.subscriptions = subscriptions;
+    }
+
+    /**
+     * Matches a stored message, invoked by the delivering thread.
+     *
+     * @return true, if the subscription is done and can be removed.
+     */
+    boolean messageStored(MimeMessage storedMessage, String recipient) {
+        if (cancelled) {
+            return true;
+        }
+        try {
+            if (!predicate.matches(storedMessage, recipient)) {
+                return false;
+            }
+        } catch (MessagingException | RuntimeException e) {
+            log.warn("Can not match message to " + recipient + ", skipping subscription", e);
+            return false;
+        }
+        if (completed.getCount() > 0) {
+            synchronized (this) {
+                if (completed.getCount() > 0) {
+                    message = storedMessage;
+                    completed.countDown();
+                }
+            }
+        }
+        if (null == listener) {
+            return true;
+        }
+        try {
+            listener.delivered(storedMessage, recipient);
+        } catch (RuntimeException e) {
+            log.warn("Delivery listener failed for message to " + recipient, e);
+        }
+        return false;
+    }
+
+    /**
+     * Stops matching further messages. Completes the future as cancelled, unless already completed.
+     *
+     * @param mayInterruptIfRunning ignored, as no task is running.
+     * @return false, if the future was already completed.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean wasPending;
+        synchronized (this) {
+            wasPending = completed.getCount() > 0;
+            cancelled = true;
+            completed.countDown();
+        }
+        subscriptions.remove(this);
+        return wasPending;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled && null == message;
+    }
+
+    @Override
+    public boolean isDone() {
+        return completed.getCount() == 0;
+    }
+
+    @Override
+    public MimeMessage get() throws InterruptedException {
+        completed.await();
+        return getMessage();
+    }
+
+    @Override
+    public MimeMessage get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!completed.await(timeout, unit)) {
+            throw new TimeoutException("No matching message delivered within " + unit.toMillis(timeout) + "ms");
+        }
+        return getMessage();
+    }
+
+    private MimeMessage getMessage() {
+        if (isCancelled()) {
+            throw new CancellationException("Subscription cancelled");
+        }
+        return message;
+    }
+}
@@ -6,6 +6,7 @@
  */
 package com.icegreen.greenmail.smtp;
 
+import com.icegreen.greenmail.foedus.util.StreamUtils;
 import com.icegreen.greenmail.util.EncodingUtil;
 import com.icegreen.greenmail.util.InternetPrintWriter;
 import org.slf4j.Logger;
@@ -24,7 +25,7 @@ public class SmtpConnection {
     Socket sock;
     InetAddress clientAddress;
     InternetPrintWriter out;
-    BufferedReader in;
+    InputStream in;
     SmtpHandler handler;
     String heloName;
 
@@ -35,12 +36,22 @@ public class SmtpConnection {
         clientAddress = sock.getInetAddress();
         OutputStream o = sock.getOutputStream();
         InputStream i = sock.getInputStream();
-        out = InternetPrintWriter.createForEncoding(o, true, EncodingUtil.CHARSET_EIGHT_BIT_ENCODING);
-        in = new BufferedReader(new InputStreamReader(i));
+        // Replies are flushed when waiting for client input, batching pipelined replies (RFC 2920)
+        out = InternetPrintWriter.createForEncoding(o, false, EncodingUtil.CHARSET_EIGHT_BIT_ENCODING);
+        // Byte oriented, as BDAT chunks are read as raw octets following the command line
+        in = new BufferedInputStream(i);
 
         this.handler = handler;
     }
 
+    /**
+     * Sends a reply line.
+     * <p/>
+     * The reply is buffered, and gets written when the next command is read but not yet available,
+     * or on {@link #flush()}.
+     *
+     * @param line the reply line.
+     */
     public void send(String line) {
         if (log.isTraceEnabled()) {
             log.trace("S: " + line);
@@ -48,13 +59,67 @@ public class SmtpConnection {
         out.println(line);
     }
 
-    public BufferedReader getReader() {
+    /**
+     * Writes all buffered replies.
+     */
+    public void flush() {
+        out.flush();
+    }
+
+    /**
+     * Writes all buffered replies, unless more pipelined client commands are already available.
+     *
+     * @throws IOException on IO error.
+     */
+    public void flushIfNoPendingInput() throws IOException {
+        if (!isInputPending()) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Checks if client input is available without blocking.
+     *
+     * @return true if available.
+     * @throws IOException on IO error.
+     */
+    public boolean isInputPending() throws IOException {
+        return in.available() > 0;
+    }
+
+    /**
+     * Gets the raw client input, positioned after the last received command line.
+     *
+     * @return the input stream.
+     */
+    public InputStream getInputStream() {
         return in;
     }
 
+    /**
+     * Skips client input, such as the content of a rejected BDAT chunk.
+     *
+     * @param size the number of octets to skip.
+     * @throws IOException on IO error or if the client input ends prematurely.
+     */
+    public void skip(long size) throws IOException {
+        long remaining = size;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped > 0) {
+                remaining -= skipped;
+            } else if (in.read() < 0) {
+                throw new EOFException("Expected " + remaining + " more octets");
+            } else {
+                remaining--;
+            }
+        }
+    }
+
     public String receiveLine()
             throws IOException {
-        String line = in.readLine();
+        flushIfNoPendingInput();
+        String line = StreamUtils.readLine(in);
         if (log.isTraceEnabled()) {
             log.trace("C: " + line);
         }
@@ -78,6 +143,13 @@ public class SmtpConnection {
             return System.getProperty("user.name");
     }
 
+    /**
+     * @return the maximum accepted message size in octets, or a value less than 1 for unlimited.
+     */
+    public long getMaxMessageSize() {
+        return handler.getMaxMessageSize();
+    }
+
     public String getHeloName() {
         return heloName;
     }
@@ -7,7 +7,7 @@
 package com.icegreen.greenmail.smtp;
 
 import com.icegreen.greenmail.foedus.util.Workspace;
-import com.icegreen.greenmail.server.ProtocolHandler;
+import com.icegreen.greenmail.server.SelectableProtocolHandler;
 import com.icegreen.greenmail.smtp.commands.SmtpCommand;
 import com.icegreen.greenmail.smtp.commands.SmtpCommandRegistry;
 import org.slf4j.Logger;
@@ -17,7 +17,7 @@ import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 
-class SmtpHandler implements ProtocolHandler {
+class SmtpHandler implements SelectableProtocolHandler {
     private static final Logger log = LoggerFactory.getLogger(SmtpHandler.class);
 
     // protocol and configuration global stuff
@@ -33,23 +33,30 @@ class SmtpHandler implements ProtocolHandler {
     boolean _quitting;
     String _currentLine;
     private Socket _socket;
+    private final long maxMessageSize;
 
     public SmtpHandler(SmtpCommandRegistry registry,
                        SmtpManager manager, Workspace workspace, Socket socket) {
+        this(registry, manager, workspace, socket, -1L);
+    }
+
+    public SmtpHandler(SmtpCommandRegistry registry,
+                       SmtpManager manager, Workspace workspace, Socket socket, long maxMessageSize) {
         _registry = registry;
         _manager = manager;
         _workspace = workspace;
         _socket = socket;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    long getMaxMessageSize() {
+        return maxMessageSize;
     }
 
     @Override
     public void run() {
         try {
-            _conn = new SmtpConnection(this, _socket);
-            _state = new SmtpState(_workspace);
-            _quitting = false;
-
-            sendGreetings();
+            open();
 
             while (!_quitting) {
                 handleCommand();
@@ -57,6 +64,7 @@ class SmtpHandler implements ProtocolHandler {
 
         } catch (SocketTimeoutException ste) {
             _conn.send("421 Service shutting down and closing transmission channel");
+            _conn.flush();
 
         } catch (Exception e) {
             // Closing socket on blocked read
@@ -71,6 +79,37 @@ class SmtpHandler implements ProtocolHandler {
         }
     }
 
+    @Override
+    public void open() throws IOException {
+        _conn = new SmtpConnection(this, _socket);
+        _state = new SmtpState(_workspace);
+        _quitting = false;
+
+        sendGreetings();
+        _conn.flush();
+    }
+
+    @Override
+    public boolean handleRequest() throws IOException {
+        try {
+            handleCommand();
+        } catch (SocketTimeoutException ste) {
+            _conn.send("421 Service shutting down and closing transmission channel");
+            close();
+        }
+        if (_quitting) {
+            _state.clearMessage();
+        } else {
+            _conn.flushIfNoPendingInput();
+        }
+        return !_quitting;
+    }
+
+    @Override
+    public boolean isInputPending() throws IOException {
+        return !_quitting && _conn.isInputPending();
+    }
+
     protected void sendGreetings() {
         _conn.send("220 " + _conn.getServerGreetingsName() +
                 " GreenMail SMTP Service Ready at port " + _conn.sock.getLocalPort());
@@ -141,6 +180,9 @@ class SmtpHandler implements ProtocolHandler {
         _quitting = true;
         try {
             if (_socket != null && !_socket.isClosed()) {
+                if (null != _conn) {
+                    _conn.flush(); // Pending replies, eg for QUIT
+                }
                 _socket.close();
             }
         } catch(IOException ignored) {
@@ -7,15 +7,34 @@
 package com.icegreen.greenmail.smtp;
 
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
 
 import com.icegreen.greenmail.configuration.GreenMailConfiguration;
 import com.icegreen.greenmail.configuration.UserBean;
+import com.icegreen.greenmail.foedus.util.InMemoryWorkspace;
+import com.icegreen.greenmail.foedus.util.SpoolingWorkspace;
+import com.icegreen.greenmail.foedus.util.Workspace;
 import com.icegreen.greenmail.imap.ImapHostManager;
 import com.icegreen.greenmail.mail.MailAddress;
 import com.icegreen.greenmail.mail.MovingMessage;
+import com.icegreen.greenmail.store.SharedMimeMessage;
 import com.icegreen.greenmail.user.GreenMailUser;
 import com.icegreen.greenmail.user.UserManager;
 import org.slf4j.Logger;
@@ -24,19 +43,73 @@ import org.slf4j.LoggerFactory;
 
 public class SmtpManager {
     protected static final Logger log = LoggerFactory.getLogger(SmtpManager.class);
+    private static final long STOP_TIMEOUT_MILLIS = 5000L;
 
     Incoming _incomingQueue;
     UserManager userManager;
     GreenMailConfiguration startupConfig;
     private ImapHostManager imapHostManager;
-    List<WaitObject> notifyList;
+    /**
+     * Number of messages stored into a mailbox so far, only ever increasing.
+     */
+    private final AtomicLong storedMessages = new AtomicLong();
+    /**
+     * Registered waiters, removed once arrived or timed out.
+     */
+    private final Queue<WaitObject> waiters = new ConcurrentLinkedQueue<>();
+    private final Queue<DeliverySubscription> subscriptions = new ConcurrentLinkedQueue<>();
+    /**
+     * Single threaded delivery lanes. All deliveries to a mailbox use the same lane, keeping their order.
+     * Empty for inline delivery on the SMTP session thread.
+     */
+    private final ExecutorService[] deliveryLanes;
+    private final DeliveryStatistics deliveryStatistics = new DeliveryStatistics();
+    /**
+     * Held shared while storing and counting messages, and exclusively while registering a waiter.
+     */
+    private final ReadWriteLock deliveryLock = new ReentrantReadWriteLock();
+    private final Workspace workspace;
 
     public SmtpManager(ImapHostManager imapHostManager, UserManager userManager, GreenMailConfiguration startupConfig) {
         this.imapHostManager = imapHostManager;
         this.userManager = userManager;
         this.startupConfig = startupConfig;
         _incomingQueue = new Incoming();
-        notifyList = Collections.synchronizedList(new ArrayList<WaitObject>());
+        deliveryLanes = createDeliveryLanes(startupConfig.getDeliveryThreads());
+        workspace = createWorkspace(startupConfig);
+    }
+
+    private static Workspace createWorkspace(GreenMailConfiguration startupConfig) {
+        if (startupConfig.getSpoolThreshold() < 0) {
+            return new InMemoryWorkspace();
+        }
+        String spoolDirectory = startupConfig.getSpoolDirectory();
+        return new SpoolingWorkspace(startupConfig.getSpoolThreshold(),
+                null == spoolDirectory ? null : new File(spoolDirectory));
+    }
+
+    /**
+     * @return the workspace for message content received via SMTP, shared by all SMTP sessions.
+     * @see GreenMailConfiguration#withSpoolThreshold(int)
+     */
+    public Workspace getWorkspace() {
+        return workspace;
+    }
+
+    private static ExecutorService[] createDeliveryLanes(int threads) {
+        ExecutorService[] lanes = new ExecutorService[Math.max(0, threads)];
+        for (int i = 0; i < lanes.length; i++) {
+            final String name = "smtp-delivery-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, name);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return lanes;
     }
 
 
@@ -55,121 +128,448 @@ public class SmtpManager {
         return null;
     }
 
-    public synchronized void send(SmtpState state) {
-        _incomingQueue.enqueue(state.getMessage());
-        for (WaitObject o : notifyList) {
-            synchronized (o) {
-                o.emailReceived();
+    /**
+     * Delivers the current message of given state to the mailboxes of all recipients.
+     * <p/>
+     * Without delivery threads, the message is stored inline before returning.
+     * Otherwise, the deliveries are queued and stored by the delivery workers. Unless configured
+     * to acknowledge after enqueue, this method waits until the message is stored.
+     *
+     * @param state the SMTP state containing the message.
+     * @throws RuntimeException if the delivery fails.
+     * @see GreenMailConfiguration#withDeliveryThreads(int)
+     * @see GreenMailConfiguration#withDeliveryAckAfterEnqueue(boolean)
+     */
+    public void send(SmtpState state) {
+        if (deliveryLanes.length == 0) {
+            sendInline(state.getMessage());
+            return;
+        }
+
+        Delivery delivery = _incomingQueue.enqueueAsync(state.getMessage());
+        if (!startupConfig.isDeliveryAckAfterEnqueue()) {
+            delivery.await();
+        }
+    }
+
+    private void sendInline(MovingMessage msg) {
+        List<StoredCopy> stored = new ArrayList<>();
+        try {
+            deliverInline(msg, stored);
+        } finally {
+            notifySubscriptions(stored);
+        }
+    }
+
+    private synchronized void deliverInline(MovingMessage msg, List<StoredCopy> stored) {
+        long start = System.nanoTime();
+        deliveryLock.readLock().lock();
+        try {
+            _incomingQueue.enqueue(msg, stored);
+        } catch (RuntimeException e) {
+            deliveryStatistics.messageFailed();
+            throw e;
+        } finally {
+            deliveryLock.readLock().unlock();
+        }
+        deliveryStatistics.messageDelivered(System.nanoTime() - start);
+    }
+
+    /**
+     * Counts a message stored into a mailbox, releasing the waiters for it.
+     * Invoked holding the delivery lock shared.
+     *
+     * @param stored collects a copy of the message for notifying the subscriptions, once the lock is released.
+     */
+    private void messageStored(MovingMessage msg, String recipient, List<StoredCopy> stored) {
+        long count = storedMessages.incrementAndGet();
+        for (WaitObject o : waiters) {
+            if (o.messageStored(count)) {
+                waiters.remove(o);
+            }
+        }
+        if (!subscriptions.isEmpty()) {
+            try {
+                // Subscribers get their own copy, sharing the raw content with the stored copies
+                stored.add(new StoredCopy(new SharedMimeMessage(msg.getMessage()), recipient));
+            } catch (MessagingException e) {
+                log.warn("Can not copy message to " + recipient + " for subscriptions", e);
+            }
+        }
+    }
+
+    /**
+     * Notifies matching subscriptions of stored messages. Invoked without holding any lock,
+     * so listeners may wait for further messages.
+     */
+    private void notifySubscriptions(List<StoredCopy> stored) {
+        for (StoredCopy copy : stored) {
+            for (DeliverySubscription subscription : subscriptions) {
+                if (subscription.messageStored(copy.message, copy.recipient)) {
+                    subscriptions.remove(subscription);
+                }
             }
         }
     }
 
     /**
-     * @return null if no need to wait. Otherwise caller must call wait() on the returned object
+     * Subscribes to messages stored via SMTP from now on, matching the given predicate.
+     *
+     * @param predicate the predicate, evaluated once per stored copy of a message.
+     * @param listener  the listener invoked for each matching message until cancelled,
+     *                  or null for completing the subscription with the first matching message.
+     * @return the subscription.
+     */
+    public DeliverySubscription subscribe(DeliveryPredicate predicate, DeliveryListener listener) {
+        DeliverySubscription subscription = new DeliverySubscription(predicate, listener, subscriptions);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Waits until the given number of messages is stored in all mailboxes.
+     * <p/>
+     * Only messages stored via SMTP are awaited, any other messages just count as already existing.
+     *
+     * @param timeout    maximum time in ms to wait.
+     * @param emailCount the number of messages.
+     * @return false if the timeout was reached, otherwise true.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean waitForIncomingEmail(long timeout, int emailCount) throws InterruptedException {
+        WaitObject o = createAndAddNewWaitObject(emailCount);
+        if (null == o) {
+            return true;
+        }
+        try {
+            return o.await(timeout);
+        } finally {
+            waiters.remove(o);
+        }
+    }
+
+    /**
+     * Registers a waiter for the given number of messages stored in all mailboxes.
+     * The waiter is removed once arrived, or by awaiting it via {@link #waitForIncomingEmail(long, int)}.
+     *
+     * @param emailCount the number of messages.
+     * @return null if no need to wait, otherwise the registered waiter.
+     * @deprecated use {@link #waitForIncomingEmail(long, int)}.
      */
-    public synchronized WaitObject createAndAddNewWaitObject(int emailCount) {
-        final int existingCount = imapHostManager.getAllMessages().size();
-        if (existingCount >= emailCount) {
-            return null;
+    @Deprecated
+    public WaitObject createAndAddNewWaitObject(int emailCount) {
+        // Excludes concurrent deliveries between counting and registering
+        deliveryLock.writeLock().lock();
+        try {
+            final long existingCount = imapHostManager.getStore().getMessageCount();
+            if (existingCount >= emailCount) {
+                return null;
+            }
+            WaitObject ret = new WaitObject((int) (emailCount - existingCount), storedMessages.get());
+            waiters.add(ret);
+            return ret;
+        } finally {
+            deliveryLock.writeLock().unlock();
         }
-        WaitObject ret = new WaitObject(emailCount - existingCount);
-        notifyList.add(ret);
-        return ret;
+    }
+
+    /**
+     * @return the metrics of message delivery.
+     */
+    public DeliveryStatistics getDeliveryStatistics() {
+        return deliveryStatistics;
+    }
+
+    /**
+     * Stops the delivery workers, after processing already queued deliveries, and removes any spool files.
+     * Releases pooled content buffers.
+     */
+    public void stop() {
+        if (workspace instanceof SpoolingWorkspace) {
+            ((SpoolingWorkspace) workspace).close();
+        }
+        for (ExecutorService lane : deliveryLanes) {
+            lane.shutdown();
+        }
+        try {
+            for (ExecutorService lane : deliveryLanes) {
+                if (!lane.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    log.warn("Delivery worker did not terminate within " + STOP_TIMEOUT_MILLIS + "ms, discarding "
+                            + lane.shutdownNow().size() + " queued deliveries");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        MovingMessage.releasePooledContentBuffers();
     }
 
     //~----------------------------------------------------------------------------------------------------------------
 
     /**
-     * This Object is used by a thread to wait until a number of emails have arrived.
+     * Used by a thread to wait until the stored message count reaches a target.
      * (for example Server's waitForIncomingEmail method)
      * <p/>
-     * Every time an email has arrived, the method emailReceived() must be called.
-     * <p/>
-     * The notify() or notifyALL() methods should not be called on this object unless
-     * you want to notify waiting threads even if not all the required emails have arrived.
+     * Waiting threads are notified via {@link #notifyAll()} once arrived.
+     *
+     * @deprecated use {@link SmtpManager#waitForIncomingEmail(long, int)}.
      */
+    @Deprecated
     public static class WaitObject {
-        private boolean arrived = false;
-        private int emailCount;
+        private final long targetCount;
+        private final AtomicInteger emailCount;
+        private final CountDownLatch arrived = new CountDownLatch(1);
 
         public WaitObject(int emailCount) {
-            this.emailCount = emailCount;
+            this(emailCount, 0L);
+        }
+
+        /**
+         * @param emailCount  the number of messages to wait for.
+         * @param storedCount the number of messages stored via SMTP so far.
+         */
+        WaitObject(int emailCount, long storedCount) {
+            this.emailCount = new AtomicInteger(emailCount);
+            this.targetCount = storedCount + emailCount;
         }
 
+        /**
+         * @return the number of messages still to wait for.
+         */
         public int getEmailCount() {
-            return emailCount;
+            return Math.max(0, emailCount.get());
         }
 
         public boolean isArrived() {
-            return arrived;
+            return arrived.getCount() == 0;
         }
 
-        private void setArrived() {
-            arrived = true;
+        /**
+         * Counts a received message, and notifies waiting threads once all have arrived.
+         */
+        public void emailReceived() {
+            if (emailCount.decrementAndGet() <= 0) {
+                setArrived();
+            }
         }
 
-        public void emailReceived() {
-            emailCount--;
-            if (emailCount <= 0) {
+        /**
+         * @return true, if the target count is reached.
+         */
+        boolean messageStored(long count) {
+            emailCount.set((int) Math.max(0L, targetCount - count));
+            if (count >= targetCount) {
                 setArrived();
-                synchronized (this) {
-                    notifyAll();
+                return true;
+            }
+            return false;
+        }
+
+        private void setArrived() {
+            arrived.countDown();
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Waits until arrived, for more than the timeout unless arrived before.
+         */
+        boolean await(long timeout) throws InterruptedException {
+            final long start = System.currentTimeMillis();
+            long elapsed = 0;
+            while (!arrived.await(Math.max(1L, timeout - elapsed), TimeUnit.MILLISECONDS)) {
+                // Clock granularity may report the full timeout as not yet elapsed
+                elapsed = System.currentTimeMillis() - start;
+                if (elapsed > timeout) {
+                    return false;
                 }
             }
+            return true;
+        }
+    }
+
+    /**
+     * Copy of a message stored for a recipient.
+     */
+    private static class StoredCopy {
+        private final MimeMessage message;
+        private final String recipient;
+
+        StoredCopy(MimeMessage message, String recipient) {
+            this.message = message;
+            this.recipient = recipient;
+        }
+    }
+
+    /**
+     * Tracks the delivery of a message to all its recipients.
+     */
+    private class Delivery {
+        private final long startNanos = System.nanoTime();
+        private final CountDownLatch stored = new CountDownLatch(1);
+        private final AtomicInteger remaining = new AtomicInteger();
+        private volatile Exception failure;
+
+        void start(int deliveries) {
+            remaining.set(deliveries);
+            if (deliveries == 0) {
+                stored.countDown();
+            }
+        }
+
+        /**
+         * Invoked by the workers after each delivery and after notifying the subscriptions, without holding a lock.
+         */
+        void deliveryCompleted(Exception e) {
+            if (null != e) {
+                failure = e;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                if (null == failure) {
+                    deliveryStatistics.messageDelivered(System.nanoTime() - startNanos);
+                } else {
+                    deliveryStatistics.messageFailed();
+                }
+                stored.countDown();
+            }
+        }
+
+        void await() {
+            try {
+                stored.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for delivery", e);
+            }
+            if (null != failure) {
+                throw new IllegalStateException("Can not deliver message", failure);
+            }
+        }
+    }
+
+    /**
+     * Delivers a message to a single mailbox, on a delivery worker.
+     */
+    private class DeliveryTask implements Runnable {
+        private final Delivery delivery;
+        private final MovingMessage msg;
+        private final MailAddress mailAddress;
+        private final UserBean mailUser;
+
+        DeliveryTask(Delivery delivery, MovingMessage msg, MailAddress mailAddress, UserBean mailUser) {
+            this.delivery = delivery;
+            this.msg = msg;
+            this.mailAddress = mailAddress;
+            this.mailUser = mailUser;
+        }
+
+        String getEmail() {
+            return null != mailUser ? mailUser.getEmail() : mailAddress.getEmail();
+        }
+
+        @Override
+        public void run() {
+            deliveryStatistics.deliveryDequeued();
+            List<StoredCopy> stored = new ArrayList<>(1);
+            Exception failure = null;
+            deliveryLock.readLock().lock();
+            try {
+                if (null != mailUser) {
+                    _incomingQueue.deliverContentToMailUser(msg, mailUser, stored);
+                } else {
+                    _incomingQueue.deliverContentToMailAddress(msg, mailAddress, stored);
+                }
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                deliveryLock.readLock().unlock();
+                msg.releaseContent();
+            }
+            // Listeners are notified before acknowledging the delivery, as for inline delivery
+            notifySubscriptions(stored);
+            delivery.deliveryCompleted(failure);
         }
     }
 
     private class Incoming {
-        public void enqueue(MovingMessage msg) {
+        public void enqueue(MovingMessage msg, List<StoredCopy> stored) {
+            for (MailAddress address : msg.getToAddresses()) {
+                handle(msg, address, stored);
+            }
+
+        }
+
+        /**
+         * Queues a delivery per target mailbox, in the lane of the mailbox.
+         */
+        Delivery enqueueAsync(MovingMessage msg) {
+            Delivery delivery = new Delivery();
+            List<DeliveryTask> tasks = new ArrayList<>();
             for (MailAddress address : msg.getToAddresses()) {
-                handle(msg, address);
+                if (startupConfig.hasMailsinkUser()) {
+                    if (startupConfig.keepMailsinkInOriginalMailboxes()) {
+                        // Keep the mail in the original mailbox as well
+                        tasks.add(new DeliveryTask(delivery, msg, address, null));
+                    }
+                    tasks.add(new DeliveryTask(delivery, msg, null, startupConfig.getMailsinkUser()));
+                } else {
+                    tasks.add(new DeliveryTask(delivery, msg, address, null));
+                }
+            }
+
+            delivery.start(tasks.size());
+            for (DeliveryTask task : tasks) {
+                msg.acquire();
+                deliveryStatistics.deliveryQueued();
+                try {
+                    getDeliveryLane(task.getEmail()).execute(task);
+                } catch (RejectedExecutionException e) {
+                    deliveryStatistics.deliveryDequeued();
+                    msg.releaseContent();
+                    delivery.deliveryCompleted(e);
+                }
             }
+            return delivery;
+        }
 
+        private ExecutorService getDeliveryLane(String email) {
+            int hash = email.toLowerCase(Locale.ENGLISH).hashCode();
+            return deliveryLanes[(hash & Integer.MAX_VALUE) % deliveryLanes.length];
         }
 
-        private void handle(MovingMessage msg, MailAddress mailAddress) {
+        private void handle(MovingMessage msg, MailAddress mailAddress, List<StoredCopy> stored) {
             if (startupConfig.hasMailsinkUser()) {
                 if (startupConfig.keepMailsinkInOriginalMailboxes()) {
                     // Keep the mail in the original mailbox as well
-                    deliverContentToMailAddress(msg, mailAddress);
+                    deliverContentToMailAddress(msg, mailAddress, stored);
                 }
-                deliverContentToMailUser(msg, startupConfig.getMailsinkUser());
+                deliverContentToMailUser(msg, startupConfig.getMailsinkUser(), stored);
             }
             else {
-                deliverContentToMailAddress(msg, mailAddress);
+                deliverContentToMailAddress(msg, mailAddress, stored);
             }
             msg.releaseContent();
         }
 
-        private void deliverContentToMailAddress(MovingMessage msg, MailAddress mailAddress) {
+        private void deliverContentToMailAddress(MovingMessage msg, MailAddress mailAddress, List<StoredCopy> stored) {
             try {
-                GreenMailUser user = userManager.getUserByEmail(mailAddress.getEmail());
-                if (null == user) {
-                    String login = mailAddress.getEmail();
-                    String email = mailAddress.getEmail();
-                    String password = mailAddress.getEmail();
-                    user = userManager.createUser(email, login, password);
-                    log.info("Created user login {} for address {} with password {} because it didn't exist before.", login, email, password);
-                }
-
+                String email = mailAddress.getEmail();
+                GreenMailUser user = userManager.getOrCreateUser(email, email, email);
                 user.deliver(msg);
+                messageStored(msg, user.getEmail(), stored);
             } catch (Exception e) {
                 log.error("Can not deliver message " + msg + " to " + mailAddress, e);
                 throw new RuntimeException(e);
             }
         }
 
-        private void deliverContentToMailUser(MovingMessage msg, UserBean mailUser) {
+        private void deliverContentToMailUser(MovingMessage msg, UserBean mailUser, List<StoredCopy> stored) {
             try {
-                GreenMailUser user = userManager.getUserByEmail(mailUser.getEmail());
-                if (null == user) {
-                    String login = mailUser.getLogin();
-                    String email = mailUser.getEmail();
-                    String password = mailUser.getPassword();
-                    user = userManager.createUser(email, login, password);
-                    log.info("Created user login {} for address {} with password {} because it didn't exist before.", login, email, password);
-                }
+                GreenMailUser user = userManager.getOrCreateUser(
+                        mailUser.getEmail(), mailUser.getLogin(), mailUser.getPassword());
                 user.deliver(msg);
+                messageStored(msg, user.getEmail(), stored);
             } catch (Exception e) {
                 log.error("Can not deliver message " + msg + " to " + mailUser, e);
                 throw new RuntimeException(e);
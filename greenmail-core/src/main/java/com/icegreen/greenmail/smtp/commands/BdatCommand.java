@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.smtp.commands;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.icegreen.greenmail.mail.MovingMessage;
+import com.icegreen.greenmail.smtp.SmtpConnection;
+import com.icegreen.greenmail.smtp.SmtpManager;
+import com.icegreen.greenmail.smtp.SmtpState;
+
+
+/**
+ * BDAT command, transmitting message content in chunks of raw octets.
+ * <p/>
+ * <p/>
+ * The spec is at <a
+ * href="https://tools.ietf.org/html/rfc3030">
+ * https://tools.ietf.org/html/rfc3030</a>.
+ * </p>
+ */
+public class BdatCommand extends SmtpCommand {
+    static final Pattern param = Pattern.compile("BDAT (\\d+)( LAST)?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    @Override
+    public void execute(SmtpConnection conn, SmtpState state,
+                        SmtpManager manager, String commandLine)
+            throws IOException {
+        Matcher m = param.matcher(commandLine);
+        long size;
+        try {
+            if (!m.matches()) {
+                throw new NumberFormatException(commandLine);
+            }
+            size = Long.parseLong(m.group(1));
+        } catch (NumberFormatException e) {
+            // Chunk size unknown, so the client input can not be resynchronized
+            conn.send("501 Required syntax: 'BDAT <size> [LAST]'");
+            conn.quit();
+            return;
+        }
+        boolean last = null != m.group(2);
+
+        MovingMessage msg = state.getMessage();
+        if (msg.getReturnPath() == null) {
+            conn.skip(size);
+            conn.send("503 MAIL command required");
+            return;
+        }
+
+        if (msg.getToAddresses().isEmpty()) {
+            conn.skip(size);
+            conn.send("503 RCPT command(s) required");
+            return;
+        }
+
+        long maxSize = conn.getMaxMessageSize();
+        if (maxSize > 0 && msg.getChunkedSize() + size > maxSize) {
+            // Aborts the transaction, so any following chunks are rejected as well
+            conn.skip(size);
+            conn.send(DataCommand.SIZE_EXCEEDED);
+            state.clearMessage();
+            return;
+        }
+
+        msg.readChunk(msg.isChunked() ? null : DataCommand.createTraceHeaders(conn, msg),
+                conn.getInputStream(), size);
+        if (!last) {
+            conn.send("250 " + size + " octets received");
+            return;
+        }
+
+        msg.completeChunkedContent();
+        String err = manager.checkData(state);
+        if (err != null) {
+            conn.send(err);
+
+            return;
+        }
+
+        try {
+            manager.send(state);
+            conn.send("250 OK");
+        } catch (Exception je) {
+            log.error("Can not send state '250 OK', aborted.", je);
+            conn.send("451 Requested action aborted: local error in processing");
+        }
+
+        state.clearMessage();
+    }
+}
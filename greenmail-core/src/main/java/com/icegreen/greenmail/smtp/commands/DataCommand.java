@@ -6,11 +6,8 @@
  */
 package com.icegreen.greenmail.smtp.commands;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
 
-import com.icegreen.greenmail.foedus.util.StreamUtils;
 import com.icegreen.greenmail.mail.MovingMessage;
 import com.icegreen.greenmail.smtp.SmtpConnection;
 import com.icegreen.greenmail.smtp.SmtpManager;
@@ -27,6 +24,8 @@ import com.icegreen.greenmail.smtp.SmtpState;
  * </p>
  */
 public class DataCommand extends SmtpCommand {
+    static final String SIZE_EXCEEDED = "552 5.3.4 Message size exceeds fixed maximum message size";
+
     @Override
     public void execute(SmtpConnection conn, SmtpState state,
                         SmtpManager manager, String commandLine)
@@ -43,16 +42,21 @@ public class DataCommand extends SmtpCommand {
             return;
         }
 
-        conn.send("354 Start mail input; end with <CRLF>.<CRLF>");
+        if (msg.isChunked() || msg.isBinaryMime()) {
+            conn.send("503 BDAT required for this message");
+            return;
+        }
 
-        String value = "Return-Path: <" + msg.getReturnPath() +
-                ">\r\n" + "Received: from " +
-                conn.getClientAddress() + " (HELO " +
-                conn.getHeloName() + "); " +
-                new java.util.Date() + "\r\n";
+        conn.send("354 Start mail input; end with <CRLF>.<CRLF>");
+        conn.flush();
 
-        msg.readDotTerminatedContent(new BufferedReader(StreamUtils.splice(new StringReader(value),
-                conn.getReader())));
+        // Reads directly from the connection, as any additional buffering would swallow pipelined commands
+        if (!msg.readDotTerminatedContent(createTraceHeaders(conn, msg), conn.getInputStream(),
+                conn.getMaxMessageSize())) {
+            conn.send(SIZE_EXCEEDED);
+            state.clearMessage();
+            return;
+        }
 
         String err = manager.checkData(state);
         if (err != null) {
@@ -62,8 +66,8 @@ public class DataCommand extends SmtpCommand {
         }
 
         try {
-            conn.send("250 OK");
             manager.send(state);
+            conn.send("250 OK");
         } catch (Exception je) {
             log.error("Can not send state '250 OK', aborted.", je);
             conn.send("451 Requested action aborted: local error in processing");
@@ -71,4 +75,15 @@ public class DataCommand extends SmtpCommand {
 
         state.clearMessage();
     }
+
+    /**
+     * Creates the Return-Path and Received header lines prepended to received content.
+     */
+    static String createTraceHeaders(SmtpConnection conn, MovingMessage msg) {
+        return "Return-Path: <" + msg.getReturnPath() +
+                ">\r\n" + "Received: from " +
+                conn.getClientAddress() + " (HELO " +
+                conn.getHeloName() + "); " +
+                new java.util.Date() + "\r\n";
+    }
 }
\ No newline at end of file
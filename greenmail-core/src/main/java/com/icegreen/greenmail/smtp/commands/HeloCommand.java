@@ -10,6 +10,8 @@ import com.icegreen.greenmail.smtp.SmtpConnection;
 import com.icegreen.greenmail.smtp.SmtpManager;
 import com.icegreen.greenmail.smtp.SmtpState;
 
+import java.util.Arrays;
+
 
 /**
  * EHLO/HELO command.
@@ -26,12 +28,39 @@ import com.icegreen.greenmail.smtp.SmtpState;
  */
 public class HeloCommand
         extends SmtpCommand {
+    /**
+     * Service extensions announced in reply to EHLO.
+     */
+    private static final String[] EXTENSIONS = {
+            "PIPELINING", // RFC 2920
+            "CHUNKING", // RFC 3030
+            "BINARYMIME" // RFC 3030
+    };
+
     @Override
     public void execute(SmtpConnection conn, SmtpState state,
                         SmtpManager manager, String commandLine) {
         extractHeloName(conn, commandLine);
         state.clearMessage();
-        conn.send("250 " + conn.getServerGreetingsName());
+        if (commandLine.regionMatches(true, 0, "EHLO", 0, 4)) {
+            String[] extensions = Arrays.copyOf(EXTENSIONS, EXTENSIONS.length + 1);
+            // RFC 1870, without a size parameter if unlimited
+            long maxMessageSize = conn.getMaxMessageSize();
+            extensions[EXTENSIONS.length] = maxMessageSize > 0 ? "SIZE " + maxMessageSize : "SIZE";
+            sendExtensions(conn, conn.getServerGreetingsName(), extensions);
+        } else {
+            conn.send("250 " + conn.getServerGreetingsName());
+        }
+    }
+
+    /**
+     * Sends the multiline EHLO reply, announcing the supported service extensions.
+     */
+    private void sendExtensions(SmtpConnection conn, String greeting, String[] extensions) {
+        conn.send((extensions.length > 0 ? "250-" : "250 ") + greeting);
+        for (int i = 0; i < extensions.length; i++) {
+            conn.send((i < extensions.length - 1 ? "250-" : "250 ") + extensions[i]);
+        }
     }
 
     private void extractHeloName(SmtpConnection conn,
@@ -27,8 +27,10 @@ import java.util.regex.Pattern;
  */
 public class MailCommand
         extends SmtpCommand {
-    static final Pattern param = Pattern.compile("MAIL FROM:\\s?<(.*)>",
+    static final Pattern param = Pattern.compile("MAIL FROM:\\s?<(.*?)>(?:\\s+(.*))?",
             Pattern.CASE_INSENSITIVE);
+    static final Pattern bodyParam = Pattern.compile("(?:^|\\s)BODY=(\\S+)", Pattern.CASE_INSENSITIVE);
+    static final Pattern sizeParam = Pattern.compile("(?:^|\\s)SIZE=(\\S+)", Pattern.CASE_INSENSITIVE);
 
     @Override
     public void execute(SmtpConnection conn, SmtpState state,
@@ -38,6 +40,19 @@ public class MailCommand
             if (m.matches()) {
                 String from = m.group(1);
 
+                long maxSize = conn.getMaxMessageSize();
+                long size;
+                try {
+                    size = getDeclaredSize(m.group(2));
+                } catch (NumberFormatException e) {
+                    conn.send("501 Syntax error in SIZE parameter");
+                    return;
+                }
+                if (maxSize > 0 && size > maxSize) {
+                    conn.send(DataCommand.SIZE_EXCEEDED);
+                    return;
+                }
+
                 if (!from.isEmpty()) {
                     MailAddress fromAddr = new MailAddress(from);
                     String err = manager.checkSender(state, fromAddr);
@@ -47,12 +62,11 @@ public class MailCommand
                     }
                     state.clearMessage();
                     state.getMessage().setReturnPath(fromAddr);
-                    conn.send("250 OK");
                 } else {
                     state.clearMessage();
-                    state.getMessage();
-                    conn.send("250 OK");
                 }
+                state.getMessage().setBinaryMime(isBinaryMime(m.group(2)));
+                conn.send("250 OK");
 
             } else {
                 conn.send("501 Required syntax: 'MAIL FROM:<email@host>'");
@@ -61,4 +75,37 @@ public class MailCommand
             conn.send("501 Malformed email address. Use form email@host");
         }
     }
+
+    /**
+     * Checks the optional MAIL parameters for BODY=BINARYMIME (RFC 3030).
+     * Other parameters, such as BODY=8BITMIME, require no special treatment.
+     */
+    private static boolean isBinaryMime(String parameters) {
+        if (null == parameters) {
+            return false;
+        }
+        Matcher m = bodyParam.matcher(parameters);
+        return m.find() && "BINARYMIME".equalsIgnoreCase(m.group(1));
+    }
+
+    /**
+     * Gets the estimated message size of the optional SIZE parameter (RFC 1870).
+     *
+     * @return the size in octets, or -1 if not declared.
+     * @throws NumberFormatException if not a valid size.
+     */
+    private static long getDeclaredSize(String parameters) {
+        if (null == parameters) {
+            return -1L;
+        }
+        Matcher m = sizeParam.matcher(parameters);
+        if (!m.find()) {
+            return -1L;
+        }
+        long size = Long.parseLong(m.group(1));
+        if (size < 0) {
+            throw new NumberFormatException(m.group(1));
+        }
+        return size;
+    }
 }
\ No newline at end of file
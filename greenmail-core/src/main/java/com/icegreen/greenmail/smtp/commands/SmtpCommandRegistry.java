@@ -22,6 +22,7 @@ public class SmtpCommandRegistry {
         commands.put("MAIL", new MailCommand());
         commands.put("RCPT", new RcptCommand());
         commands.put("DATA", new DataCommand());
+        commands.put("BDAT", new BdatCommand());
         commands.put("VRFY", new VrfyCommand());
     }
 
@@ -0,0 +1,96 @@
+/* -------------------------------------------------------------------
+* This software is released under the Apache license 2.0
+* -------------------------------------------------------------------
+*/
+package com.icegreen.greenmail.store;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.icegreen.greenmail.filestore.FileStoreUtil;
+
+/**
+ * Counts of unseen, recent and deleted messages of a folder, maintained on each change
+ * instead of scanning all messages.
+ * <p/>
+ * Flags are given as bit sets, see {@link FileStoreUtil#convertFlagsToFlagBitSet(javax.mail.Flags)}.
+ * The counters remember the flags counted per message index, so an update only applies the difference.
+ * <p/>
+ * Not thread safe, guarded by the owning message list.
+ */
+public class FlagCounters {
+    private int[] flagBitSets = new int[16];
+    private int size;
+    private final BitSet unseen = new BitSet();
+    private int unseenCount;
+    private int recentCount;
+    private int deletedCount;
+
+    /**
+     * @param flagBitSet the flags of the message appended as last message.
+     */
+    public void add(int flagBitSet) {
+        if (size == flagBitSets.length) {
+            flagBitSets = Arrays.copyOf(flagBitSets, size * 2);
+        }
+        flagBitSets[size] = 0;
+        size++;
+        unseen.set(size - 1);
+        unseenCount++;
+        update(size - 1, flagBitSet);
+    }
+
+    /**
+     * @param index      the zero based message index.
+     * @param flagBitSet the current flags of the message.
+     */
+    public void update(int index, int flagBitSet) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        int counted = flagBitSets[index];
+        if (counted == flagBitSet) {
+            return;
+        }
+        boolean wasSeen = FileStoreUtil.isSeenFlagSet(counted);
+        boolean isSeen = FileStoreUtil.isSeenFlagSet(flagBitSet);
+        if (wasSeen != isSeen) {
+            unseen.set(index, !isSeen);
+            unseenCount += isSeen ? -1 : 1;
+        }
+        recentCount += delta(FileStoreUtil.isRecentFlagSet(counted), FileStoreUtil.isRecentFlagSet(flagBitSet));
+        deletedCount += delta(FileStoreUtil.isDeletedFlagSet(counted), FileStoreUtil.isDeletedFlagSet(flagBitSet));
+        flagBitSets[index] = flagBitSet;
+    }
+
+    private static int delta(boolean before, boolean after) {
+        return before == after ? 0 : (after ? 1 : -1);
+    }
+
+    public void clear() {
+        size = 0;
+        unseen.clear();
+        unseenCount = 0;
+        recentCount = 0;
+        deletedCount = 0;
+    }
+
+    public int getUnseenCount() {
+        return unseenCount;
+    }
+
+    public int getRecentCount() {
+        return recentCount;
+    }
+
+    public int getDeletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * @return the 1-based index of the first unseen message, or -1 if all messages are seen.
+     */
+    public int getFirstUnseen() {
+        return unseenCount == 0 ? -1 : unseen.nextSetBit(0) + 1;
+    }
+}
@@ -10,9 +10,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import javax.mail.Flags;
 import javax.mail.Message;
 import javax.mail.MessagingException;
@@ -31,44 +34,107 @@ import com.icegreen.greenmail.mail.MovingMessage;
 class HierarchicalFolder implements MailFolder, UIDFolder {
 
     private final StoredMessageCollection mailMessages = new ListBasedStoredMessageCollection();
+    /**
+     * The arena keeping raw message content off heap, shared by all folders of a store. Null for keeping it on heap.
+     */
+    private final MessageArena arena;
+    /**
+     * Number of messages in all folders of a store, shared by all folders.
+     */
+    private final AtomicLong storeMessageCount;
     private final List<FolderListener> _mailboxListeners = Collections.synchronizedList(new ArrayList<FolderListener>());
     protected String name;
-    private Collection<HierarchicalFolder> children;
+    /**
+     * Children by lowercased name, in creation order. Guarded by itself.
+     */
+    private final Map<String, HierarchicalFolder> children = new LinkedHashMap<>();
     private HierarchicalFolder parent;
     private boolean isSelectable = false;
-    private long nextUid = 1;
+    private volatile long nextUid = 1;
     private long uidValidity;
 
     public HierarchicalFolder(HierarchicalFolder parent,
                               String name) {
+        this(parent, name, null == parent ? null : parent.arena);
+    }
+
+    HierarchicalFolder(HierarchicalFolder parent, String name, MessageArena arena) {
         this.name = name;
-        this.children = new ArrayList<>();
         this.parent = parent;
+        this.arena = arena;
+        this.storeMessageCount = null == parent ? new AtomicLong() : parent.storeMessageCount;
         this.uidValidity = System.currentTimeMillis();
     }
 
+    /**
+     * @return a snapshot of the children.
+     */
     public Collection<HierarchicalFolder> getChildren() {
-        return children;
+        synchronized (children) {
+            return new ArrayList<>(children.values());
+        }
+    }
+
+    public boolean hasChildren() {
+        synchronized (children) {
+            return !children.isEmpty();
+        }
+    }
+
+    /**
+     * Adds a child, unless a child of the same name exists.
+     *
+     * @param child the child.
+     * @return the existing child of the same name, or null if the child was added.
+     */
+    public HierarchicalFolder addChild(HierarchicalFolder child) {
+        String key = childKey(child.getName());
+        synchronized (children) {
+            HierarchicalFolder existing = children.get(key);
+            if (null == existing) {
+                children.put(key, child);
+            }
+            return existing;
+        }
+    }
+
+    public void removeChild(HierarchicalFolder child) {
+        String key = childKey(child.getName());
+        synchronized (children) {
+            if (children.get(key) == child) {
+                children.remove(key);
+            }
+        }
     }
 
     public HierarchicalFolder getParent() {
         return parent;
     }
 
-    public void moveToNewParent(HierarchicalFolder newParent) {
-        if (!newParent.getChildren().contains(this)) {
+    /**
+     * Moves the folder to a new parent, keeping its name.
+     *
+     * @param newParent the new parent.
+     * @throws FolderException if the new parent has a child of the same name.
+     */
+    public void moveToNewParent(HierarchicalFolder newParent) throws FolderException {
+        if (newParent.getChild(name) != this) {
+            if (null != newParent.addChild(this)) {
+                throw new FolderException("Mailbox already exists.");
+            }
             parent = newParent;
-            parent.getChildren().add(this);
         }
     }
 
     public HierarchicalFolder getChild(String name) {
-        for (HierarchicalFolder child : children) {
-            if (child.getName().equalsIgnoreCase(name)) {
-                return child;
-            }
+        String key = childKey(name);
+        synchronized (children) {
+            return children.get(key);
         }
-        return null;
+    }
+
+    private static String childKey(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
     }
 
     @Override
@@ -76,8 +142,25 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
         return name;
     }
 
-    public void setName(String name) {
-        this.name = name;
+    /**
+     * Renames the folder, keeping it indexed by its parent under the new name.
+     *
+     * @param name the new name.
+     * @throws FolderException if the parent has another child of the new name.
+     */
+    public void setName(String name) throws FolderException {
+        if (null != parent && parent.getChild(this.name) == this) {
+            String oldName = this.name;
+            parent.removeChild(this);
+            this.name = name;
+            if (null != parent.addChild(this)) {
+                this.name = oldName;
+                parent.addChild(this);
+                throw new FolderException("Mailbox already exists.");
+            }
+        } else {
+            this.name = name;
+        }
     }
 
     @Override
@@ -92,9 +175,7 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public int getMessageCount() {
-        synchronized (mailMessages) {
-            return mailMessages.size();
-        }
+        return mailMessages.size();
     }
 
     @Override
@@ -109,15 +190,7 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public int getUnseenCount() {
-        int count = 0;
-        synchronized (mailMessages) {
-            for (StoredMessage message : mailMessages) {
-                if (!message.isSet(Flags.Flag.SEEN)) {
-                    count++;
-                }
-            }
-        }
-        return count;
+        return mailMessages.getUnseenCount();
     }
 
     /**
@@ -132,14 +205,11 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public int getRecentCount(boolean reset) {
-        int count = 0;
-        synchronized (mailMessages) {
-            for (StoredMessage message : mailMessages) {
+        int count = mailMessages.getRecentCount();
+        if (reset && count > 0) {
+            for (StoredMessage message : mailMessages.getMessages()) {
                 if (message.isSet(Flags.Flag.RECENT)) {
-                    count++;
-                    if (reset) {
-                        message.setFlag(Flags.Flag.RECENT, false);
-                    }
+                    message.setFlag(Flags.Flag.RECENT, false);
                 }
             }
         }
@@ -175,11 +245,9 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
     public List<StoredMessage> getNonDeletedMessages() {
         List<StoredMessage> ret = new ArrayList<>();
 
-        synchronized (mailMessages) {
-            for (StoredMessage mailMessage : mailMessages) {
-                if (!mailMessage.getFlags().contains(Flags.Flag.DELETED)) {
-                    ret.add(mailMessage);
-                }
+        for (StoredMessage mailMessage : mailMessages.getMessages()) {
+            if (!mailMessage.isSet(Flags.Flag.DELETED)) {
+                ret.add(mailMessage);
             }
         }
 
@@ -199,32 +267,65 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
     public long appendMessage(MimeMessage message,
                               Flags flags,
                               Date receivedDate) {
-        long uid = nextUid;
-        nextUid++;
+        return appendMessages(Collections.singletonList(message), flags, receivedDate)[0];
+    }
 
-        try {
-            message.setFlags(flags, true);
-            message.setFlag(Flags.Flag.RECENT, true);
-        } catch (MessagingException e) {
-            throw new IllegalStateException("Can not set flags", e);
+    @Override
+    public long[] appendMessages(List<MimeMessage> messages, Flags flags, Date receivedDate) {
+        // Copies and parses outside of the lock, assigning the uids once appended
+        List<StoredMessage> storedMessages = new ArrayList<>(messages.size());
+        for (MimeMessage message : messages) {
+            // Flags are set on the copy, as the message may be shared by concurrent deliveries
+            StoredMessage storedMessage = new StoredMessage(message, receivedDate, 0L, arena);
+            storedMessage.setFlags(flags, true);
+            storedMessage.setFlag(Flags.Flag.RECENT, true);
+            storedMessages.add(storedMessage);
         }
-        StoredMessage storedMessage = new StoredMessage(message,
-                receivedDate, uid);
+        return append(storedMessages);
+    }
+
+    /**
+     * Appends a copy of a message, sharing the raw content without parsing the message.
+     *
+     * @param message the message to copy, including its flags.
+     * @return the uid of the copy.
+     */
+    long appendCopy(StoredMessage message) {
+        StoredMessage storedMessage = new StoredMessage(message, 0L, arena);
+        storedMessage.setFlag(Flags.Flag.RECENT, true);
+        return append(Collections.singletonList(storedMessage))[0];
+    }
 
-        int newMsn;
-        synchronized (mailMessages) {
-            mailMessages.add(storedMessage);
-            newMsn = mailMessages.size();
+    /**
+     * Assigns uids to the new messages, adds them and notifies the listeners.
+     */
+    private long[] append(List<StoredMessage> storedMessages) {
+        long[] uids = new long[storedMessages.size()];
+        int firstNewMsn;
+        mailMessages.getLock().writeLock().lock();
+        try {
+            firstNewMsn = mailMessages.size() + 1;
+            for (int i = 0; i < uids.length; i++) {
+                StoredMessage storedMessage = storedMessages.get(i);
+                uids[i] = nextUid++;
+                storedMessage.setUid(uids[i]);
+                mailMessages.add(storedMessage);
+            }
+            storeMessageCount.addAndGet(uids.length);
+        } finally {
+            mailMessages.getLock().writeLock().unlock();
         }
 
-        // Notify all the listeners of the new message
+        // Notify all the listeners of the new messages
         synchronized (_mailboxListeners) {
             for (FolderListener _mailboxListener : _mailboxListeners) {
-                _mailboxListener.added(newMsn);
+                for (int i = 0; i < uids.length; i++) {
+                    _mailboxListener.added(firstNewMsn + i);
+                }
             }
         }
 
-        return uid;
+        return uids;
     }
 
     @Override
@@ -269,8 +370,13 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public void deleteAllMessages() {
-        synchronized (mailMessages) {
+        Lock lock = mailMessages.getLock().writeLock();
+        lock.lock();
+        try {
+            storeMessageCount.addAndGet(-mailMessages.size());
             mailMessages.clear();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -289,14 +395,7 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public StoredMessage getMessage(long uid) {
-        synchronized (mailMessages) {
-            for (StoredMessage mailMessage : mailMessages) {
-                if (mailMessage.getUid() == uid) {
-                    return mailMessage;
-                }
-            }
-        }
-        return null;
+        return mailMessages.getByUid(uid);
     }
 
     /**
@@ -348,10 +447,10 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
         long[] allUids = mailMessages.getMessageUids();
 
         ArrayList<Long>matchedUids = new ArrayList<>();
-        for (long currentUid : allUids) {
-            int msn = getMsn(currentUid);
-            if (includes(msgNumRange, msn)) {
-                matchedUids.add(currentUid);
+        for (int i = 0; i < allUids.length; i++) {
+            // UIDs are ordered by MSN
+            if (includes(msgNumRange, i + 1)) {
+                matchedUids.add(allUids[i]);
             }
         }
         long[] result = new long[matchedUids.size()];
@@ -387,11 +486,9 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
     public long[] search(SearchTerm searchTerm) {
         List<StoredMessage> matchedMessages = new ArrayList<>();
 
-        synchronized (mailMessages) {
-            for (StoredMessage mailMessage : mailMessages) {
-                if (searchTerm.match(mailMessage.getMimeMessage())) {
-                    matchedMessages.add(mailMessage);
-                }
+        for (StoredMessage mailMessage : mailMessages.getMessages()) {
+            if (searchTerm.match(mailMessage.getMimeMessage())) {
+                matchedMessages.add(mailMessage);
             }
         }
 
@@ -408,24 +505,37 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
     public long copyMessage(long uid, MailFolder toFolder)
             throws FolderException {
         StoredMessage originalMessage = getMessage(uid);
-        MimeMessage newMime;
-        try {
-            newMime = new MimeMessage(originalMessage.getMimeMessage());
-        } catch (MessagingException e) {
-            throw new FolderException("Can not copy message " + uid + " to folder " + toFolder, e);
+        if (toFolder instanceof HierarchicalFolder) {
+            return ((HierarchicalFolder) toFolder).appendCopy(originalMessage);
         }
-
-        return toFolder.appendMessage(newMime, originalMessage.getFlags(), originalMessage.getReceivedDate());
+        // The target folder stores its own copy, sharing the raw content
+        return toFolder.appendMessage(originalMessage.getMimeMessage(), originalMessage.getFlags(),
+                originalMessage.getReceivedDate());
     }
 
     @Override
     public void expunge() throws FolderException {
-        mailMessages.expunge(_mailboxListeners);
+        expunge(null);
     }
 
     @Override
     public void expunge(IdRange[] idRanges) {
-        mailMessages.expunge(_mailboxListeners, idRanges);
+        Lock lock = mailMessages.getLock().writeLock();
+        lock.lock();
+        try {
+            int count = mailMessages.size();
+            mailMessages.expunge(_mailboxListeners, idRanges);
+            storeMessageCount.addAndGet(mailMessages.size() - count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of messages in all folders of the store.
+     */
+    long getStoreMessageCount() {
+        return storeMessageCount.get();
     }
 
     @Override
@@ -463,44 +573,34 @@ class HierarchicalFolder implements MailFolder, UIDFolder {
 
     @Override
     public Message[] getMessagesByUID(long start, long end) throws MessagingException {
-        synchronized (mailMessages) {
-            List<Message> messages = new ArrayList<>();
-            for (StoredMessage mailMessage : mailMessages) {
-                final long uid = mailMessage.getUid();
-                if (uid >= start && uid <= end) {
-                    messages.add(mailMessage.getMimeMessage());
-                }
+        List<Message> messages = new ArrayList<>();
+        for (StoredMessage mailMessage : mailMessages.getMessages()) {
+            final long uid = mailMessage.getUid();
+            if (uid >= start && uid <= end) {
+                messages.add(mailMessage.getMimeMessage());
             }
-            return messages.toArray(new Message[messages.size()]);
         }
+        return messages.toArray(new Message[messages.size()]);
     }
 
     @Override
     public Message[] getMessagesByUID(long[] uids) throws MessagingException {
-        synchronized (mailMessages) {
-            List<Message> messages = new ArrayList<>(uids.length);
-            Map<Long, StoredMessage> uid2Msg = new HashMap<>(mailMessages.size());
-            for (StoredMessage mailMessage : mailMessages) {
-                uid2Msg.put(mailMessage.getUid(), mailMessage);
-            }
-            for (long uid : uids) {
-                final StoredMessage storedMessage = uid2Msg.get(uid);
-                if (storedMessage != null) {
-                    messages.add(storedMessage.getMimeMessage());
-                }
+        List<Message> messages = new ArrayList<>(uids.length);
+        for (long uid : uids) {
+            final StoredMessage storedMessage = mailMessages.getByUid(uid);
+            if (storedMessage != null) {
+                messages.add(storedMessage.getMimeMessage());
             }
-            return messages.toArray(new Message[messages.size()]);
         }
+        return messages.toArray(new Message[messages.size()]);
     }
 
     @Override
     public long getUID(Message message) throws MessagingException {
         // Check if we have a message with same object reference ... otherwise, not supported.
-        synchronized (mailMessages) {
-            for (StoredMessage mailMessage : mailMessages) {
-                if (mailMessage.getMimeMessage() == message) {
-                    return mailMessage.getUid();
-                }
+        for (StoredMessage mailMessage : mailMessages.getMessages()) {
+            if (mailMessage.getMimeMessage() == message) {
+                return mailMessage.getUid();
             }
         }
         throw new IllegalStateException("No match found for " + message);
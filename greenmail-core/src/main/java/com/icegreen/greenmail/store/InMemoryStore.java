@@ -12,9 +12,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.mail.MessagingException;
 import javax.mail.Quota;
 
@@ -35,7 +38,11 @@ public class InMemoryStore implements Store, ImapConstants {
     final Logger log = LoggerFactory.getLogger(InMemoryStore.class);
 
     boolean quotaSupported = true;
-    private RootFolder rootMailbox = new RootFolder();
+    private final RootFolder rootMailbox;
+    /**
+     * Mailboxes by lowercased full name, updated on create, rename and delete.
+     */
+    private final ConcurrentMap<String, HierarchicalFolder> mailboxIndex = new ConcurrentHashMap<>();
     private Map<String, Set<Quota>> quotaMap = new HashMap<>();
 
     /**
@@ -44,12 +51,25 @@ public class InMemoryStore implements Store, ImapConstants {
      * @param startupConfig - startup configuration
      **/
     public InMemoryStore(GreenMailConfiguration startupConfig) {
-
+        if (null != startupConfig && startupConfig.isOffHeapMessageContent()) {
+            log.info("Keeping message content off heap");
+            rootMailbox = new RootFolder(new MessageArena());
+        } else {
+            rootMailbox = new RootFolder();
+        }
+        index(rootMailbox);
     }
 
     @Override
     public MailFolder getMailbox(String absoluteMailboxName) {
         log.debug("Entering getMailbox with absoluteMailboxName: '" + absoluteMailboxName + "'");
+        HierarchicalFolder indexed = mailboxIndex.get(getIndexKey(absoluteMailboxName));
+        if (null != indexed) {
+            log.debug("Leaving getMailbox with indexed mailbox: " + indexed);
+            return indexed;
+        }
+
+        // Not indexed, as not existing, being changed concurrently or not given by its canonical name
         StringTokenizer tokens = new StringTokenizer(absoluteMailboxName, HIERARCHY_DELIMITER);
 
         // The first token must be "#mail"
@@ -85,8 +105,11 @@ public class InMemoryStore implements Store, ImapConstants {
         }
         HierarchicalFolder castParent = (HierarchicalFolder) parent;
         HierarchicalFolder child = new HierarchicalFolder(castParent, mailboxName);
-        castParent.getChildren().add(child);
+        if (null != castParent.addChild(child)) {
+            throw new FolderException("Mailbox already exists.");
+        }
         child.setSelectable(selectable);
+        index(child);
         return child;
     }
 
@@ -94,7 +117,7 @@ public class InMemoryStore implements Store, ImapConstants {
     public void deleteMailbox(MailFolder folder) throws FolderException {
         HierarchicalFolder toDelete = (HierarchicalFolder) folder;
 
-        if (!toDelete.getChildren().isEmpty()) {
+        if (toDelete.hasChildren()) {
             throw new FolderException("Cannot delete mailbox with children.");
         }
 
@@ -103,7 +126,8 @@ public class InMemoryStore implements Store, ImapConstants {
         }
 
         HierarchicalFolder parent = toDelete.getParent();
-        parent.getChildren().remove(toDelete);
+        unindex(toDelete);
+        parent.removeChild(toDelete);
     }
 
     @Override
@@ -122,23 +146,68 @@ public class InMemoryStore implements Store, ImapConstants {
             newFolderPathWithoutName = "";
         }
 
+        HierarchicalFolder newParent;
         if (parent.getName().equals(newFolderPathWithoutName)) {
             // Simple rename
-            toRename.setName(newFolderName);
+            newParent = parent;
         } else {
             // Hierarchy change
-            parent.getChildren().remove(toRename);
             HierarchicalFolder userFolder = findParentByName(toRename, ImapConstants.INBOX_NAME).getParent();
             String[] path = newName.split('\\' + ImapConstants.HIERARCHY_DELIMITER);
-            HierarchicalFolder newParent = userFolder;
-            for (int i = 0; i < path.length - 1; i++) {
+            newParent = userFolder;
+            for (int i = 0; i < path.length - 1 && null != newParent; i++) {
                 newParent = newParent.getChild(path[i]);
             }
-            toRename.moveToNewParent(newParent);
-            toRename.setName(newFolderName);
+            if (null == newParent) {
+                throw new FolderException("Parent mailbox does not exist.");
+            }
+        }
+        HierarchicalFolder existing = newParent.getChild(newFolderName);
+        if (null != existing && existing != toRename) {
+            throw new FolderException("Mailbox already exists.");
+        }
+
+        // Full names of the folder and all its descendants change
+        List<MailFolder> renamed = new ArrayList<>();
+        renamed.add(toRename);
+        addAllChildren(toRename, renamed);
+        for (MailFolder folder : renamed) {
+            unindex((HierarchicalFolder) folder);
+        }
+        try {
+            if (newParent == parent) {
+                toRename.setName(newFolderName);
+            } else {
+                String oldName = toRename.getName();
+                parent.removeChild(toRename);
+                toRename.setName(newFolderName);
+                try {
+                    toRename.moveToNewParent(newParent);
+                } catch (FolderException e) {
+                    toRename.setName(oldName);
+                    parent.addChild(toRename);
+                    throw e;
+                }
+            }
+        } finally {
+            for (MailFolder folder : renamed) {
+                index((HierarchicalFolder) folder);
+            }
         }
     }
 
+    private void index(HierarchicalFolder folder) {
+        mailboxIndex.put(getIndexKey(folder.getFullName()), folder);
+    }
+
+    private void unindex(HierarchicalFolder folder) {
+        mailboxIndex.remove(getIndexKey(folder.getFullName()), folder);
+    }
+
+    private static String getIndexKey(String absoluteMailboxName) {
+        return absoluteMailboxName.toLowerCase(Locale.ENGLISH);
+    }
+
     private HierarchicalFolder findParentByName(HierarchicalFolder folder, String parentName) {
         HierarchicalFolder currentFolder = folder;
         while (null != currentFolder && !parentName.equals(currentFolder.getName())) {
@@ -291,6 +360,11 @@ public class InMemoryStore implements Store, ImapConstants {
         }
     }
 
+    @Override
+    public long getMessageCount() {
+        return rootMailbox.getStoreMessageCount();
+    }
+
     @Override
     public boolean isQuotaSupported() {
         return quotaSupported;
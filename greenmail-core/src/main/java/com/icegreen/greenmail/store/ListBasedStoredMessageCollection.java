@@ -4,11 +4,15 @@
 */
 package com.icegreen.greenmail.store;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.mail.Flags;
 
 import com.icegreen.greenmail.foedus.util.MsgRangeFilter;
@@ -17,105 +21,180 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Messages in a list, with a UID index for looking up messages and sequence numbers by UID.
+ * Counters of unseen, recent and deleted messages are maintained as messages are added, changed and expunged.
+ * <p/>
+ * Readers share a read lock, so concurrent sessions reading the same folder do not serialize.
+ * The size and counters are also published in volatile fields, read without locking.
+ * <p/>
+ * Each change publishes an immutable snapshot of the messages, returned by {@link #getMessages()} and used for
+ * iterating, without locking or copying. Messages are appended to an array beyond the end of published snapshots,
+ * while expunging and clearing start a new array, so a snapshot never changes once published.
+ *
  * @author Raimund Klein <raimund.klein@gmx.de>
  */
 public class ListBasedStoredMessageCollection implements StoredMessageCollection {
     final Logger log = LoggerFactory.getLogger(ListBasedStoredMessageCollection.class);
 
-    private final List<StoredMessage> mailMessages = Collections.synchronizedList(new ArrayList<StoredMessage>());
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private StoredMessage[] mailMessages = new StoredMessage[16];
+    private volatile Snapshot snapshot = new Snapshot(mailMessages, 0);
+    private final UidIndex uids = new UidIndex();
+    private final FlagCounters counters = new FlagCounters();
+    // Published on each change while holding the write lock
+    private volatile int unseenCount;
+    private volatile int recentCount;
+    private volatile long lastUid = -1L;
+    private final StoredMessage.FlagsListener flagsListener = new StoredMessage.FlagsListener() {
+        @Override
+        public void flagsChanged(StoredMessage message) {
+            lock.writeLock().lock();
+            try {
+                int index = uids.indexOf(message.getUid());
+                // Reads the current flags, so concurrent notifications for a message can be applied in any order
+                if (index >= 0 && mailMessages[index] == message) {
+                    counters.update(index, message.getFlagBits());
+                    publish();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    };
+
+    @Override
+    public ReadWriteLock getLock() {
+        return lock;
+    }
 
     @Override
     public int size() {
-        return mailMessages.size();
+        return snapshot.size();
     }
 
     @Override
     public void add(StoredMessage storedMessage) {
-        mailMessages.add(storedMessage);
+        lock.writeLock().lock();
+        try {
+            int size = snapshot.size();
+            if (size == mailMessages.length) {
+                mailMessages = Arrays.copyOf(mailMessages, size * 2);
+            }
+            mailMessages[size] = storedMessage;
+            uids.add(storedMessage.getUid());
+            storedMessage.setFlagsListener(flagsListener);
+            counters.add(storedMessage.getFlagBits());
+            publish(size + 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
     public void clear() {
-        mailMessages.clear();
-    }
-
-    private void expungeMessage(int msn, Collection<FolderListener> mailboxListeners) {
-        log.debug("Expunge message with messageNumber: " + msn);
-        // Notify all the listeners of the pending delete
-        synchronized (mailboxListeners) {
-            deleteMessage(msn);
-            log.debug("Deleted message with messageNumber: " + msn);
-            for (FolderListener expungeListener : mailboxListeners) {
-                log.debug("Informed listener: " + expungeListener);
-                expungeListener.expunged(msn);
+        lock.writeLock().lock();
+        try {
+            for (StoredMessage message : snapshot) {
+                message.setFlagsListener(null);
             }
+            mailMessages = new StoredMessage[16];
+            uids.clear();
+            counters.clear();
+            publish(0);
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
-    private void deleteMessage(int msn) {
-        synchronized (mailMessages) {
-            mailMessages.remove(msn - 1); // input is 1 based index
-        }
+    /**
+     * Publishes the counters for lock free reads. Caller must hold the write lock.
+     */
+    private void publish() {
+        unseenCount = counters.getUnseenCount();
+        recentCount = counters.getRecentCount();
+        lastUid = uids.getLast();
+    }
+
+    /**
+     * Publishes a snapshot of the first messages of the array, and the counters. Caller must hold the write lock.
+     *
+     * @param size the number of messages.
+     */
+    private void publish(int size) {
+        snapshot = new Snapshot(mailMessages, size);
+        publish();
     }
 
     @Override
     public int getFirstUnseen() {
-        synchronized (mailMessages) {
-            for (int i = 0; i < mailMessages.size(); i++) {
-                StoredMessage message = mailMessages.get(i);
-                if (!message.isSet(Flags.Flag.SEEN)) {
-                    return i + 1;
-                }
-            }
+        lock.readLock().lock();
+        try {
+            return counters.getFirstUnseen();
+        } finally {
+            lock.readLock().unlock();
         }
-        return -1;
+    }
+
+    @Override
+    public int getUnseenCount() {
+        return unseenCount;
+    }
+
+    @Override
+    public int getRecentCount() {
+        return recentCount;
     }
 
     @Override
     public int getMsn(long uid) throws FolderException {
-        synchronized (mailMessages) {
-            for (int i = 0; i < mailMessages.size(); i++) {
-                StoredMessage message = mailMessages.get(i);
-                if (message.getUid() == uid) {
-                    return i + 1;
-                }
-            }
+        int index;
+        lock.readLock().lock();
+        try {
+            index = uids.indexOf(uid);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (index < 0) {
+            throw new FolderException("No such message.");
+        }
+        return index + 1;
+    }
+
+    @Override
+    public StoredMessage getByUid(long uid) {
+        lock.readLock().lock();
+        try {
+            int index = uids.indexOf(uid);
+            return index < 0 ? null : mailMessages[index];
+        } finally {
+            lock.readLock().unlock();
         }
-        throw new FolderException("No such message.");
     }
 
     @Override
     public List<StoredMessage> getMessages(MsgRangeFilter range) {
         List<StoredMessage> ret = new ArrayList<>();
-
-        synchronized (mailMessages) {
-            for (int i = 0; i < mailMessages.size(); i++) {
-                if (range.includes(i + 1)) {
-                    ret.add(mailMessages.get(i));
-                }
+        Snapshot messages = snapshot;
+        for (int i = 0; i < messages.size(); i++) {
+            if (range.includes(i + 1)) {
+                ret.add(messages.get(i));
             }
         }
-
         return ret;
     }
 
     @Override
     public List<StoredMessage> getMessages() {
-        synchronized (mailMessages) {
-            // Return new list since we don't want to give the caller access to the internal list
-            return new ArrayList<>(mailMessages);
-        }
+        return snapshot;
     }
 
     @Override
     public long[] getMessageUids() {
-        synchronized (mailMessages) {
-            long[] uids = new long[mailMessages.size()];
-            for (int i = 0; i < mailMessages.size(); i++) {
-                StoredMessage message = mailMessages.get(i);
-                uids[i] = message.getUid();
-            }
-            return uids;
+        lock.readLock().lock();
+        try {
+            return uids.toArray();
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
@@ -127,13 +206,7 @@ public class ListBasedStoredMessageCollection implements StoredMessageCollection
      */
     @Override
     public long getLastMessageUid() {
-        long result = -1;
-        synchronized (mailMessages) {
-            if (!this.mailMessages.isEmpty()) {
-                result = this.mailMessages.get(this.mailMessages.size() - 1).getUid();
-            }
-        }
-        return result;
+        return lastUid;
     }
 
     @Override
@@ -143,12 +216,55 @@ public class ListBasedStoredMessageCollection implements StoredMessageCollection
 
     @Override
     public void expunge(List<FolderListener> folderListeners, IdRange[] idRanges) {
-        synchronized (mailMessages) {
-            for (int i = mailMessages.size() - 1; i >= 0; i--) {
-                StoredMessage message = mailMessages.get(i);
+        lock.writeLock().lock();
+        try {
+            if (counters.getDeletedCount() == 0) {
+                return;
+            }
+            Snapshot messages = snapshot;
+            List<Integer> expungedMsns = new ArrayList<>();
+            List<StoredMessage> remaining = new ArrayList<>(messages.size());
+            for (int i = 0; i < messages.size(); i++) {
+                StoredMessage message = messages.get(i);
                 if (message.isSet(Flags.Flag.DELETED) &&
                         (idRanges == null || IdRange.containsUid(idRanges, message.getUid()))) {
-                    expungeMessage(i + 1, folderListeners); // MSNs start counting at 1
+                    expungedMsns.add(i + 1); // MSNs start counting at 1
+                    message.setFlagsListener(null);
+                } else {
+                    remaining.add(message);
+                }
+            }
+            if (expungedMsns.isEmpty()) {
+                return;
+            }
+
+            // Removes all messages at once into a new array, keeping the UID index in sync
+            mailMessages = remaining.toArray(new StoredMessage[Math.max(16, remaining.size())]);
+            uids.clear();
+            counters.clear();
+            for (StoredMessage message : remaining) {
+                uids.add(message.getUid());
+                counters.add(message.getFlagBits());
+            }
+            publish(remaining.size());
+            notifyExpunged(expungedMsns, folderListeners);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Notifies the listeners of expunged messages, from the highest to the lowest MSN,
+     * so each MSN is still valid when notified.
+     */
+    private void notifyExpunged(List<Integer> expungedMsns, Collection<FolderListener> mailboxListeners) {
+        synchronized (mailboxListeners) {
+            for (int i = expungedMsns.size() - 1; i >= 0; i--) {
+                int msn = expungedMsns.get(i);
+                log.debug("Expunged message with messageNumber: " + msn);
+                for (FolderListener expungeListener : mailboxListeners) {
+                    log.debug("Informed listener: " + expungeListener);
+                    expungeListener.expunged(msn);
                 }
             }
         }
@@ -156,11 +272,37 @@ public class ListBasedStoredMessageCollection implements StoredMessageCollection
 
     @Override
     public StoredMessage get(int i) {
-        return mailMessages.get(i);
+        return snapshot.get(i);
     }
 
     @Override
     public Iterator<StoredMessage> iterator() {
-        return mailMessages.iterator();
+        return snapshot.iterator();
+    }
+
+    /**
+     * Immutable view of the first messages of an array.
+     */
+    private static class Snapshot extends AbstractList<StoredMessage> implements RandomAccess {
+        private final StoredMessage[] messages;
+        private final int size;
+
+        Snapshot(StoredMessage[] messages, int size) {
+            this.messages = messages;
+            this.size = size;
+        }
+
+        @Override
+        public StoredMessage get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            return messages[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
     }
 }
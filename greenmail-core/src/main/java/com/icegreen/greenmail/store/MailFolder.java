@@ -57,6 +57,16 @@ public interface MailFolder {
      */
     long appendMessage(MimeMessage message, Flags flags, Date internalDate);
 
+    /**
+     * Appends messages in the given order, as a single batch.
+     *
+     * @param messages the messages.
+     * @param flags the flags of each message.
+     * @param internalDate the received date of each message.
+     * @return the uids, in the order of the messages.
+     */
+    long[] appendMessages(List<MimeMessage> messages, Flags flags, Date internalDate);
+
     void deleteAllMessages();
 
     void expunge() throws FolderException;
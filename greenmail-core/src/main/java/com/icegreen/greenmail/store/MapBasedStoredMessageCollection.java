@@ -11,6 +11,8 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.mail.Flags;
 
 import com.icegreen.greenmail.foedus.util.MsgRangeFilter;
@@ -18,33 +20,69 @@ import com.icegreen.greenmail.imap.commands.IdRange;
 import com.icegreen.greenmail.util.MaxSizeLinkedHashMap;
 
 /**
+ * Messages by UID, evicting the eldest message above a maximum size.
+ * A UID index maps between UIDs and message sequence numbers without iterating the map.
+ *
  * @author Raimund Klein <raimund.klein@gmx.de>
  */
 public class MapBasedStoredMessageCollection implements StoredMessageCollection {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private final Map<Long, StoredMessage> mailMessages;
+    private final UidIndex uids = new UidIndex();
 
     public MapBasedStoredMessageCollection(final int maximumMapSize) {
-        mailMessages = Collections.synchronizedMap(new MaxSizeLinkedHashMap<Long, StoredMessage>(maximumMapSize));
+        mailMessages = new MaxSizeLinkedHashMap<>(maximumMapSize);
+    }
+
+    @Override
+    public ReadWriteLock getLock() {
+        return lock;
     }
 
     @Override
     public int size() {
-        return mailMessages.size();
+        lock.readLock().lock();
+        try {
+            return mailMessages.size();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     @Override
     public void add(StoredMessage storedMessage) {
-        mailMessages.put(storedMessage.getUid(), storedMessage);
+        lock.writeLock().lock();
+        try {
+            int previousSize = mailMessages.size();
+            if (null != mailMessages.put(storedMessage.getUid(), storedMessage)) {
+                // Replaced message keeps its position
+                return;
+            }
+            if (mailMessages.size() == previousSize) {
+                // Eldest message evicted
+                uids.removeFirst();
+            }
+            uids.add(storedMessage.getUid());
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
     public void clear() {
-        mailMessages.clear();
+        lock.writeLock().lock();
+        try {
+            mailMessages.clear();
+            uids.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
     public int getFirstUnseen() {
-        synchronized (mailMessages) {
+        lock.readLock().lock();
+        try {
             int i = 1;
             for (StoredMessage message : mailMessages.values()) {
                 if (!message.isSet(Flags.Flag.SEEN)) {
@@ -52,58 +90,101 @@ public class MapBasedStoredMessageCollection implements StoredMessageCollection
                 }
                 i++;
             }
+            return -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getUnseenCount() {
+        lock.readLock().lock();
+        try {
+            return countMessages(Flags.Flag.SEEN, false);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getRecentCount() {
+        lock.readLock().lock();
+        try {
+            return countMessages(Flags.Flag.RECENT, true);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int countMessages(Flags.Flag flag, boolean set) {
+        int count = 0;
+        for (StoredMessage message : mailMessages.values()) {
+            if (message.isSet(flag) == set) {
+                count++;
+            }
         }
-        return -1;
+        return count;
     }
 
     @Override
     public int getMsn(long uid) throws FolderException {
-        synchronized (mailMessages) {
-            if (mailMessages.containsKey(uid)) {
-                int i = 1;
-                for (Long messageUid : mailMessages.keySet()) {
-                    if (messageUid.equals(uid)) {
-                        return i;
-                    }
-                    i++;
-                }
+        lock.readLock().lock();
+        try {
+            int index = uids.indexOf(uid);
+            if (index < 0) {
+                throw new FolderException("No such message.");
             }
-            throw new FolderException("No such message.");
+            return index + 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public StoredMessage getByUid(long uid) {
+        lock.readLock().lock();
+        try {
+            return mailMessages.get(uid);
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     @Override
     public List<StoredMessage> getMessages(MsgRangeFilter range) {
-        final List<StoredMessage> messagesInRange = new ArrayList<>();
-        int i = 0;
-        synchronized (mailMessages) {
+        lock.readLock().lock();
+        try {
+            final List<StoredMessage> messagesInRange = new ArrayList<>();
+            int i = 0;
             for (final StoredMessage message : mailMessages.values()) {
                 if (range.includes(i)) {
                     messagesInRange.add(message);
                 }
                 i++;
             }
+            return messagesInRange;
+        } finally {
+            lock.readLock().unlock();
         }
-        return messagesInRange;
     }
 
     @Override
     public List<StoredMessage> getMessages() {
-        synchronized (mailMessages) {
-            return new ArrayList<>(mailMessages.values());
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(mailMessages.values()));
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     @Override
     public long[] getMessageUids() {
-        synchronized (mailMessages) {
-            final long[] uids = new long[mailMessages.size()];
-            int i = 0;
-            for (final Long uid : mailMessages.keySet()) {
-                uids[i] = uid;
-                i++;
-            }
-            return uids;
+        lock.readLock().lock();
+        try {
+            return uids.toArray();
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
@@ -115,16 +196,12 @@ public class MapBasedStoredMessageCollection implements StoredMessageCollection
      */
     @Override
     public long getLastMessageUid() {
-        long result = -1;
-        synchronized (mailMessages) {
-            if (!this.mailMessages.isEmpty()) {
-                StoredMessage[] msgList = this.mailMessages.values().toArray(new StoredMessage[0]);
-                if (msgList.length != 0) {
-                    result = msgList[msgList.length - 1].getUid();
-                }
-            }
+        lock.readLock().lock();
+        try {
+            return uids.getLast();
+        } finally {
+            lock.readLock().unlock();
         }
-        return result;
     }
 
     @Override
@@ -134,8 +211,10 @@ public class MapBasedStoredMessageCollection implements StoredMessageCollection
 
     @Override
     public void expunge(List<FolderListener> mailboxListeners, IdRange[] idRanges) {
-        int i = 1;
-        synchronized (mailMessages) {
+        lock.writeLock().lock();
+        try {
+            int i = 1;
+            boolean expunged = false;
             for (final Iterator<Map.Entry<Long, StoredMessage>> messageEntryIt = mailMessages.entrySet().iterator(); messageEntryIt.hasNext(); ) {
                 final Map.Entry<Long, StoredMessage> messageEntry = messageEntryIt.next();
                 if (messageEntry.getValue().isSet(Flags.Flag.DELETED) &&
@@ -143,6 +222,7 @@ public class MapBasedStoredMessageCollection implements StoredMessageCollection
                     // Notify all the listeners of the pending delete
                     synchronized (mailboxListeners) {
                         messageEntryIt.remove();
+                        expunged = true;
                         for (FolderListener expungeListener : mailboxListeners) {
                             expungeListener.expunged(i);
                         }
@@ -150,21 +230,28 @@ public class MapBasedStoredMessageCollection implements StoredMessageCollection
                 }
                 i++;
             }
+            if (expunged) {
+                uids.clear();
+                for (Long uid : mailMessages.keySet()) {
+                    uids.add(uid);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
     @Override
     public StoredMessage get(final int messageIndex) {
-        synchronized (mailMessages) {
-            int i = 0;
-            for (final StoredMessage message : mailMessages.values()) {
-                if (messageIndex == i) {
-                    return message;
-                }
-                i++;
+        lock.readLock().lock();
+        try {
+            if (messageIndex < 0 || messageIndex >= uids.size()) {
+                throw new IllegalArgumentException(format("No message with index %d found", messageIndex));
             }
+            return mailMessages.get(uids.get(messageIndex));
+        } finally {
+            lock.readLock().unlock();
         }
-        throw new IllegalArgumentException(format("No message with index %d found", messageIndex));
     }
 
     @Override
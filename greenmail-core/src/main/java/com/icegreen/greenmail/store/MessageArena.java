@@ -0,0 +1,64 @@
+/* -------------------------------------------------------------------
+* This software is released under the Apache license 2.0
+* -------------------------------------------------------------------
+*/
+package com.icegreen.greenmail.store;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps raw message content off the Java heap, in direct byte buffer segments.
+ * <p/>
+ * Content is appended to the current segment, and a new segment is allocated once it is full.
+ * Content larger than a segment gets a direct buffer of its own.
+ * A segment is released by the garbage collector once no message refers to any of its content anymore,
+ * so expunged messages free their memory along with the other messages of the same segment.
+ * <p/>
+ * Direct memory is limited by the JVM option -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+ */
+class MessageArena {
+    static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private final int segmentSize;
+    private ByteBuffer segment;
+
+    MessageArena() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize the size of each segment in bytes.
+     */
+    MessageArena(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Copies content into the arena.
+     *
+     * @param content the content.
+     * @return a read only buffer of the copied content, from position zero to its limit.
+     */
+    ByteBuffer store(byte[] content) {
+        if (content.length > segmentSize) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+            buffer.put(content);
+            ((Buffer) buffer).flip();
+            return buffer.asReadOnlyBuffer();
+        }
+        ByteBuffer slice;
+        synchronized (this) {
+            if (null == segment || segment.remaining() < content.length) {
+                segment = ByteBuffer.allocateDirect(segmentSize);
+            }
+            slice = segment.slice();
+            ((Buffer) slice).limit(content.length);
+            ((Buffer) segment).position(segment.position() + content.length);
+        }
+        // Slices do not overlap, so content is copied outside of the lock
+        slice.put(content);
+        ((Buffer) slice).flip();
+        return slice.asReadOnlyBuffer();
+    }
+}
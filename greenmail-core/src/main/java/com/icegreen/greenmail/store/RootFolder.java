@@ -11,7 +11,14 @@ import com.icegreen.greenmail.imap.ImapConstants;
  */
 class RootFolder extends HierarchicalFolder {
     public RootFolder() {
-        super(null, ImapConstants.USER_NAMESPACE);
+        this(null);
+    }
+
+    /**
+     * @param arena the arena keeping raw message content of all folders off heap, or null for keeping it on heap.
+     */
+    RootFolder(MessageArena arena) {
+        super(null, ImapConstants.USER_NAMESPACE, arena);
     }
 
     @Override
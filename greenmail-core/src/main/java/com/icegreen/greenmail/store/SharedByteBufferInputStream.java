@@ -0,0 +1,109 @@
+/* -------------------------------------------------------------------
+* This software is released under the Apache license 2.0
+* -------------------------------------------------------------------
+*/
+package com.icegreen.greenmail.store;
+
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import javax.mail.internet.SharedInputStream;
+
+/**
+ * Shared input stream reading a byte buffer, such as a direct buffer of a {@link MessageArena}.
+ * <p/>
+ * Streams created by {@link #newStream(long, long)} share the buffer content, but not the position.
+ * Not thread safe, each reader uses its own stream.
+ */
+class SharedByteBufferInputStream extends InputStream implements SharedInputStream {
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int end;
+    private int pos;
+    private int mark;
+
+    /**
+     * @param buffer the content, from its position to its limit. The buffer must not be modified afterwards.
+     */
+    SharedByteBufferInputStream(ByteBuffer buffer) {
+        this(buffer.duplicate(), buffer.position(), buffer.limit());
+    }
+
+    private SharedByteBufferInputStream(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        this.pos = start;
+        this.mark = start;
+    }
+
+    @Override
+    public int read() {
+        if (pos >= end) {
+            return -1;
+        }
+        return buffer.get(pos++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos >= end) {
+            return -1;
+        }
+        int count = Math.min(len, end - pos);
+        // Cast keeps the Java 7 signature of Buffer.position(int)
+        ((Buffer) buffer).position(pos);
+        buffer.get(b, off, count);
+        pos += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        int count = (int) Math.min(n, end - pos);
+        pos += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return end - pos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+        mark = pos;
+    }
+
+    @Override
+    public void reset() {
+        pos = mark;
+    }
+
+    @Override
+    public long getPosition() {
+        return pos - start;
+    }
+
+    @Override
+    public InputStream newStream(long start, long end) {
+        if (start < 0) {
+            throw new IllegalArgumentException("start < 0");
+        }
+        if (end == -1) {
+            end = this.end - this.start;
+        }
+        return new SharedByteBufferInputStream(buffer.duplicate(), this.start + (int) start, this.start + (int) end);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2014 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the Apache license 2.0
+ */
+package com.icegreen.greenmail.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import javax.activation.DataHandler;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.SharedInputStream;
+import javax.mail.util.SharedByteArrayInputStream;
+import javax.mail.util.SharedFileInputStream;
+
+/**
+ * Mime message backed by immutable raw content, which copies share instead of serializing and parsing all of it again.
+ * <p/>
+ * A copy has its own parsed headers and flags, but shares the raw bytes including the body.
+ * This keeps a message delivered to many mailboxes in memory only once.
+ * Once headers or content of a message are modified, copies of it fall back to serializing the message.
+ * <p/>
+ * Copies can keep their raw content off heap in a {@link MessageArena}. The content of a message is copied into
+ * the arena once, and shared by all its copies.
+ * <p/>
+ * A message may be backed by a file, such as a spooled incoming message. Copies do not share the file,
+ * as they may outlive it, but share a copy of the content made once.
+ */
+public class SharedMimeMessage extends MimeMessage {
+    private final SharedInputStream rawContent;
+    private volatile boolean contentModified;
+    private volatile SharedInputStream arenaContent;
+    private volatile SharedInputStream heapContent;
+
+    /**
+     * Parses a message from raw content, which must not be modified afterwards.
+     *
+     * @param rawContent the raw message, including headers.
+     * @throws MessagingException on parse error.
+     */
+    public SharedMimeMessage(byte[] rawContent) throws MessagingException {
+        this(new SharedByteArrayInputStream(rawContent));
+    }
+
+    /**
+     * Copies a message including its flags, sharing the raw content if possible.
+     *
+     * @param source the message to copy.
+     * @throws MessagingException on copy error.
+     */
+    public SharedMimeMessage(MimeMessage source) throws MessagingException {
+        this(source, null);
+    }
+
+    /**
+     * Copies a message including its flags, keeping the raw content in the given arena.
+     *
+     * @param source the message to copy.
+     * @param arena  the arena for the raw content, or null for keeping it on heap.
+     * @throws MessagingException on copy error.
+     */
+    SharedMimeMessage(MimeMessage source, MessageArena arena) throws MessagingException {
+        this(rawContentOf(source, arena));
+        flags = source.getFlags();
+    }
+
+    /**
+     * Parses a message from shared raw content, such as a {@link SharedFileInputStream}.
+     * Only headers are read, the body is read from the shared content on demand.
+     *
+     * @param rawContent the raw message, including headers. Must not be modified or closed while the message is used.
+     * @throws MessagingException on parse error.
+     */
+    public SharedMimeMessage(SharedInputStream rawContent) throws MessagingException {
+        super(Session.getDefaultInstance(new Properties()), rawContent.newStream(0, -1));
+        this.rawContent = rawContent;
+    }
+
+    /**
+     * Gets the raw content of a message for sharing it with a copy.
+     *
+     * @param source the message.
+     * @param arena  the arena for the raw content, or null for keeping it on heap.
+     * @return the raw content of the source message if possible, otherwise the serialized message.
+     * @throws MessagingException on copy error.
+     */
+    static SharedInputStream rawContentOf(MimeMessage source, MessageArena arena) throws MessagingException {
+        return null == arena ? rawContentOf(source) : arenaContentOf(source, arena);
+    }
+
+    /**
+     * Gets raw content for sharing it with a copy, without parsing the message.
+     *
+     * @param rawContent the raw content of the message.
+     * @param arena      the arena for the raw content, or null for keeping it on heap.
+     * @return the given raw content if possible, otherwise a copy of it.
+     * @throws MessagingException on copy error.
+     */
+    static SharedInputStream rawContentOf(SharedInputStream rawContent, MessageArena arena) throws MessagingException {
+        if (null == arena) {
+            return rawContent instanceof SharedFileInputStream
+                    ? new SharedByteArrayInputStream(readFully(rawContent.newStream(0, -1))) : rawContent;
+        }
+        return rawContent instanceof SharedByteBufferInputStream
+                ? rawContent : new SharedByteBufferInputStream(arena.store(readFully(rawContent.newStream(0, -1))));
+    }
+
+    private static SharedInputStream rawContentOf(MimeMessage source) throws MessagingException {
+        if (source instanceof SharedMimeMessage && !((SharedMimeMessage) source).contentModified) {
+            SharedMimeMessage shared = (SharedMimeMessage) source;
+            if (!(shared.rawContent instanceof SharedFileInputStream)) {
+                return shared.rawContent;
+            }
+            // Copies the content once, for all mailboxes a message is delivered to
+            synchronized (shared) {
+                if (null == shared.heapContent) {
+                    shared.heapContent = new SharedByteArrayInputStream(readFully(shared.rawContent.newStream(0, -1)));
+                }
+                return shared.heapContent;
+            }
+        }
+        return new SharedByteArrayInputStream(serialize(source));
+    }
+
+    private static SharedInputStream arenaContentOf(MimeMessage source, MessageArena arena)
+            throws MessagingException {
+        if (source instanceof SharedMimeMessage && !((SharedMimeMessage) source).contentModified) {
+            SharedMimeMessage shared = (SharedMimeMessage) source;
+            if (shared.rawContent instanceof SharedByteBufferInputStream) {
+                return shared.rawContent;
+            }
+            // Copies the content once, for all mailboxes a message is delivered to
+            synchronized (shared) {
+                if (null == shared.arenaContent) {
+                    shared.arenaContent = new SharedByteBufferInputStream(
+                            arena.store(readFully(shared.rawContent.newStream(0, -1))));
+                }
+                return shared.arenaContent;
+            }
+        }
+        return new SharedByteBufferInputStream(arena.store(serialize(source)));
+    }
+
+    private static byte[] serialize(MimeMessage source) throws MessagingException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            source.writeTo(bos);
+        } catch (IOException e) {
+            throw new MessagingException("Can not copy message", e);
+        }
+        return bos.toByteArray();
+    }
+
+    private static byte[] readFully(InputStream is) throws MessagingException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try {
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                bos.write(buffer, 0, count);
+            }
+        } catch (IOException e) {
+            throw new MessagingException("Can not copy message", e);
+        }
+        return bos.toByteArray();
+    }
+
+    SharedInputStream getRawContent() {
+        return rawContent;
+    }
+
+    @Override
+    public void setHeader(String name, String value) throws MessagingException {
+        contentModified = true;
+        super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) throws MessagingException {
+        contentModified = true;
+        super.addHeader(name, value);
+    }
+
+    @Override
+    public void removeHeader(String name) throws MessagingException {
+        contentModified = true;
+        super.removeHeader(name);
+    }
+
+    @Override
+    public void addHeaderLine(String line) throws MessagingException {
+        contentModified = true;
+        super.addHeaderLine(line);
+    }
+
+    @Override
+    public synchronized void setDataHandler(DataHandler dh) throws MessagingException {
+        contentModified = true;
+        super.setDataHandler(dh);
+    }
+}
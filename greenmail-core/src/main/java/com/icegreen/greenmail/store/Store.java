@@ -102,6 +102,14 @@ public interface Store {
      */
     Collection<MailFolder> listMailboxes(String searchPattern) throws FolderException;
 
+    /**
+     * Counts the messages of all mailboxes, without listing any mailbox.
+     * The count is kept up to date as messages are appended, expunged and deleted.
+     *
+     * @return the number of messages.
+     */
+    long getMessageCount();
+
     /**
      * Gets the quotas.
      *
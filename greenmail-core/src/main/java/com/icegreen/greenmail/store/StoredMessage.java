@@ -10,20 +10,49 @@ import java.util.Date;
 import javax.mail.Flags;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.SharedInputStream;
+
+import com.icegreen.greenmail.filestore.FileStoreUtil;
 
 /**
  * A mail message with all of the extra stuff that IMAP requires.
  * This is just a placeholder object, while I work out what's really required. A common
  * way of handling *all* messages needs to be available for James (maybe MovingMessage?)
+ * <p/>
+ * Only the raw content and flags are kept when storing a message. The mime message and the message attributes
+ * are parsed on first use, so messages only counted or fetched as flags are never parsed.
+ * <p/>
+ * Flags are kept as a bit set of system flags and ids of user flags, also for the parsed mime message.
+ * Checking and changing flags does not allocate, a {@link Flags} object is only built by {@link #getFlags()}.
  *
  * @author Darrell DeBoer <darrell@apache.org>
  * @version $Revision: 109034 $
  */
 public class StoredMessage {
-    private MimeMessage mimeMessage;
-    private Date receivedDate;
+    private final SharedInputStream rawContent;
+    private final Date receivedDate;
     private long uid;
-    private SimpleMessageAttributes attributes;
+    /**
+     * The mime message, parsed on first use. Assigned while holding the monitor of this message.
+     */
+    private volatile UidAwareMimeMessage mimeMessage;
+    /**
+     * System flags, see {@link FileStoreUtil#convertFlagsToFlagBitSet(Flags)}. Assigned while holding the monitor.
+     */
+    private volatile int flagBits;
+    /**
+     * User flags sorted case insensitively, see {@link UserFlags}. Assigned while holding the monitor, never modified.
+     */
+    private volatile String[] userFlags = UserFlags.NONE;
+    private volatile SimpleMessageAttributes attributes;
+    private volatile FlagsListener flagsListener;
+
+    /**
+     * Notified after the flags of a message changed, without holding the monitor of the message.
+     */
+    interface FlagsListener {
+        void flagsChanged(StoredMessage message);
+    }
 
     /**
      * Wraps a mime message and provides support for uid.
@@ -31,63 +60,183 @@ public class StoredMessage {
      *
      * @see com.icegreen.greenmail.imap.commands.SearchTermBuilder.UidSearchTerm
      */
-    public static class UidAwareMimeMessage extends MimeMessage {
+    public static class UidAwareMimeMessage extends SharedMimeMessage {
         private long uid;
+        /**
+         * The stored message keeping the flags of this message, or null if this message keeps its flags.
+         */
+        private final StoredMessage owner;
+
+        /**
+         * Copies the source message, sharing its raw content if possible.
+         *
+         * @see SharedMimeMessage#SharedMimeMessage(MimeMessage)
+         */
         public UidAwareMimeMessage(MimeMessage source, long uid) throws MessagingException {
             super(source);
             this.uid = uid;
+            this.owner = null;
+        }
+
+        UidAwareMimeMessage(SharedInputStream rawContent, long uid, StoredMessage owner) throws MessagingException {
+            super(rawContent);
+            this.uid = uid;
+            this.owner = owner;
         }
 
         public long getUid() {
             return uid;
         }
+
+        void setUid(long uid) {
+            this.uid = uid;
+        }
+
+        @Override
+        public Flags getFlags() throws MessagingException {
+            return null == owner ? super.getFlags() : owner.getFlags();
+        }
+
+        @Override
+        public boolean isSet(Flags.Flag flag) throws MessagingException {
+            return null == owner ? super.isSet(flag) : owner.isSet(flag);
+        }
+
+        @Override
+        public void setFlags(Flags flag, boolean set) throws MessagingException {
+            // Flags may be changed directly via the mime message
+            if (null == owner) {
+                super.setFlags(flag, set);
+            } else {
+                owner.setFlags(flag, set);
+            }
+        }
     }
 
     public StoredMessage(MimeMessage mimeMessage,
                   Date receivedDate, long uid) {
+        this(mimeMessage, receivedDate, uid, null);
+    }
+
+    /**
+     * @param arena the arena keeping the raw content off heap, or null for keeping it on heap.
+     */
+    StoredMessage(MimeMessage mimeMessage, Date receivedDate, long uid, MessageArena arena) {
         this.receivedDate = receivedDate;
         this.uid = uid;
         try {
-            this.mimeMessage = new UidAwareMimeMessage(mimeMessage, uid);
-            this.attributes = new SimpleMessageAttributes(mimeMessage, receivedDate);
+            this.rawContent = SharedMimeMessage.rawContentOf(mimeMessage, arena);
+            Flags flags = mimeMessage.getFlags();
+            this.flagBits = FileStoreUtil.convertFlagsToFlagBitSet(flags);
+            this.userFlags = UserFlags.update(UserFlags.NONE, flags.getUserFlags(), true);
+        } catch (MessagingException e) {
+            throw new IllegalStateException("Could not copy mime message " + mimeMessage + " with uid " + uid, e);
+        }
+    }
+
+    /**
+     * Copies a stored message including its flags, sharing the raw content without parsing the message.
+     *
+     * @param source the message to copy.
+     * @param uid    the uid of the copy.
+     * @param arena  the arena keeping the raw content off heap, or null for keeping it on heap.
+     */
+    StoredMessage(StoredMessage source, long uid, MessageArena arena) {
+        this.receivedDate = source.receivedDate;
+        this.uid = uid;
+        try {
+            // Once parsed, the mime message may have been modified
+            UidAwareMimeMessage parsed = source.mimeMessage;
+            this.rawContent = null == parsed ? SharedMimeMessage.rawContentOf(source.rawContent, arena)
+                    : SharedMimeMessage.rawContentOf(parsed, arena);
         } catch (MessagingException e) {
-            throw new IllegalStateException("Could not parse mime message " + mimeMessage + " with uid " + uid, e);
+            throw new IllegalStateException("Could not copy message with uid " + source.uid, e);
+        }
+        synchronized (source) {
+            this.flagBits = source.flagBits;
+            this.userFlags = source.userFlags;
         }
     }
 
     public MimeMessage getMimeMessage() {
+        UidAwareMimeMessage message = mimeMessage;
+        if (null == message) {
+            message = parse();
+        }
+        return message;
+    }
+
+    /**
+     * @return true, if the mime message was parsed already.
+     */
+    boolean isParsed() {
+        return null != mimeMessage;
+    }
+
+    SharedInputStream getRawContent() {
+        return rawContent;
+    }
+
+    private synchronized UidAwareMimeMessage parse() {
+        if (null == mimeMessage) {
+            try {
+                mimeMessage = new UidAwareMimeMessage(rawContent, uid, this);
+            } catch (MessagingException e) {
+                throw new IllegalStateException("Could not parse mime message with uid " + uid, e);
+            }
+        }
         return mimeMessage;
     }
 
+    /**
+     * @return a copy of the flags.
+     */
     public Flags getFlags() {
-        try {
-            return getMimeMessage().getFlags();
-        } catch (MessagingException e) {
-            throw new IllegalStateException("Can not access flags", e);
+        Flags flags = FileStoreUtil.convertFlagBitSetToFlags(flagBits);
+        for (String userFlag : userFlags) {
+            flags.add(userFlag);
         }
+        return flags;
+    }
+
+    /**
+     * @return the system flags as bit set, see {@link FileStoreUtil#convertFlagsToFlagBitSet(Flags)}.
+     */
+    int getFlagBits() {
+        return flagBits;
     }
 
     public boolean isSet(Flags.Flag flag) {
-        try {
-            return getMimeMessage().isSet(flag);
-        } catch (MessagingException e) {
-            throw new IllegalStateException("Can not access flag " + flag, e);
-        }
+        int bit = FileStoreUtil.convertFlagToFlagBit(flag);
+        return bit != 0 && (flagBits & bit) != 0;
     }
 
     public void setFlag(Flags.Flag flag, boolean value) {
-        try {
-            getMimeMessage().setFlag(flag, value);
-        } catch (MessagingException e) {
-            throw new IllegalStateException("Can not set flag " + flag + " to " + value, e);
+        int bit = FileStoreUtil.convertFlagToFlagBit(flag);
+        boolean changed;
+        synchronized (this) {
+            int updated = value ? flagBits | bit : flagBits & ~bit;
+            changed = updated != flagBits;
+            flagBits = updated;
+        }
+        if (changed) {
+            flagsChanged();
         }
     }
 
     public void setFlags(Flags flags, boolean value) {
-        try {
-            getMimeMessage().setFlags(flags, value);
-        } catch (MessagingException e) {
-            throw new IllegalStateException("Can not set flags " + flags + " to " + value, e);
+        int bits = FileStoreUtil.convertFlagsToFlagBitSet(flags);
+        String[] changedUserFlags = flags.getUserFlags();
+        boolean changed;
+        synchronized (this) {
+            int updated = value ? flagBits | bits : flagBits & ~bits;
+            String[] updatedUserFlags = UserFlags.update(userFlags, changedUserFlags, value);
+            changed = updated != flagBits || updatedUserFlags != userFlags;
+            flagBits = updated;
+            userFlags = updatedUserFlags;
+        }
+        if (changed) {
+            flagsChanged();
         }
     }
 
@@ -99,7 +248,45 @@ public class StoredMessage {
         return uid;
     }
 
+    /**
+     * Assigns the uid of a message created before appending it, and not yet visible to other threads.
+     */
+    synchronized void setUid(long uid) {
+        this.uid = uid;
+        if (null != mimeMessage) {
+            mimeMessage.setUid(uid);
+        }
+    }
+
+    /**
+     * @param flagsListener the listener notified of flag changes, or null.
+     */
+    void setFlagsListener(FlagsListener flagsListener) {
+        this.flagsListener = flagsListener;
+    }
+
+    private void flagsChanged() {
+        FlagsListener listener = flagsListener;
+        if (null != listener) {
+            listener.flagsChanged(this);
+        }
+    }
+
+    /**
+     * @return the message attributes, computed on first use.
+     * @throws FolderException if the message can not be parsed.
+     */
     public MailMessageAttributes getAttributes() throws FolderException {
-        return attributes;
+        SimpleMessageAttributes result = attributes;
+        if (null == result) {
+            try {
+                // Concurrent callers may compute equal attributes, one of which is kept
+                result = new SimpleMessageAttributes(getMimeMessage(), receivedDate);
+            } catch (MessagingException e) {
+                throw new FolderException("Can not parse message with uid " + uid, e);
+            }
+            attributes = result;
+        }
+        return result;
     }
 }
@@ -5,14 +5,25 @@
 package com.icegreen.greenmail.store;
 
 import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
 
 import com.icegreen.greenmail.foedus.util.MsgRangeFilter;
 import com.icegreen.greenmail.imap.commands.IdRange;
 
 /**
+ * Messages of a folder, ordered by message sequence number.
+ * <p/>
+ * Implementations are guarded by a read write lock, and callers iterating the collection must hold its read lock.
+ * Iterating {@link #getMessages()} instead requires no lock.
+ *
  * @author Raimund Klein <raimund.klein@gmx.de>
  */
 public interface StoredMessageCollection extends Iterable<StoredMessage> {
+    /**
+     * @return the lock guarding this collection. Flags of messages must not be changed while holding the read lock.
+     */
+    ReadWriteLock getLock();
+
     int size();
 
     void add(StoredMessage storedMessage);
@@ -21,10 +32,31 @@ public interface StoredMessageCollection extends Iterable<StoredMessage> {
 
     int getFirstUnseen();
 
+    /**
+     * @return the number of messages without the SEEN flag.
+     */
+    int getUnseenCount();
+
+    /**
+     * @return the number of messages with the RECENT flag.
+     */
+    int getRecentCount();
+
     int getMsn(long uid) throws FolderException;
 
+    /**
+     * Gets a message by UID.
+     *
+     * @param uid the message UID.
+     * @return the message, or null if not found.
+     */
+    StoredMessage getByUid(long uid);
+
     List<StoredMessage> getMessages(MsgRangeFilter range);
 
+    /**
+     * @return an unmodifiable snapshot of all messages, not reflecting later additions or expunges.
+     */
     List<StoredMessage> getMessages();
 
     long[] getMessageUids();
@@ -0,0 +1,109 @@
+/* -------------------------------------------------------------------
+* This software is released under the Apache license 2.0
+* -------------------------------------------------------------------
+*/
+package com.icegreen.greenmail.store;
+
+import java.util.Arrays;
+
+/**
+ * Message UIDs by message index, as a primitive array.
+ * <p/>
+ * UIDs are appended in ascending order by folders, so lookups of a UID are a binary search.
+ * Should a UID not be greater than its predecessor, lookups fall back to a linear scan.
+ * <p/>
+ * Not thread safe.
+ */
+class UidIndex {
+    private long[] uids = new long[16];
+    private int start;
+    private int size;
+    private boolean sorted = true;
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param uid the UID of the message appended as last message.
+     */
+    void add(long uid) {
+        if (size > 0 && uid <= uids[start + size - 1]) {
+            sorted = false;
+        }
+        if (start + size == uids.length) {
+            if (start >= uids.length / 2) {
+                // Reclaims the space of removed first UIDs
+                System.arraycopy(uids, start, uids, 0, size);
+            } else {
+                uids = Arrays.copyOf(uids, uids.length * 2);
+                System.arraycopy(uids, start, uids, 0, size);
+            }
+            start = 0;
+        }
+        uids[start + size] = uid;
+        size++;
+    }
+
+    /**
+     * Removes the UID of the first message.
+     */
+    void removeFirst() {
+        if (size == 0) {
+            throw new IllegalStateException("No UID to remove");
+        }
+        start++;
+        size--;
+        if (size == 0) {
+            clear();
+        }
+    }
+
+    void clear() {
+        start = 0;
+        size = 0;
+        sorted = true;
+    }
+
+    /**
+     * @param index the zero based message index.
+     * @return the UID.
+     */
+    long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return uids[start + index];
+    }
+
+    /**
+     * @return the UID of the last message, or -1 if empty.
+     */
+    long getLast() {
+        return size == 0 ? -1L : uids[start + size - 1];
+    }
+
+    /**
+     * @param uid the UID.
+     * @return the zero based message index, or -1 if not found.
+     */
+    int indexOf(long uid) {
+        if (sorted) {
+            int index = Arrays.binarySearch(uids, start, start + size, uid);
+            return index < 0 ? -1 : index - start;
+        }
+        for (int i = 0; i < size; i++) {
+            if (uids[start + i] == uid) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a copy of all UIDs.
+     */
+    long[] toArray() {
+        return Arrays.copyOfRange(uids, start, start + size);
+    }
+}
@@ -0,0 +1,49 @@
+/* -------------------------------------------------------------------
+* This software is released under the Apache license 2.0
+* -------------------------------------------------------------------
+*/
+package com.icegreen.greenmail.store;
+
+import java.util.Arrays;
+
+/**
+ * Updates the user flags (keywords) of a message, kept as an array sorted case insensitively.
+ * <p/>
+ * User flags are case insensitive, and each message keeps the spelling a user flag was set with.
+ */
+final class UserFlags {
+    static final String[] NONE = new String[0];
+
+    private UserFlags() {
+        // Static only
+    }
+
+    /**
+     * Adds or removes user flags from a sorted array of user flags.
+     *
+     * @param sortedUserFlags the sorted user flags, not modified.
+     * @param userFlags       the user flags to add or remove.
+     * @param add             true for adding, false for removing.
+     * @return the sorted user flags, or the given user flags if unchanged.
+     */
+    static String[] update(String[] sortedUserFlags, String[] userFlags, boolean add) {
+        String[] result = sortedUserFlags;
+        for (String userFlag : userFlags) {
+            int index = Arrays.binarySearch(result, userFlag, String.CASE_INSENSITIVE_ORDER);
+            if (add && index < 0) {
+                int insert = -index - 1;
+                String[] updated = new String[result.length + 1];
+                System.arraycopy(result, 0, updated, 0, insert);
+                updated[insert] = userFlag;
+                System.arraycopy(result, insert, updated, insert + 1, result.length - insert);
+                result = updated;
+            } else if (!add && index >= 0) {
+                String[] updated = new String[result.length - 1];
+                System.arraycopy(result, 0, updated, 0, index);
+                System.arraycopy(result, index + 1, updated, index, result.length - index - 1);
+                result = updated;
+            }
+        }
+        return result;
+    }
+}
@@ -8,9 +8,9 @@ package com.icegreen.greenmail.user;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Locale;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.icegreen.greenmail.filestore.MBoxFileStore;
 import com.icegreen.greenmail.imap.ImapHostManager;
@@ -19,16 +19,24 @@ import org.slf4j.LoggerFactory;
 
 public class UserManager {
     private static final Logger log = LoggerFactory.getLogger(UserManager.class);
+    /**
+     * Number of locks serializing the creation of users with the same normalized email or login.
+     */
+    private static final int PROVISIONING_LOCKS = 64;
     /**
      * User list by their trimmed, lowercased user names
      */
-    private Map<String, GreenMailUser> loginToUser = Collections.synchronizedMap(new HashMap<String, GreenMailUser>());
-    private Map<String, GreenMailUser> emailToUser = Collections.synchronizedMap(new HashMap<String, GreenMailUser>());
+    private final ConcurrentMap<String, GreenMailUser> loginToUser = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, GreenMailUser> emailToUser = new ConcurrentHashMap<>();
+    private final Object[] provisioningLocks = new Object[PROVISIONING_LOCKS];
     private ImapHostManager imapHostManager;
     private boolean authRequired = true;
 
     public UserManager(ImapHostManager imapHostManager) {
         this.imapHostManager = imapHostManager;
+        for (int i = 0; i < provisioningLocks.length; i++) {
+            provisioningLocks[i] = new Object();
+        }
 
         if (this.imapHostManager.getStore() instanceof MBoxFileStore) {
             // We have a filestore to store the messages, this means that we have to store the users
@@ -52,42 +60,79 @@ public class UserManager {
     public GreenMailUser createUser(String email, String login, String password) throws UserException {
         log.debug("Create user with login: " + login);
         GreenMailUser user = new UserImpl(email, login, password, imapHostManager);
+        // Replaced users go first, as a new user with the same name reuses their mail space
+        removeUser(normalizerUserName(login));
         user.create();
         addUser(user);
 
-        writeUserStoreToFS();
+        writeUserToFS(user);
         return user;
     }
 
-    private void writeUserStoreToFS() {
+    /**
+     * Gets the user of the given email, creating the user if missing.
+     * Concurrent calls for the same email create the user once.
+     *
+     * @param email    the email of the user.
+     * @param login    the login, if the user is created.
+     * @param password the password, if the user is created.
+     * @return the existing or created user.
+     * @throws UserException if the user can not be created.
+     */
+    public GreenMailUser getOrCreateUser(String email, String login, String password) throws UserException {
+        GreenMailUser user = getUserByEmail(email);
+        if (null == user) {
+            synchronized (getProvisioningLock(email)) {
+                user = getUserByEmail(email);
+                if (null == user) {
+                    user = createUser(email, login, password);
+                    log.info("Created user login {} for address {} with password {} because it didn't exist before.",
+                            login, email, password);
+                }
+            }
+        }
+        return user;
+    }
+
+    private void writeUserToFS(GreenMailUser user) {
         if (this.imapHostManager.getStore() instanceof MBoxFileStore) {
-            log.debug("Writing all users to FS now, because store is of type MBoxFileStore");
             // We have a filestore to store the messages, this means that we have to store the users
-            // on the FS as well.
+            // on the FS as well. Only the change is appended, not all users.
             MBoxFileStore filestore = (MBoxFileStore)this.imapHostManager.getStore();
-            Collection<GreenMailUser>userList = loginToUser.values();
-            filestore.writeUserStore(userList);
+            filestore.writeUser(user);
         }
     }
 
-    public void addUser(GreenMailUser user) {
-        GreenMailUser deletedUser = loginToUser.remove(normalizerUserName(user.getLogin()));
-        if (deletedUser != null) {
-            emailToUser.remove(normalizerUserName(deletedUser.getEmail()));
-            deletedUser.delete();
+    private void deleteUserFromFS(GreenMailUser user) {
+        if (this.imapHostManager.getStore() instanceof MBoxFileStore) {
+            MBoxFileStore filestore = (MBoxFileStore)this.imapHostManager.getStore();
+            filestore.deleteUser(user);
         }
+    }
+
+    public void addUser(GreenMailUser user) {
+        removeUser(normalizerUserName(user.getLogin()));
         loginToUser.put(normalizerUserName(user.getLogin()), user);
         emailToUser.put(normalizerUserName(user.getEmail()), user);
     }
 
     public void deleteUser(GreenMailUser user) {
         log.debug("Delete user with login: " + user.getLogin());
-        GreenMailUser deletedUser = loginToUser.remove(normalizerUserName(user.getLogin()));
+        removeUser(normalizerUserName(user.getLogin()));
+        this.deleteUserFromFS(user);
+    }
+
+    private Object getProvisioningLock(String userId) {
+        int hash = normalizerUserName(userId).hashCode() & Integer.MAX_VALUE;
+        return provisioningLocks[hash % PROVISIONING_LOCKS];
+    }
+
+    private void removeUser(String normalizedLogin) {
+        GreenMailUser deletedUser = loginToUser.remove(normalizedLogin);
         if (deletedUser != null) {
-            emailToUser.remove(normalizerUserName(deletedUser.getEmail()));
+            emailToUser.remove(normalizerUserName(deletedUser.getEmail()), deletedUser);
             deletedUser.delete();
         }
-        this.writeUserStoreToFS();
     }
 
     public Collection<GreenMailUser> listUser() {
@@ -103,7 +148,11 @@ public class UserManager {
         if (!authRequired) {
             if(null == u) { // Auto create user
                 try {
-                    createUser(userId, userId, password);
+                    synchronized (getProvisioningLock(userId)) {
+                        if (null == getUser(userId)) {
+                            createUser(userId, userId, password);
+                        }
+                    }
                 } catch (UserException e) {
                     throw new IllegalStateException("Failed to create user with userid=" + userId, e);
                 }
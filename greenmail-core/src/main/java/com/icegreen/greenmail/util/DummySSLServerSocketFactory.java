@@ -36,11 +36,12 @@ public class DummySSLServerSocketFactory extends SSLServerSocketFactory {
     };
     public static final String GREENMAIL_JKS = "greenmail.jks";
     private SSLServerSocketFactory factory;
+    private SSLContext sslcontext;
     private KeyStore ks;
 
     public DummySSLServerSocketFactory() {
         try {
-            SSLContext sslcontext = SSLContext.getInstance("TLS");
+            sslcontext = SSLContext.getInstance("TLS");
             String defaultAlg = KeyManagerFactory.getDefaultAlgorithm();
             KeyManagerFactory km = KeyManagerFactory.getInstance(defaultAlg);
             ks = KeyStore.getInstance(KeyStore.getDefaultType());
@@ -68,7 +69,11 @@ public class DummySSLServerSocketFactory extends SSLServerSocketFactory {
 
     private SSLServerSocket addAnonCipher(ServerSocket socket) {
         SSLServerSocket ssl = (SSLServerSocket) socket;
-        final String[] ciphers = ssl.getEnabledCipherSuites();
+        ssl.setEnabledCipherSuites(addAnonCiphers(ssl.getEnabledCipherSuites()));
+        return ssl;
+    }
+
+    private static String[] addAnonCiphers(String[] ciphers) {
         final String[] anonCiphers = {"SSL_DH_anon_WITH_RC4_128_MD5"
                 , "SSL_DH_anon_WITH_RC4_128_MD5"
                 , "SSL_DH_anon_WITH_3DES_EDE_CBC_SHA"
@@ -78,8 +83,7 @@ public class DummySSLServerSocketFactory extends SSLServerSocketFactory {
         final String[] newCiphers = new String[ciphers.length + anonCiphers.length];
         System.arraycopy(ciphers, 0, newCiphers, 0, ciphers.length);
         System.arraycopy(anonCiphers, 0, newCiphers, ciphers.length, anonCiphers.length);
-        ssl.setEnabledCipherSuites(newCiphers);
-        return ssl;
+        return newCiphers;
     }
 
     public static ServerSocketFactory getDefault() {
@@ -120,4 +124,25 @@ public class DummySSLServerSocketFactory extends SSLServerSocketFactory {
     public KeyStore getKeyStore() {
         return ks;
     }
+
+    /**
+     * Gets the SSL context of this factory, eg for configuring the server session cache.
+     *
+     * @return the SSL context.
+     */
+    public SSLContext getSSLContext() {
+        return sslcontext;
+    }
+
+    /**
+     * Creates a server mode SSL engine, configured like the server sockets of this factory.
+     *
+     * @return a new SSL engine.
+     */
+    public SSLEngine createSSLEngine() {
+        SSLEngine engine = sslcontext.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setEnabledCipherSuites(addAnonCiphers(engine.getEnabledCipherSuites()));
+        return engine;
+    }
 }
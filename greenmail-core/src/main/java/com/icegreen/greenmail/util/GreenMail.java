@@ -7,6 +7,7 @@ package com.icegreen.greenmail.util;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -21,7 +22,9 @@ import com.icegreen.greenmail.imap.ImapHostManager;
 import com.icegreen.greenmail.imap.ImapServer;
 import com.icegreen.greenmail.pop3.Pop3Server;
 import com.icegreen.greenmail.server.AbstractServer;
-import com.icegreen.greenmail.smtp.SmtpManager;
+import com.icegreen.greenmail.smtp.DeliveryListener;
+import com.icegreen.greenmail.smtp.DeliveryPredicate;
+import com.icegreen.greenmail.smtp.DeliverySubscription;
 import com.icegreen.greenmail.smtp.SmtpServer;
 import com.icegreen.greenmail.store.FolderException;
 import com.icegreen.greenmail.store.InMemoryStore;
@@ -144,6 +147,10 @@ public class GreenMail extends ConfiguredGreenMail {
             }
         }
 
+        if (managers != null) {
+            managers.getSmtpManager().stop();
+        }
+
         if (this.storeToUse != null) {
             this.storeToUse.stop();
         }
@@ -235,27 +242,11 @@ public class GreenMail extends ConfiguredGreenMail {
     //~ Convenience Methods, often needed while testing ---------------------------------------------------------------
     @Override
     public boolean waitForIncomingEmail(long timeout, int emailCount) {
-        final SmtpManager.WaitObject o = managers.getSmtpManager().createAndAddNewWaitObject(emailCount);
-        if (null == o) {
-            return true;
-        }
-
-        synchronized (o) {
-            long t0 = System.currentTimeMillis();
-            while (!o.isArrived()) {
-                //this loop is necessary to insure correctness, see documentation on Object.wait()
-                try {
-                    o.wait(timeout);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException("Thread was interrupted while waiting", e);
-                }
-                if ((System.currentTimeMillis() - t0) > timeout) {
-                    return false;
-                }
-
-            }
+        try {
+            return managers.getSmtpManager().waitForIncomingEmail(timeout, emailCount);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Thread was interrupted while waiting", e);
         }
-        return true;
     }
 
     @Override
@@ -263,6 +254,21 @@ public class GreenMail extends ConfiguredGreenMail {
         return waitForIncomingEmail(5000L, emailCount);
     }
 
+    @Override
+    public DeliverySubscription subscribe(DeliveryPredicate predicate) {
+        return managers.getSmtpManager().subscribe(predicate, null);
+    }
+
+    @Override
+    public DeliverySubscription subscribe(DeliveryPredicate predicate, DeliveryListener listener) {
+        return managers.getSmtpManager().subscribe(predicate, listener);
+    }
+
+    @Override
+    public int loadMessages(Iterator<RawMessage> messages) throws FolderException {
+        return new MessageLoader(managers.getUserManager(), managers.getImapHostManager()).load(messages);
+    }
+
     @Override
     public MimeMessage[] getReceivedMessages() {
         List<StoredMessage> msgs = managers.getImapHostManager().getAllMessages();
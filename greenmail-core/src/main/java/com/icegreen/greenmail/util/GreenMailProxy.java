@@ -4,11 +4,15 @@ import com.icegreen.greenmail.Managers;
 import com.icegreen.greenmail.configuration.ConfiguredGreenMail;
 import com.icegreen.greenmail.imap.ImapServer;
 import com.icegreen.greenmail.pop3.Pop3Server;
+import com.icegreen.greenmail.smtp.DeliveryListener;
+import com.icegreen.greenmail.smtp.DeliveryPredicate;
+import com.icegreen.greenmail.smtp.DeliverySubscription;
 import com.icegreen.greenmail.smtp.SmtpServer;
 import com.icegreen.greenmail.store.FolderException;
 import com.icegreen.greenmail.user.GreenMailUser;
 
 import javax.mail.internet.MimeMessage;
+import java.util.Iterator;
 import java.util.Properties;
 
 /**
@@ -60,6 +64,21 @@ public abstract class GreenMailProxy extends ConfiguredGreenMail {
         return getGreenMail().waitForIncomingEmail(emailCount);
     }
 
+    @Override
+    public DeliverySubscription subscribe(DeliveryPredicate predicate) {
+        return getGreenMail().subscribe(predicate);
+    }
+
+    @Override
+    public DeliverySubscription subscribe(DeliveryPredicate predicate, DeliveryListener listener) {
+        return getGreenMail().subscribe(predicate, listener);
+    }
+
+    @Override
+    public int loadMessages(Iterator<RawMessage> messages) throws FolderException {
+        return getGreenMail().loadMessages(messages);
+    }
+
     @Override
     public MimeMessage[] getReceivedMessages() {
         return getGreenMail().getReceivedMessages();
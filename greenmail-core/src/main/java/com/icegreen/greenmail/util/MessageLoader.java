@@ -0,0 +1,177 @@
+package com.icegreen.greenmail.util;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.mail.Flags;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import com.icegreen.greenmail.imap.AuthorizationException;
+import com.icegreen.greenmail.imap.ImapHostManager;
+import com.icegreen.greenmail.store.FolderException;
+import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.store.SharedMimeMessage;
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.user.UserException;
+import com.icegreen.greenmail.user.UserManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads raw messages directly into the store, bypassing SMTP.
+ * <p/>
+ * Messages are processed in batches. The messages of a batch are parsed in parallel, and then
+ * appended to each target folder at once, in the order given. Missing users and folders are created.
+ */
+class MessageLoader {
+    private static final Logger log = LoggerFactory.getLogger(MessageLoader.class);
+    static final int BATCH_SIZE = 1000;
+
+    private final UserManager userManager;
+    private final ImapHostManager imapHostManager;
+    private final Map<String, MailFolder> folders = new HashMap<>();
+
+    MessageLoader(UserManager userManager, ImapHostManager imapHostManager) {
+        this.userManager = userManager;
+        this.imapHostManager = imapHostManager;
+    }
+
+    /**
+     * @param messages the messages to load.
+     * @return the number of loaded messages.
+     * @throws FolderException if a folder can not be created.
+     */
+    int load(Iterator<RawMessage> messages) throws FolderException {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "greenmail-loader-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            int count = 0;
+            List<RawMessage> batch = new ArrayList<>(BATCH_SIZE);
+            while (messages.hasNext()) {
+                batch.add(messages.next());
+                if (batch.size() == BATCH_SIZE || !messages.hasNext()) {
+                    loadBatch(executor, threads, batch);
+                    count += batch.size();
+                    batch.clear();
+                }
+            }
+            log.debug("Loaded {} messages", count);
+            return count;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void loadBatch(ExecutorService executor, int threads, final List<RawMessage> batch)
+            throws FolderException {
+        // Parses slices of the batch in parallel
+        final MimeMessage[] parsed = new MimeMessage[batch.size()];
+        final int sliceSize = (batch.size() + threads - 1) / threads;
+        List<Future<Void>> tasks = new ArrayList<>();
+        for (int start = 0; start < batch.size(); start += sliceSize) {
+            final int sliceStart = start;
+            final int sliceEnd = Math.min(start + sliceSize, batch.size());
+            tasks.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws MessagingException {
+                    for (int i = sliceStart; i < sliceEnd; i++) {
+                        parsed[i] = new SharedMimeMessage(batch.get(i).getContent());
+                    }
+                    return null;
+                }
+            }));
+        }
+        awaitAll(tasks);
+
+        Map<MailFolder, List<MimeMessage>> messagesByFolder = new LinkedHashMap<>();
+        for (int i = 0; i < parsed.length; i++) {
+            MailFolder folder = getFolder(batch.get(i));
+            List<MimeMessage> folderMessages = messagesByFolder.get(folder);
+            if (null == folderMessages) {
+                folderMessages = new ArrayList<>();
+                messagesByFolder.put(folder, folderMessages);
+            }
+            folderMessages.add(parsed[i]);
+        }
+
+        // Appends to different folders in parallel, each folder as a single batch
+        final Date receivedDate = new Date();
+        tasks.clear();
+        for (final Map.Entry<MailFolder, List<MimeMessage>> entry : messagesByFolder.entrySet()) {
+            tasks.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    entry.getKey().appendMessages(entry.getValue(), new Flags(), receivedDate);
+                    return null;
+                }
+            }));
+        }
+        awaitAll(tasks);
+    }
+
+    private static void awaitAll(List<Future<Void>> tasks) {
+        try {
+            for (Future<Void> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading messages", e);
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException("Can not load messages", e.getCause());
+        }
+    }
+
+    private MailFolder getFolder(RawMessage message) throws FolderException {
+        String key = message.getEmail().toLowerCase(Locale.ENGLISH) + '\u0000' + message.getFolderName();
+        MailFolder folder = folders.get(key);
+        if (null == folder) {
+            GreenMailUser user = getOrCreateUser(message.getEmail());
+            if (RawMessage.INBOX.equalsIgnoreCase(message.getFolderName())) {
+                folder = imapHostManager.getInbox(user);
+            } else {
+                folder = imapHostManager.getFolder(user, message.getFolderName());
+            }
+            if (null == folder) {
+                try {
+                    folder = imapHostManager.createMailbox(user, message.getFolderName());
+                } catch (AuthorizationException e) {
+                    throw new FolderException("Can not create folder " + message.getFolderName() + " of " + user, e);
+                }
+            }
+            folders.put(key, folder);
+        }
+        return folder;
+    }
+
+    private GreenMailUser getOrCreateUser(String email) throws FolderException {
+        try {
+            // Same account as created on first delivery via SMTP
+            return userManager.getOrCreateUser(email, email, email);
+        } catch (UserException e) {
+            throw new FolderException("Can not create user " + email, e);
+        }
+    }
+}
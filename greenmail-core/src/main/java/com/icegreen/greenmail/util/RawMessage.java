@@ -0,0 +1,48 @@
+package com.icegreen.greenmail.util;
+
+/**
+ * Raw RFC 822 message content and its target mailbox, for loading messages directly into the store.
+ *
+ * @see GreenMail#loadMessages(java.util.Iterator)
+ */
+public class RawMessage {
+    /**
+     * The folder name of the inbox.
+     */
+    public static final String INBOX = "INBOX";
+
+    private final String email;
+    private final String folderName;
+    private final byte[] content;
+
+    /**
+     * @param email   the email address of the user owning the inbox to load into.
+     * @param content the raw message including headers, which must not be modified afterwards.
+     */
+    public RawMessage(String email, byte[] content) {
+        this(email, INBOX, content);
+    }
+
+    /**
+     * @param email      the email address of the user owning the folder.
+     * @param folderName the folder name, relative to the user namespace, such as "INBOX" or "INBOX.archive".
+     * @param content    the raw message including headers, which must not be modified afterwards.
+     */
+    public RawMessage(String email, String folderName, byte[] content) {
+        this.email = email;
+        this.folderName = folderName;
+        this.content = content;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getFolderName() {
+        return folderName;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+}
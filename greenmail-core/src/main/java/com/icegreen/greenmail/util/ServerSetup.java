@@ -76,6 +76,54 @@ public class ServerSetup {
      * Timeout when GreenMail starts a server, in milliseconds.
      */
     private long serverStartupTimeout = 1000L;
+    /**
+     * If true, connections are served by a selector based event loop instead of one thread per connection.
+     */
+    private boolean nonBlockingIo = false;
+    /**
+     * Number of selector (I/O) threads when using non-blocking IO.
+     */
+    private int ioThreads = 1;
+    /**
+     * Number of worker threads serving connections, or -1 for default.
+     */
+    private int workerThreads = -1;
+    /**
+     * Maximum number of concurrently open client connections, or -1 for unlimited.
+     */
+    private int maxConnections = -1;
+    /**
+     * Requested maximum length of the queue of incoming, not yet accepted connections, or -1 for the JDK default.
+     */
+    private int acceptBacklog = -1;
+    /**
+     * Number of threads accepting client connections.
+     */
+    private int acceptorThreads = 1;
+    /**
+     * If true, additional acceptor threads bind their own server socket to the same port using SO_REUSEPORT.
+     */
+    private boolean reusePort = false;
+    /**
+     * Type of executor serving connections, or null for the GreenMail configuration default.
+     */
+    private String connectionExecutor = null;
+    /**
+     * Maximum number of cached TLS sessions for resumption, or -1 for the JDK default.
+     */
+    private int tlsSessionCacheSize = -1;
+    /**
+     * Timeout of cached TLS sessions in seconds, or -1 for the JDK default.
+     */
+    private int tlsSessionTimeout = -1;
+    /**
+     * Timeout of TLS handshakes of non-blocking connections in milliseconds, or 0 for no timeout.
+     */
+    private int tlsHandshakeTimeout = 10000;
+    /**
+     * Maximum size of a message accepted via SMTP in octets, or -1 for unlimited.
+     */
+    private long maxMessageSize = -1L;
 
     public ServerSetup(int port, String bindAddress, String protocol) {
         this.port = port;
@@ -156,6 +204,209 @@ public class ServerSetup {
         this.serverStartupTimeout = timeoutInMs;
     }
 
+    public boolean isNonBlockingIo() {
+        return nonBlockingIo;
+    }
+
+    /**
+     * Toggles the selector based connection handling.
+     * <p/>
+     * If enabled, idle client connections do not occupy a thread. Readiness events are detected by
+     * {@link #getIoThreads()} selector threads, and incoming commands are processed by a bounded pool of
+     * {@link #getWorkerThreads()} worker threads. Default is the blocking thread-per-connection mode.
+     * <p/>
+     * Idle connections are closed after the read timeout of the protocol, like in blocking mode.
+     * A worker thread reads a started request until complete, bounded by the same timeout.
+     * <p/>
+     * Secure protocols use an {@link javax.net.ssl.SSLEngine} in this mode.
+     *
+     * @param nonBlockingIo true, if selector based IO should be used.
+     */
+    public void setNonBlockingIo(boolean nonBlockingIo) {
+        this.nonBlockingIo = nonBlockingIo;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * Sets the number of selector threads used for non-blocking IO.
+     *
+     * @param ioThreads number of selector threads, must be at least 1.
+     */
+    public void setIoThreads(int ioThreads) {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("Expected at least one IO thread but got " + ioThreads);
+        }
+        this.ioThreads = ioThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Sets the number of worker threads serving client connections.
+     * <p/>
+     * For blocking IO each open connection occupies a worker thread, so connections exceeding the pool size
+     * are rejected like connections exceeding {@link #getMaxConnections()}. Default (-1) is an unbounded pool.
+     * Executors not pooling threads, like virtual threads, ignore the number and do not limit connections.
+     * <p/>
+     * For non-blocking IO the worker threads process incoming commands.
+     * Default (-1) is twice the number of available processors.
+     *
+     * @param workerThreads number of worker threads, or -1 for default.
+     */
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Limits the number of concurrently open client connections.
+     * <p/>
+     * Additional connections are rejected with a protocol specific response, such as
+     * <code>421</code> for SMTP or <code>* BYE</code> for IMAP, and closed immediately.
+     *
+     * @param maxConnections maximum number of connections, or -1 for unlimited.
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    /**
+     * Sets the requested maximum length of the server socket queue of incoming connections.
+     *
+     * @param acceptBacklog the backlog, or -1 for the JDK default.
+     * @see java.net.ServerSocket#bind(java.net.SocketAddress, int)
+     */
+    public void setAcceptBacklog(int acceptBacklog) {
+        this.acceptBacklog = acceptBacklog;
+    }
+
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    /**
+     * Sets the number of threads accepting client connections.
+     * <p/>
+     * Acceptor threads only hand over accepted connections to the worker threads, which set up the connection.
+     * By default, acceptor threads share the server socket. See {@link #setReusePort(boolean)} for separate
+     * server sockets.
+     *
+     * @param acceptorThreads number of acceptor threads, must be at least 1.
+     */
+    public void setAcceptorThreads(int acceptorThreads) {
+        if (acceptorThreads < 1) {
+            throw new IllegalArgumentException("Expected at least one acceptor thread but got " + acceptorThreads);
+        }
+        this.acceptorThreads = acceptorThreads;
+    }
+
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    /**
+     * Enables separate server sockets for the acceptor threads, bound to the same port using SO_REUSEPORT.
+     * <p/>
+     * Only applies to non-blocking IO with several acceptor threads, and if supported by JDK (9+) and OS.
+     * The OS then balances incoming connections across the server sockets.
+     * <p/>
+     * Beware that SO_REUSEPORT also allows other GreenMail instances and other processes of the same user
+     * to bind the same port. For example, parallel test runs using the same fixed port do not fail to start,
+     * but receive each other's mails. Only enable this option for ports reserved to a single server.
+     *
+     * @param reusePort true for separate server sockets, false (default) for sharing the server socket.
+     */
+    public void setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
+    public String getConnectionExecutor() {
+        return connectionExecutor;
+    }
+
+    /**
+     * Sets the type of executor serving client connections.
+     *
+     * @param connectionExecutor the type, such as {@link com.icegreen.greenmail.server.ConnectionExecutors#VIRTUAL},
+     *                           or null for the default of the GreenMail configuration.
+     * @see com.icegreen.greenmail.server.ConnectionExecutors#create(String, String, int)
+     */
+    public void setConnectionExecutor(String connectionExecutor) {
+        this.connectionExecutor = connectionExecutor;
+    }
+
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * Sets the size of the server side TLS session cache, which allows clients to resume
+     * sessions of previous connections with an abbreviated handshake.
+     *
+     * @param tlsSessionCacheSize maximum number of cached sessions, 0 for unlimited or -1 for the JDK default.
+     * @see javax.net.ssl.SSLSessionContext#setSessionCacheSize(int)
+     */
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+    }
+
+    public int getTlsSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    /**
+     * Sets the timeout of cached TLS sessions.
+     *
+     * @param tlsSessionTimeout timeout in seconds, 0 for no timeout or -1 for the JDK default.
+     * @see javax.net.ssl.SSLSessionContext#setSessionTimeout(int)
+     */
+    public void setTlsSessionTimeout(int tlsSessionTimeout) {
+        this.tlsSessionTimeout = tlsSessionTimeout;
+    }
+
+    public int getTlsHandshakeTimeout() {
+        return tlsHandshakeTimeout;
+    }
+
+    /**
+     * Sets the timeout for completing the TLS handshake of a non-blocking connection.
+     * <p/>
+     * A worker thread performs the handshake once the client starts it. If the client stalls, the connection
+     * is closed after this timeout and the worker serves other connections again.
+     * Connections not starting the handshake at all are closed after this timeout, too.
+     *
+     * @param tlsHandshakeTimeout timeout in milliseconds, or 0 for no timeout. Default is 10 seconds.
+     */
+    public void setTlsHandshakeTimeout(int tlsHandshakeTimeout) {
+        this.tlsHandshakeTimeout = tlsHandshakeTimeout;
+    }
+
+    public long getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * Sets the maximum size of a message accepted via SMTP, announced by the SIZE extension (RFC 1870).
+     * Larger messages are rejected with 552.
+     *
+     * @param maxMessageSize maximum size in octets, or 0 or -1 for unlimited.
+     */
+    public void setMaxMessageSize(long maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
     /**
      * Creates default properties for a JavaMail session.
      * Concrete server implementations can add protocol specific settings.
@@ -229,6 +480,19 @@ public class ServerSetup {
         if (connectionTimeout != that.connectionTimeout) return false;
         if (writeTimeout != that.writeTimeout) return false;
         if (serverStartupTimeout != that.serverStartupTimeout) return false;
+        if (nonBlockingIo != that.nonBlockingIo) return false;
+        if (ioThreads != that.ioThreads) return false;
+        if (workerThreads != that.workerThreads) return false;
+        if (maxConnections != that.maxConnections) return false;
+        if (acceptBacklog != that.acceptBacklog) return false;
+        if (acceptorThreads != that.acceptorThreads) return false;
+        if (reusePort != that.reusePort) return false;
+        if (connectionExecutor != null ? !connectionExecutor.equals(that.connectionExecutor) : that.connectionExecutor != null)
+            return false;
+        if (tlsSessionCacheSize != that.tlsSessionCacheSize) return false;
+        if (tlsSessionTimeout != that.tlsSessionTimeout) return false;
+        if (tlsHandshakeTimeout != that.tlsHandshakeTimeout) return false;
+        if (maxMessageSize != that.maxMessageSize) return false;
         if (bindAddress != null ? !bindAddress.equals(that.bindAddress) : that.bindAddress != null) return false;
         return !(protocol != null ? !protocol.equals(that.protocol) : that.protocol != null);
 
@@ -243,6 +507,18 @@ public class ServerSetup {
         result = 31 * result + (int) (connectionTimeout ^ (connectionTimeout >>> 32));
         result = 31 * result + (int) (writeTimeout ^ (writeTimeout >>> 32));
         result = 31 * result + (int) (serverStartupTimeout ^ (serverStartupTimeout >>> 32));
+        result = 31 * result + (nonBlockingIo ? 1 : 0);
+        result = 31 * result + ioThreads;
+        result = 31 * result + workerThreads;
+        result = 31 * result + maxConnections;
+        result = 31 * result + acceptBacklog;
+        result = 31 * result + acceptorThreads;
+        result = 31 * result + (reusePort ? 1 : 0);
+        result = 31 * result + (connectionExecutor != null ? connectionExecutor.hashCode() : 0);
+        result = 31 * result + tlsSessionCacheSize;
+        result = 31 * result + tlsSessionTimeout;
+        result = 31 * result + tlsHandshakeTimeout;
+        result = 31 * result + (int) (maxMessageSize ^ (maxMessageSize >>> 32));
         return result;
     }
 
@@ -256,6 +532,18 @@ public class ServerSetup {
                 ", connectionTimeout=" + connectionTimeout +
                 ", writeTimeout=" + writeTimeout +
                 ", serverStartupTimeout=" + serverStartupTimeout +
+                ", nonBlockingIo=" + nonBlockingIo +
+                ", ioThreads=" + ioThreads +
+                ", workerThreads=" + workerThreads +
+                ", maxConnections=" + maxConnections +
+                ", acceptBacklog=" + acceptBacklog +
+                ", acceptorThreads=" + acceptorThreads +
+                ", reusePort=" + reusePort +
+                ", connectionExecutor='" + connectionExecutor + '\'' +
+                ", tlsSessionCacheSize=" + tlsSessionCacheSize +
+                ", tlsSessionTimeout=" + tlsSessionTimeout +
+                ", tlsHandshakeTimeout=" + tlsHandshakeTimeout +
+                ", maxMessageSize=" + maxMessageSize +
                 '}';
     }
 
@@ -280,6 +568,18 @@ public class ServerSetup {
         setup.setConnectionTimeout(getConnectionTimeout());
         setup.setReadTimeout(getReadTimeout());
         setup.setWriteTimeout(getWriteTimeout());
+        setup.setNonBlockingIo(isNonBlockingIo());
+        setup.setIoThreads(getIoThreads());
+        setup.setWorkerThreads(getWorkerThreads());
+        setup.setMaxConnections(getMaxConnections());
+        setup.setAcceptBacklog(getAcceptBacklog());
+        setup.setAcceptorThreads(getAcceptorThreads());
+        setup.setReusePort(isReusePort());
+        setup.setConnectionExecutor(getConnectionExecutor());
+        setup.setTlsSessionCacheSize(getTlsSessionCacheSize());
+        setup.setTlsSessionTimeout(getTlsSessionTimeout());
+        setup.setTlsHandshakeTimeout(getTlsHandshakeTimeout());
+        setup.setMaxMessageSize(getMaxMessageSize());
 
         return setup;
     }
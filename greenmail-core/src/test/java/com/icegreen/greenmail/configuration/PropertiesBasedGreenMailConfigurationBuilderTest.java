@@ -103,6 +103,43 @@ public class PropertiesBasedGreenMailConfigurationBuilderTest {
         assertEquals("/tmp/gugus", config.getFileStoreRootDirectory());
     }
 
+    @Test
+    public void testBuildWithConnectionExecutor() {
+        Properties props = createPropertiesFor(PropertiesBasedGreenMailConfigurationBuilder.GREENMAIL_CONNECTION_EXECUTOR,
+                "virtual");
+        GreenMailConfiguration config = new PropertiesBasedGreenMailConfigurationBuilder().build(props);
+        assertNotNull(config);
+        assertEquals("virtual", config.getConnectionExecutor());
+    }
+
+    @Test
+    public void testBuildWithDelivery() {
+        Properties props = createPropertiesFor(PropertiesBasedGreenMailConfigurationBuilder.GREENMAIL_DELIVERY_THREADS, "4");
+        props.setProperty(PropertiesBasedGreenMailConfigurationBuilder.GREENMAIL_DELIVERY_ACK_AFTER_ENQUEUE, "true");
+        GreenMailConfiguration config = new PropertiesBasedGreenMailConfigurationBuilder().build(props);
+        assertNotNull(config);
+        assertEquals(4, config.getDeliveryThreads());
+        assertTrue(config.isDeliveryAckAfterEnqueue());
+    }
+
+    @Test
+    public void testBuildWithSpooling() {
+        Properties props = createPropertiesFor(PropertiesBasedGreenMailConfigurationBuilder.GREENMAIL_SPOOL_THRESHOLD, "65536");
+        props.setProperty(PropertiesBasedGreenMailConfigurationBuilder.GREENMAIL_SPOOL_DIR, "target/spool");
+        GreenMailConfiguration config = new PropertiesBasedGreenMailConfigurationBuilder().build(props);
+        assertNotNull(config);
+        assertEquals(65536, config.getSpoolThreshold());
+        assertEquals("target/spool", config.getSpoolDirectory());
+    }
+
+    @Test
+    public void testBuildWithOffHeapMessageContent() {
+        Properties props = createPropertiesFor(PropertiesBasedGreenMailConfigurationBuilder.GREENMAIL_MAILSTORE_OFFHEAP, "true");
+        GreenMailConfiguration config = new PropertiesBasedGreenMailConfigurationBuilder().build(props);
+        assertNotNull(config);
+        assertTrue(config.isOffHeapMessageContent());
+    }
+
     @Test
     public void testParseUserWithDomain() {
         String[] result= PropertiesBasedGreenMailConfigurationBuilder.parseUser("logon:password@domain.com");
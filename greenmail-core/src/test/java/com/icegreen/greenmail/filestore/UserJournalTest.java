@@ -0,0 +1,177 @@
+package com.icegreen.greenmail.filestore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.user.UserImpl;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UserJournalTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private Path snapshotFile;
+    private Path journalFile;
+
+    @Before
+    public void setUp() {
+        snapshotFile = folder.getRoot().toPath().resolve("userlist");
+        journalFile = folder.getRoot().toPath().resolve("userlist.journal");
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        UserJournal journal = new UserJournal(snapshotFile, journalFile);
+        journal.replay();
+        journal.add(createUser("foo"));
+        journal.add(createUser("bar"));
+        journal.add(createUser("baz"));
+        journal.delete(createUser("bar"));
+        assertFalse(Files.exists(snapshotFile));
+
+        // Replays without closing, as after a crash
+        UserJournal replayed = new UserJournal(snapshotFile, journalFile);
+        replayed.replay();
+        assertLogins(replayed, "foo", "baz");
+        assertTrue(Files.exists(snapshotFile));
+        assertFalse(Files.exists(journalFile));
+    }
+
+    @Test
+    public void testReplaySkipsTornRecord() throws Exception {
+        UserJournal journal = new UserJournal(snapshotFile, journalFile);
+        journal.replay();
+        journal.add(createUser("foo"));
+        Files.write(journalFile, "+123:ba".getBytes(Charset.forName("UTF-8")), StandardOpenOption.APPEND);
+
+        UserJournal replayed = new UserJournal(snapshotFile, journalFile);
+        replayed.replay();
+        assertLogins(replayed, "foo");
+    }
+
+    @Test
+    public void testReplaySkipsRecordTornInEmail() throws Exception {
+        UserJournal journal = new UserJournal(snapshotFile, journalFile);
+        journal.replay();
+        journal.add(createUser("foo"));
+        String line = createUser("bar").toSingleLine();
+        appendJournal("+" + line.substring(0, line.length() - 3));
+
+        UserJournal replayed = new UserJournal(snapshotFile, journalFile);
+        replayed.replay();
+        assertLogins(replayed, "foo");
+    }
+
+    @Test
+    public void testReplaySkipsTornDelete() throws Exception {
+        UserJournal journal = new UserJournal(snapshotFile, journalFile);
+        journal.replay();
+        journal.add(createUser("fo"));
+        journal.add(createUser("foo"));
+        appendJournal("-fo");
+
+        UserJournal replayed = new UserJournal(snapshotFile, journalFile);
+        replayed.replay();
+        assertLogins(replayed, "fo", "foo");
+    }
+
+    @Test
+    public void testAppendAfterOnlyTornRecord() throws Exception {
+        String line = createUser("foo").toSingleLine();
+        appendJournal("+" + line.substring(0, line.length() - 3));
+
+        UserJournal journal = new UserJournal(snapshotFile, journalFile);
+        journal.replay();
+        assertLogins(journal);
+        // Torn record is cut off, not continued by the next record
+        assertEquals(0, Files.size(journalFile));
+        journal.add(createUser("bar"));
+
+        UserJournal replayed = new UserJournal(snapshotFile, journalFile);
+        replayed.replay();
+        assertLogins(replayed, "bar");
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        UserJournal journal = new UserJournal(snapshotFile, journalFile);
+        journal.replay();
+        for (int i = 0; i <= UserJournal.MIN_COMPACTION_RECORDS; i++) {
+            journal.add(createUser("user" + (i % 10)));
+        }
+        // Compacted to the ten distinct users
+        assertEquals(10, Files.readAllLines(snapshotFile, Charset.forName("UTF-8")).size());
+        assertEquals(0, Files.size(journalFile));
+
+        journal.delete(createUser("user0"));
+        journal.close();
+        assertEquals(9, Files.readAllLines(snapshotFile, Charset.forName("UTF-8")).size());
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        final UserJournal journal = new UserJournal(snapshotFile, journalFile);
+        journal.replay();
+        final int threads = 8;
+        final int usersPerThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 0; i < usersPerThread; i++) {
+                        journal.add(createUser("user" + thread + "-" + i));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        UserJournal replayed = new UserJournal(snapshotFile, journalFile);
+        replayed.replay();
+        assertEquals(threads * usersPerThread, replayed.getUsers().size());
+    }
+
+    private void appendJournal(String content) throws IOException {
+        Files.write(journalFile, content.getBytes(Charset.forName("UTF-8")),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void assertLogins(UserJournal journal, String... logins) {
+        List<String> actual = new ArrayList<>();
+        for (String line : journal.getUsers()) {
+            actual.add(new UserImpl(line, null).getLogin());
+        }
+        List<String> expected = new ArrayList<>();
+        Collections.addAll(expected, logins);
+        assertEquals(expected, actual);
+    }
+
+    private static GreenMailUser createUser(String login) {
+        return new UserImpl(login + "@localhost", login, "secret", null);
+    }
+}
@@ -0,0 +1,195 @@
+package com.icegreen.greenmail.mail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ContentBufferTest {
+
+	@Test
+	public void testReadDotTerminated() throws IOException {
+		assertDotTerminated("Subject: test\r\n\r\nbody\r\n", "Subject: test\r\n\r\nbody\r\n.\r\n");
+		assertDotTerminated("", ".\r\n");
+		assertDotTerminated("a\nb\n", "a\nb\n.\n");
+	}
+
+	@Test
+	public void testReadDotTerminatedUnstuffs() throws IOException {
+		assertDotTerminated(".\r\n..\r\n.a\r\nb.\r\n", "..\r\n...\r\n..a\r\nb.\r\n.\r\n");
+		assertDotTerminated("\rx\r\n", ".\rx\r\n.\r\n");
+	}
+
+	@Test
+	public void testReadDotTerminatedLeavesFollowingInput() throws IOException {
+		for (InputStream in : streams("body\r\n.\r\nQUIT\r\n")) {
+			ContentBuffer buffer = ContentBuffer.acquire();
+			buffer.readDotTerminated(in);
+			assertEquals("body\r\n", content(buffer));
+			assertEquals("QUIT\r\n", remaining(in));
+			buffer.release();
+		}
+	}
+
+	@Test
+	public void testReadDotTerminatedAcrossReads() throws IOException {
+		// Terminator and dot stuffing spanning the internal read size
+		char[] filler = new char[8 * 1024 - 3];
+		Arrays.fill(filler, 'x');
+		String content = new String(filler) + "\r\n..\r\n.\r\nNOOP";
+		for (InputStream in : streams(content)) {
+			ContentBuffer buffer = ContentBuffer.acquire();
+			buffer.readDotTerminated(in);
+			assertEquals(new String(filler) + "\r\n.\r\n", content(buffer));
+			assertEquals("NOOP", remaining(in));
+			buffer.release();
+		}
+	}
+
+	@Test
+	public void testReadDotTerminatedWithLimit() throws IOException {
+		for (InputStream in : streams("0123456789\r\n.\r\nQUIT\r\n")) {
+			ContentBuffer buffer = ContentBuffer.acquire();
+			buffer.write('H');
+			assertFalse(buffer.readDotTerminated(in, 5));
+			assertEquals("H", content(buffer));
+			assertEquals("QUIT\r\n", remaining(in));
+			buffer.release();
+		}
+		for (InputStream in : streams("0123456789\r\n.\r\n")) {
+			ContentBuffer buffer = ContentBuffer.acquire();
+			assertTrue(buffer.readDotTerminated(in, 12));
+			assertEquals("0123456789\r\n", content(buffer));
+			buffer.release();
+		}
+	}
+
+	@Test
+	public void testReadDotTerminatedSpooled() throws IOException {
+		char[] filler = new char[20 * 1024];
+		Arrays.fill(filler, 'x');
+		String content = new String(filler) + "\r\n..\r\n";
+		for (InputStream in : streams(content + ".\r\nQUIT\r\n")) {
+			ContentBuffer buffer = ContentBuffer.acquire();
+			ByteArrayOutputStream spool = new ByteArrayOutputStream();
+			buffer.spoolTo(spool, 1024);
+			assertTrue(buffer.readDotTerminated(in, -1));
+			assertTrue(buffer.isSpooled());
+			buffer.flushSpool();
+			assertEquals(new String(filler) + "\r\n.\r\n", new String(spool.toByteArray(), StandardCharsets.ISO_8859_1));
+			assertEquals("QUIT\r\n", remaining(in));
+			buffer.release();
+		}
+	}
+
+	@Test
+	public void testReadFullySpooled() throws IOException {
+		InputStream in = stream("0123456789");
+		ContentBuffer buffer = ContentBuffer.acquire();
+		ByteArrayOutputStream spool = new ByteArrayOutputStream();
+		buffer.spoolTo(spool, 0);
+		buffer.readFully(in, 6);
+		assertEquals(6, buffer.totalSize());
+		buffer.flushSpool();
+		assertEquals("012345", new String(spool.toByteArray(), StandardCharsets.ISO_8859_1));
+		assertEquals("6789", remaining(in));
+		buffer.release();
+	}
+
+	@Test(expected = EOFException.class)
+	public void testReadDotTerminatedWithoutTerminator() throws IOException {
+		ContentBuffer.acquire().readDotTerminated(new BufferedInputStream(stream("body\r\n")));
+	}
+
+	@Test
+	public void testReadFully() throws IOException {
+		InputStream in = stream("0123456789");
+		ContentBuffer buffer = ContentBuffer.acquire();
+		buffer.readFully(in, 4);
+		buffer.readFully(in, 2);
+		assertEquals("012345", content(buffer));
+		assertEquals("6789", remaining(in));
+		buffer.release();
+	}
+
+	@Test
+	public void testPoolDropsGrownBuffers() throws IOException {
+		ContentBuffer.drainPool();
+		ContentBuffer small = ContentBuffer.acquire();
+		ContentBuffer large = ContentBuffer.acquire();
+		small.readFully(stream("0123456789"), 10);
+		large.readFully(new ByteArrayInputStream(new byte[ContentBuffer.MAX_POOLED_SIZE + 1]),
+				ContentBuffer.MAX_POOLED_SIZE + 1);
+		small.release();
+		large.release();
+		long pooled = ContentBuffer.getPooledBytes();
+		assertTrue(pooled > 0 && pooled <= ContentBuffer.MAX_POOLED_SIZE);
+
+		ContentBuffer.drainPool();
+		assertEquals(0, ContentBuffer.getPooledBytes());
+	}
+
+	private static void assertDotTerminated(String expected, String input) throws IOException {
+		for (InputStream in : streams(input)) {
+			ContentBuffer buffer = ContentBuffer.acquire();
+			buffer.readDotTerminated(in);
+			assertEquals(expected, content(buffer));
+			buffer.release();
+		}
+	}
+
+	/**
+	 * Creates streams with and without mark support.
+	 */
+	private static InputStream[] streams(String content) {
+		return new InputStream[]{
+				new BufferedInputStream(stream(content)),
+				new NoMarkInputStream(stream(content))
+		};
+	}
+
+	private static InputStream stream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	private static String content(ContentBuffer buffer) {
+		return new String(buffer.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	private static String remaining(InputStream in) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0) {
+			bos.write(b);
+		}
+		return new String(bos.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	private static class NoMarkInputStream extends InputStream {
+		private final InputStream in;
+
+		NoMarkInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return in.read();
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
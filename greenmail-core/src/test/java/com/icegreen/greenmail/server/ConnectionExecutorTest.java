@@ -0,0 +1,121 @@
+package com.icegreen.greenmail.server;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.mail.Message;
+
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.internal.GreenMailRuleWithStoreChooser;
+import com.icegreen.greenmail.internal.StoreChooser;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.Retriever;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ConnectionExecutorTest {
+    @Rule
+    public final GreenMailRuleWithStoreChooser greenMail = new GreenMailRuleWithStoreChooser(
+            new ServerSetup[]{ServerSetupTest.SMTP, ServerSetupTest.IMAP},
+            GreenMailConfiguration.aConfig().withConnectionExecutor(ConnectionExecutors.VIRTUAL));
+
+    @Test
+    @StoreChooser(store="file,memory")
+    public void testSendAndRetrieveWithVirtualThreads() throws Exception {
+        // Falls back to platform threads on JDKs without virtual threads
+        final String to = "test@localhost";
+        GreenMailUtil.sendTextEmail(to, "from@localhost", "subject", "body", greenMail.getSmtp().getServerSetup());
+        greenMail.waitForIncomingEmail(5000, 1);
+
+        try (Retriever retriever = new Retriever(greenMail.getImap())) {
+            Message[] messages = retriever.getMessages(to);
+            assertEquals(1, messages.length);
+            assertEquals("subject", messages[0].getSubject());
+        }
+    }
+
+    @Test
+    public void testCreate() throws InterruptedException {
+        assertThat(ConnectionExecutors.create(null, "test", 1), instanceOf(PlatformThreadConnectionExecutor.class));
+        assertThat(ConnectionExecutors.create(ConnectionExecutors.PLATFORM, "test", -1),
+                instanceOf(PlatformThreadConnectionExecutor.class));
+        if (VirtualThreadConnectionExecutor.isSupported()) {
+            assertThat(ConnectionExecutors.create(ConnectionExecutors.VIRTUAL, "test", -1),
+                    instanceOf(VirtualThreadConnectionExecutor.class));
+        }
+
+        ConnectionExecutor executor = ConnectionExecutors.create(PlatformThreadConnectionExecutor.class.getName(), "test", 2);
+        assertThat(executor, instanceOf(PlatformThreadConnectionExecutor.class));
+        final CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testVirtualThreadsDoNotLimitConnections() throws Exception {
+        assumeTrue(VirtualThreadConnectionExecutor.isSupported());
+        assertConnectionsNotLimited(ConnectionExecutors.VIRTUAL);
+    }
+
+    @Test
+    public void testUnboundedExecutorDoesNotLimitConnections() throws Exception {
+        assertConnectionsNotLimited(UnboundedConnectionExecutor.class.getName());
+    }
+
+    /**
+     * Checks that the worker threads do not limit blocking connections, for an executor not pooling threads.
+     */
+    private static void assertConnectionsNotLimited(String connectionExecutor) throws Exception {
+        ServerSetup setup = ServerSetupTest.POP3.createCopy();
+        setup.setWorkerThreads(1);
+        setup.setConnectionExecutor(connectionExecutor);
+        GreenMail server = new GreenMail(setup);
+        server.start();
+        try (Socket first = new Socket(setup.getBindAddress(), setup.getPort());
+             Socket second = new Socket(setup.getBindAddress(), setup.getPort())) {
+            assertTrue(reader(first).readLine().startsWith("+OK "));
+            assertTrue(reader(second).readLine().startsWith("+OK "));
+            assertEquals(2, server.getPop3().getActiveConnections());
+            assertEquals(0L, server.getPop3().getRejectedConnections());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static BufferedReader reader(Socket socket) throws Exception {
+        socket.setSoTimeout(5000);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Custom executor starting a thread per task, ignoring the number of threads like virtual threads.
+     */
+    public static class UnboundedConnectionExecutor extends PlatformThreadConnectionExecutor {
+        public UnboundedConnectionExecutor(String name, int threads) {
+            super(name, -1);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateInvalidType() {
+        ConnectionExecutors.create(String.class.getName(), "test", 1);
+    }
+}
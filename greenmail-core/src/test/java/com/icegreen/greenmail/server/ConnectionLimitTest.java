@@ -0,0 +1,80 @@
+package com.icegreen.greenmail.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import com.icegreen.greenmail.internal.GreenMailRuleWithStoreChooser;
+import com.icegreen.greenmail.internal.StoreChooser;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ConnectionLimitTest {
+    @Rule
+    public final GreenMailRuleWithStoreChooser greenMail = new GreenMailRuleWithStoreChooser(new ServerSetup[]{
+            limited(ServerSetupTest.SMTP),
+            limited(ServerSetupTest.IMAP),
+            limitedWorkers(ServerSetupTest.POP3)
+    });
+
+    @Test
+    @StoreChooser(store="file,memory")
+    public void testSmtpRejectsExceedingConnection() throws Exception {
+        assertRejected(greenMail.getSmtp(), "421 ");
+    }
+
+    @Test
+    @StoreChooser(store="file,memory")
+    public void testImapRejectsExceedingConnection() throws Exception {
+        assertRejected(greenMail.getImap(), "* BYE ");
+    }
+
+    @Test
+    @StoreChooser(store="memory")
+    public void testPop3RejectsConnectionExceedingWorkerThreads() throws Exception {
+        assertRejected(greenMail.getPop3(), "-ERR ");
+    }
+
+    private void assertRejected(AbstractServer server, String expectedResponse) throws Exception {
+        try (Socket first = new Socket(server.getBindTo(), server.getPort())) {
+            BufferedReader firstReader = reader(first);
+            assertTrue(firstReader.readLine().length() > 0); // Greeting
+
+            try (Socket second = new Socket(server.getBindTo(), server.getPort())) {
+                BufferedReader secondReader = reader(second);
+                String response = secondReader.readLine();
+                assertTrue(response, response.startsWith(expectedResponse));
+                assertNull(secondReader.readLine()); // Closed by server
+            }
+
+            assertEquals(1, server.getActiveConnections());
+            assertEquals(1L, server.getRejectedConnections());
+            assertEquals(0, server.getQueuedConnections());
+        }
+    }
+
+    private static BufferedReader reader(Socket socket) throws Exception {
+        socket.setSoTimeout(5000);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+    }
+
+    private static ServerSetup limited(ServerSetup setup) {
+        ServerSetup copy = setup.createCopy();
+        copy.setMaxConnections(1);
+        copy.setAcceptBacklog(10);
+        return copy;
+    }
+
+    private static ServerSetup limitedWorkers(ServerSetup setup) {
+        ServerSetup copy = setup.createCopy();
+        copy.setWorkerThreads(1);
+        return copy;
+    }
+}
@@ -0,0 +1,47 @@
+package com.icegreen.greenmail.server;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.mail.Message;
+
+import com.icegreen.greenmail.internal.GreenMailRuleWithStoreChooser;
+import com.icegreen.greenmail.internal.StoreChooser;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.Retriever;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MultiAcceptorTest {
+    @Rule
+    public final GreenMailRuleWithStoreChooser greenMail = new GreenMailRuleWithStoreChooser(new ServerSetup[]{
+            acceptors(ServerSetupTest.SMTP, 4, true, true),
+            acceptors(ServerSetupTest.IMAP, 2, false, false)
+    });
+
+    @Test
+    @StoreChooser(store="file,memory")
+    public void testSendAndRetrieve() throws Exception {
+        final String to = "test@localhost";
+        final int count = 20;
+        for (int i = 0; i < count; i++) {
+            GreenMailUtil.sendTextEmail(to, "from@localhost", "subject" + i, "body" + i, greenMail.getSmtp().getServerSetup());
+        }
+        greenMail.waitForIncomingEmail(5000, count);
+
+        try (Retriever retriever = new Retriever(greenMail.getImap())) {
+            Message[] messages = retriever.getMessages(to);
+            assertEquals(count, messages.length);
+        }
+    }
+
+    private static ServerSetup acceptors(ServerSetup setup, int acceptorThreads, boolean nonBlockingIo,
+                                         boolean reusePort) {
+        ServerSetup copy = setup.createCopy();
+        copy.setAcceptorThreads(acceptorThreads);
+        copy.setNonBlockingIo(nonBlockingIo);
+        copy.setReusePort(reusePort);
+        return copy;
+    }
+}
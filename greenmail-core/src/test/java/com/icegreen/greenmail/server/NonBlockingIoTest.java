@@ -0,0 +1,50 @@
+package com.icegreen.greenmail.server;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.mail.Message;
+
+import com.icegreen.greenmail.internal.GreenMailRuleWithStoreChooser;
+import com.icegreen.greenmail.internal.StoreChooser;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.Retriever;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class NonBlockingIoTest {
+    @Rule
+    public final GreenMailRuleWithStoreChooser greenMail = new GreenMailRuleWithStoreChooser(new ServerSetup[]{
+            nonBlocking(ServerSetupTest.SMTP),
+            nonBlocking(ServerSetupTest.POP3),
+            nonBlocking(ServerSetupTest.IMAP)
+    });
+
+    @Test
+    @StoreChooser(store="file,memory")
+    public void testSendAndRetrieve() throws Exception {
+        final String to = "test@localhost";
+        for (int i = 0; i < 5; i++) {
+            GreenMailUtil.sendTextEmail(to, "from@localhost", "subject" + i, "body" + i, greenMail.getSmtp().getServerSetup());
+        }
+        greenMail.waitForIncomingEmail(5000, 5);
+
+        try (Retriever retriever = new Retriever(greenMail.getImap())) {
+            Message[] messages = retriever.getMessages(to);
+            assertEquals(5, messages.length);
+            assertEquals("subject0", messages[0].getSubject());
+        }
+        try (Retriever retriever = new Retriever(greenMail.getPop3())) {
+            Message[] messages = retriever.getMessages(to);
+            assertEquals(5, messages.length);
+            assertEquals("body4", GreenMailUtil.getBody(messages[4]).trim());
+        }
+    }
+
+    private static ServerSetup nonBlocking(ServerSetup setup) {
+        ServerSetup copy = setup.createCopy();
+        copy.setNonBlockingIo(true);
+        return copy;
+    }
+}
@@ -0,0 +1,127 @@
+package com.icegreen.greenmail.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.icegreen.greenmail.Managers;
+import com.icegreen.greenmail.smtp.SmtpServer;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SelectorLoopTest {
+    private Managers managers;
+    private ExecutorService workers;
+    private SelectorLoop loop;
+    private ServerSocketChannel serverChannel;
+
+    @Before
+    public void startLoop() throws IOException {
+        managers = new Managers();
+        workers = Executors.newFixedThreadPool(1);
+        loop = new SelectorLoop("test-io", workers);
+        loop.start();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void stopLoop() throws IOException {
+        loop.stop();
+        workers.shutdownNow();
+        serverChannel.close();
+        managers.getSmtpManager().stop();
+    }
+
+    @Test
+    public void testCloseIdleConnectionAfterReadTimeout() throws Exception {
+        AbstractServer server = new SmtpServer(ServerSetupTest.SMTP, managers);
+        try (Socket client = connect(); Socket idleClient = connect()) {
+            // Idle timeout is the read timeout of the protocol
+            ClosingHandler handler = park(server, 200);
+            ClosingHandler idleHandler = park(server, 0);
+
+            assertEquals(-1, client.getInputStream().read()); // Closed by loop
+            assertTrue(handler.closed.await(5, TimeUnit.SECONDS));
+            // No read timeout, no idle timeout
+            idleClient.setSoTimeout(500);
+            try {
+                idleClient.getInputStream().read();
+            } catch (SocketTimeoutException expected) {
+                // Still open
+            }
+            assertFalse(idleHandler.channel.socket().isClosed());
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket client = new Socket(InetAddress.getLoopbackAddress(), serverChannel.socket().getLocalPort());
+        client.setSoTimeout(5000);
+        return client;
+    }
+
+    private ClosingHandler park(AbstractServer server, int soTimeout) throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        channel.socket().setSoTimeout(soTimeout);
+        ClosingHandler handler = new ClosingHandler(channel);
+        new SelectorConnection(server, handler, channel, loop).run(); // Opens, then parks
+        return handler;
+    }
+
+    /**
+     * Handler without requests, only closing the channel.
+     */
+    private static class ClosingHandler implements SelectableProtocolHandler {
+        private final SocketChannel channel;
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        ClosingHandler(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void open() {
+            // Nothing to send
+        }
+
+        @Override
+        public boolean handleRequest() {
+            return true;
+        }
+
+        @Override
+        public boolean isInputPending() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                closed.countDown();
+            }
+        }
+
+        @Override
+        public void run() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
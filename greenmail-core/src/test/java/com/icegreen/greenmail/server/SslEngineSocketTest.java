@@ -0,0 +1,222 @@
+package com.icegreen.greenmail.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import com.icegreen.greenmail.util.DummySSLServerSocketFactory;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Secure connections served by non-blocking IO, using a generated RSA key instead of the bundled DSA key.
+ */
+public class SslEngineSocketTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File keyStoreFile;
+    private KeyStore keyStore;
+    private GreenMail greenMail;
+
+    @Before
+    public void generateKeyStore() throws Exception {
+        keyStoreFile = new File(folder.getRoot(), DummySSLServerSocketFactory.GREENMAIL_JKS);
+        keyStore = TestKeyStore.generate(keyStoreFile);
+    }
+
+    private void startGreenMail(ServerSetup... setups) {
+        final File keyStoreFile = new File(folder.getRoot(), DummySSLServerSocketFactory.GREENMAIL_JKS);
+
+        // Servers load the keystore from the context class loader inherited by the server threads
+        Thread thread = Thread.currentThread();
+        ClassLoader original = thread.getContextClassLoader();
+        thread.setContextClassLoader(new ClassLoader(original) {
+            @Override
+            public InputStream getResourceAsStream(String name) {
+                if (DummySSLServerSocketFactory.GREENMAIL_JKS.equals(name)) {
+                    try {
+                        return new FileInputStream(keyStoreFile);
+                    } catch (FileNotFoundException e) {
+                        return null;
+                    }
+                }
+                return super.getResourceAsStream(name);
+            }
+        });
+        try {
+            greenMail = new GreenMail(setups);
+            greenMail.start();
+        } finally {
+            thread.setContextClassLoader(original);
+        }
+    }
+
+    @After
+    public void stopGreenMail() {
+        if (null != greenMail) {
+            greenMail.stop();
+        }
+    }
+
+    @Test
+    public void testSmtpsRoundTrip() throws Exception {
+        startGreenMail(nonBlocking(ServerSetupTest.SMTPS));
+        SSLContext context = createClientContext();
+        for (int i = 0; i < 2; i++) {
+            try (SSLSocket socket = connect(context, greenMail.getSmtps(), "TLSv1.3", "TLSv1.2")) {
+                BufferedReader reader = reader(socket);
+                assertResponse(reader, "220 ");
+                send(socket, "EHLO localhost");
+                assertResponse(reader, "250 ");
+                send(socket, "QUIT");
+                assertResponse(reader, "221 ");
+                assertEquals(-1, reader.read()); // Closed by server
+            }
+        }
+        assertHandshakes(greenMail.getSmtps());
+    }
+
+    @Test
+    public void testImapsRoundTripWithTls12() throws Exception {
+        startGreenMail(nonBlocking(ServerSetupTest.IMAPS));
+        SSLContext context = createClientContext();
+        for (int i = 0; i < 2; i++) {
+            try (SSLSocket socket = connect(context, greenMail.getImaps(), "TLSv1.2")) {
+                BufferedReader reader = reader(socket);
+                assertResponse(reader, "* OK");
+                send(socket, "a1 CAPABILITY");
+                assertResponse(reader, "a1 OK");
+                send(socket, "a2 LOGOUT");
+                assertResponse(reader, "a2 OK");
+                assertEquals(-1, reader.read()); // Closed by server
+            }
+        }
+        assertHandshakes(greenMail.getImaps());
+    }
+
+    @Test
+    public void testSilentClientDoesNotBlockWorker() throws Exception {
+        ServerSetup setup = nonBlocking(ServerSetupTest.SMTPS);
+        setup.setWorkerThreads(1);
+        startGreenMail(setup);
+
+        // Connects without ever sending a ClientHello
+        try (Socket silent = new Socket(greenMail.getSmtps().getBindTo(), greenMail.getSmtps().getPort())) {
+            assertTrue(silent.isConnected());
+            assertSmtpsRoundTrip(createClientContext());
+            assertEquals(0, greenMail.getSmtps().getTlsHandshakeStatistics().getFailedHandshakes());
+        }
+    }
+
+    @Test
+    public void testStalledHandshakeTimesOut() throws Exception {
+        ServerSetup setup = nonBlocking(ServerSetupTest.SMTPS);
+        setup.setWorkerThreads(1);
+        setup.setTlsHandshakeTimeout(500);
+        startGreenMail(setup);
+
+        try (Socket stalled = new Socket(greenMail.getSmtps().getBindTo(), greenMail.getSmtps().getPort())) {
+            stalled.setSoTimeout(5000);
+            // Incomplete TLS record header, so the worker waits for the rest of the ClientHello
+            stalled.getOutputStream().write(new byte[]{0x16, 0x03, 0x01});
+            stalled.getOutputStream().flush();
+            assertEquals(-1, stalled.getInputStream().read()); // Closed by server after handshake timeout
+        }
+        assertEquals(1, greenMail.getSmtps().getTlsHandshakeStatistics().getFailedHandshakes());
+        assertSmtpsRoundTrip(createClientContext());
+    }
+
+    @Test
+    public void testCloseSilentClientAfterHandshakeTimeout() throws Exception {
+        ServerSetup setup = nonBlocking(ServerSetupTest.SMTPS);
+        setup.setTlsHandshakeTimeout(500);
+        startGreenMail(setup);
+
+        try (Socket silent = new Socket(greenMail.getSmtps().getBindTo(), greenMail.getSmtps().getPort())) {
+            silent.setSoTimeout(5000);
+            assertEquals(-1, silent.getInputStream().read()); // Closed by selector loop, never handshaking
+        }
+        assertEquals(0, greenMail.getSmtps().getTlsHandshakeStatistics().getHandshakes());
+    }
+
+    private void assertSmtpsRoundTrip(SSLContext context) throws Exception {
+        try (SSLSocket socket = connect(context, greenMail.getSmtps(), "TLSv1.3", "TLSv1.2")) {
+            BufferedReader reader = reader(socket);
+            assertResponse(reader, "220 ");
+            send(socket, "QUIT");
+            assertResponse(reader, "221 ");
+        }
+    }
+
+    /**
+     * Checks the handshakes of two connections by the same client, the second resuming the session.
+     */
+    private static void assertHandshakes(AbstractServer server) {
+        TlsHandshakeStatistics statistics = server.getTlsHandshakeStatistics();
+        assertEquals(2, statistics.getHandshakes());
+        assertEquals(1, statistics.getResumedHandshakes());
+        assertEquals(0, statistics.getFailedHandshakes());
+    }
+
+    private SSLContext createClientContext() throws Exception {
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    private static SSLSocket connect(SSLContext context, AbstractServer server, String... protocols) throws Exception {
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(server.getBindTo(), server.getPort());
+        socket.setEnabledProtocols(protocols);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static BufferedReader reader(SSLSocket socket) throws Exception {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+    }
+
+    private static void send(SSLSocket socket, String line) throws Exception {
+        OutputStream out = socket.getOutputStream();
+        out.write((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    /**
+     * Reads response lines up to the line with the given prefix.
+     */
+    private static void assertResponse(BufferedReader reader, String prefix) throws Exception {
+        String line;
+        do {
+            line = reader.readLine();
+            assertTrue("Expected " + prefix + " response", null != line);
+        } while (!line.startsWith(prefix));
+    }
+
+    private static ServerSetup nonBlocking(ServerSetup setup) {
+        ServerSetup copy = setup.createCopy();
+        copy.setNonBlockingIo(true);
+        return copy;
+    }
+}
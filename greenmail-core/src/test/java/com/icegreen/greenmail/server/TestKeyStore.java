@@ -0,0 +1,48 @@
+package com.icegreen.greenmail.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+
+/**
+ * Generates a keystore with a self signed RSA key, usable by TLS 1.2 and 1.3 on current JDKs.
+ */
+final class TestKeyStore {
+    static final char[] PASSWORD = "changeit".toCharArray();
+
+    private TestKeyStore() {
+        // Static only
+    }
+
+    /**
+     * Generates a PKCS12 keystore using the keytool of the running JDK, skipping the test if not available.
+     *
+     * @param file the keystore file to create.
+     * @return the loaded keystore.
+     */
+    static KeyStore generate(File file) throws Exception {
+        File keytool = new File(System.getProperty("java.home"), "bin" + File.separator + "keytool");
+        assumeTrue(keytool.exists() || new File(keytool.getPath() + ".exe").exists());
+        Process process = new ProcessBuilder(keytool.getPath(), "-genkeypair", "-alias", "test",
+                "-keyalg", "RSA", "-keysize", "2048", "-dname", "CN=localhost", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", file.getPath(),
+                "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true).start();
+        try (InputStream output = process.getInputStream()) {
+            while (output.read() >= 0) {
+                // Drain output, so keytool does not block
+            }
+        }
+        assertEquals(0, process.waitFor());
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(file)) {
+            keyStore.load(in, PASSWORD);
+        }
+        return keyStore;
+    }
+}
@@ -0,0 +1,237 @@
+package com.icegreen.greenmail.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TlsHandshakeStatisticsTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private KeyStore keyStore;
+
+    @Before
+    public void generateKeyStore() throws Exception {
+        keyStore = TestKeyStore.generate(new File(folder.getRoot(), "test.p12"));
+    }
+
+    @Test
+    public void testResumedTls12Handshakes() throws Exception {
+        testResumedHandshakes("TLSv1.2");
+    }
+
+    @Test
+    public void testResumedTls13Handshakes() throws Exception {
+        assumeTrue(isSupported("TLSv1.3"));
+        testResumedHandshakes("TLSv1.3");
+    }
+
+    @Test
+    public void testConcurrentFullTls13Handshakes() throws Exception {
+        assumeTrue(isSupported("TLSv1.3"));
+        final SSLContext serverContext = createContext("TLSv1.3");
+        final TlsHandshakeStatistics statistics = new TlsHandshakeStatistics();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // Sessions of concurrent handshakes often have the same creation time, as it has millisecond resolution
+            boolean sameCreationTime = false;
+            for (int i = 0; i < 200 && !sameCreationTime; i++) {
+                final CyclicBarrier barrier = new CyclicBarrier(2);
+                List<Future<SSLSession>> sessions = new ArrayList<>();
+                for (int t = 0; t < 2; t++) {
+                    final SSLContext clientContext = createContext("TLSv1.3");
+                    sessions.add(executor.submit(new Callable<SSLSession>() {
+                        @Override
+                        public SSLSession call() throws Exception {
+                            Handshake handshake = new Handshake(clientContext, serverContext, "TLSv1.3", statistics);
+                            barrier.await(5, TimeUnit.SECONDS);
+                            for (int step = 0; step < 100 && !handshake.isDone(); step++) {
+                                handshake.step();
+                            }
+                            SSLSession session = handshake.finish();
+                            statistics.handshakeCompleted(0L, handshake.isResumed());
+                            return session;
+                        }
+                    }));
+                }
+                sameCreationTime = sessions.get(0).get(5, TimeUnit.SECONDS).getCreationTime()
+                        == sessions.get(1).get(5, TimeUnit.SECONDS).getCreationTime();
+            }
+            assertEquals(0, statistics.getResumedHandshakes());
+            assumeTrue("No concurrent handshakes within the same millisecond", sameCreationTime);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean isSupported(String protocol) throws Exception {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, null, null);
+        for (String supported : context.getSupportedSSLParameters().getProtocols()) {
+            if (protocol.equals(supported)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void testResumedHandshakes(String protocol) throws Exception {
+        SSLContext serverContext = createContext(protocol);
+        SSLContext clientContext = createContext(protocol);
+        TlsHandshakeStatistics statistics = new TlsHandshakeStatistics();
+
+        assertFalse(handshake(clientContext, serverContext, protocol, statistics, 30));
+        assertTrue(handshake(clientContext, serverContext, protocol, statistics, 10));
+        assertTrue(handshake(clientContext, serverContext, protocol, statistics, 5));
+        // Another client without cached session requires a full handshake
+        assertFalse(handshake(createContext(protocol), serverContext, protocol, statistics, 15));
+        statistics.handshakeFailed();
+
+        assertEquals(4, statistics.getHandshakes());
+        assertEquals(2, statistics.getResumedHandshakes());
+        assertEquals(1, statistics.getFailedHandshakes());
+        assertEquals(60, statistics.getTotalHandshakeTimeMillis());
+        assertEquals(30, statistics.getMaxHandshakeTimeMillis());
+        assertEquals(15d, statistics.getAverageHandshakeTimeMillis(), 0.001d);
+    }
+
+    private SSLContext createContext(String protocol) throws Exception {
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, TestKeyStore.PASSWORD);
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext context = SSLContext.getInstance(protocol);
+        context.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    /**
+     * Performs a handshake between two engines in memory, recording it with the given duration.
+     *
+     * @return true, if the handshake resumed a session.
+     */
+    private static boolean handshake(SSLContext clientContext, SSLContext serverContext, String protocol,
+                                     TlsHandshakeStatistics statistics, long durationMillis) throws Exception {
+        Handshake handshake = new Handshake(clientContext, serverContext, protocol, statistics);
+        for (int i = 0; i < 100 && !handshake.isDone(); i++) {
+            handshake.step();
+        }
+        handshake.finish();
+        statistics.handshakeCompleted(TimeUnit.MILLISECONDS.toNanos(durationMillis), handshake.isResumed());
+        return handshake.isResumed();
+    }
+
+    /**
+     * Handshake between a client and a server engine in memory, marking the server session like SslEngineSocket.
+     */
+    private static class Handshake {
+        private final SSLEngine client;
+        private final SSLEngine server;
+        private final TlsHandshakeStatistics statistics;
+        private final ByteBuffer clientToServer;
+        private final ByteBuffer serverToClient;
+        private final ByteBuffer app;
+        private Boolean resumed;
+
+        Handshake(SSLContext clientContext, SSLContext serverContext, String protocol,
+                  TlsHandshakeStatistics statistics) throws Exception {
+            this.statistics = statistics;
+            client = clientContext.createSSLEngine("localhost", 3993);
+            client.setUseClientMode(true);
+            client.setEnabledProtocols(new String[]{protocol});
+            server = serverContext.createSSLEngine();
+            server.setUseClientMode(false);
+            server.setEnabledProtocols(new String[]{protocol});
+            clientToServer = ByteBuffer.allocate(client.getSession().getPacketBufferSize() * 4);
+            serverToClient = ByteBuffer.allocate(server.getSession().getPacketBufferSize() * 4);
+            app = ByteBuffer.allocate(client.getSession().getApplicationBufferSize() * 4);
+            client.beginHandshake();
+            server.beginHandshake();
+        }
+
+        boolean isDone() {
+            return isDone(client) && isDone(server);
+        }
+
+        boolean isResumed() {
+            return Boolean.TRUE.equals(resumed);
+        }
+
+        void step() throws Exception {
+            step(client, clientToServer, serverToClient, app);
+            step(server, serverToClient, clientToServer, app);
+            SSLSession handshakeSession = server.getHandshakeSession();
+            if (null == resumed && null != handshakeSession) {
+                resumed = statistics.sessionNegotiated(handshakeSession);
+            }
+        }
+
+        /**
+         * @return the session of the server engine.
+         */
+        SSLSession finish() throws Exception {
+            assertTrue(isDone());
+            // Exchange application data, which delivers TLS 1.3 session tickets to the client
+            server.wrap(ByteBuffer.wrap(new byte[]{'o', 'k'}), serverToClient);
+            exchange(client, serverToClient, app);
+            return server.getSession();
+        }
+
+        private static boolean isDone(SSLEngine engine) {
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            return status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                    || status == SSLEngineResult.HandshakeStatus.FINISHED;
+        }
+
+        private static void step(SSLEngine engine, ByteBuffer out, ByteBuffer in, ByteBuffer app) throws Exception {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    engine.wrap(ByteBuffer.allocate(0), out);
+                    break;
+                case NEED_UNWRAP:
+                    exchange(engine, in, app);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private static void exchange(SSLEngine engine, ByteBuffer in, ByteBuffer app) throws Exception {
+            ((Buffer) in).flip();
+            engine.unwrap(in, app);
+            in.compact();
+            ((Buffer) app).clear();
+        }
+    }
+}
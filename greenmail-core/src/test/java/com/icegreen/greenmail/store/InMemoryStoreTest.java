@@ -0,0 +1,119 @@
+package com.icegreen.greenmail.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Date;
+import javax.mail.Flags;
+
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import org.junit.Test;
+
+public class InMemoryStoreTest {
+    @Test
+    public void testGetMailboxByFullName() throws Exception {
+        InMemoryStore store = new InMemoryStore(new GreenMailConfiguration());
+        MailFolder root = store.getMailbox("#mail");
+        MailFolder user = store.createMailbox(root, "foo", false);
+        MailFolder inbox = store.createMailbox(user, "INBOX", true);
+        MailFolder sub = store.createMailbox(inbox, "Sub", true);
+
+        assertSame(sub, store.getMailbox("#mail.foo.INBOX.Sub"));
+        assertSame(sub, store.getMailbox("#MAIL.FOO.inbox.sub"));
+        // Non canonical names still resolve
+        assertSame(sub, store.getMailbox("#mail.foo..INBOX.Sub."));
+        assertNull(store.getMailbox("#mail.foo.INBOX.Other"));
+        assertNull(store.getMailbox("foo.INBOX"));
+    }
+
+    @Test
+    public void testRenameAndDeleteMailbox() throws Exception {
+        InMemoryStore store = new InMemoryStore(new GreenMailConfiguration());
+        MailFolder user = store.createMailbox(store.getMailbox("#mail"), "foo", false);
+        MailFolder inbox = store.createMailbox(user, "INBOX", true);
+        MailFolder parent = store.createMailbox(inbox, "a", true);
+        MailFolder child = store.createMailbox(parent, "b", true);
+
+        store.renameMailbox(parent, "INBOX.c");
+        assertNull(store.getMailbox("#mail.foo.INBOX.a"));
+        assertNull(store.getMailbox("#mail.foo.INBOX.a.b"));
+        assertSame(parent, store.getMailbox("#mail.foo.INBOX.c"));
+        assertSame(child, store.getMailbox("#mail.foo.INBOX.c.b"));
+
+        store.deleteMailbox(child);
+        assertNull(store.getMailbox("#mail.foo.INBOX.c.b"));
+        assertSame(parent, store.getMailbox("#mail.foo.INBOX.c"));
+    }
+
+    @Test
+    public void testRenameMailboxOntoExistingMailbox() throws Exception {
+        InMemoryStore store = new InMemoryStore(new GreenMailConfiguration());
+        MailFolder user = store.createMailbox(store.getMailbox("#mail"), "foo", false);
+        MailFolder inbox = store.createMailbox(user, "INBOX", true);
+        MailFolder a = store.createMailbox(inbox, "a", true);
+        MailFolder b = store.createMailbox(inbox, "b", true);
+        MailFolder x = store.createMailbox(inbox, "x", true);
+        MailFolder xa = store.createMailbox(x, "a", true);
+
+        for (String newName : new String[]{"INBOX.b", "INBOX.B", "INBOX.x.a"}) {
+            try {
+                store.renameMailbox(a, newName);
+                fail("Expected existing mailbox " + newName);
+            } catch (FolderException expected) {
+                // Target exists
+            }
+        }
+        assertSame(a, store.getMailbox("#mail.foo.INBOX.a"));
+        assertSame(b, store.getMailbox("#mail.foo.INBOX.b"));
+        assertSame(xa, store.getMailbox("#mail.foo.INBOX.x.a"));
+        assertSame(a, store.getMailbox(inbox, "a"));
+        assertSame(b, store.getMailbox(inbox, "b"));
+
+        try {
+            ((HierarchicalFolder) a).setName("b");
+            fail("Expected existing mailbox");
+        } catch (FolderException expected) {
+            // Sibling of the same name
+        }
+        assertSame(a, store.getMailbox(inbox, "a"));
+        assertSame(b, store.getMailbox(inbox, "b"));
+
+        // Moving keeps the folder under its new name only, even if the new parent has a child of the old name
+        store.renameMailbox(a, "INBOX.x.c");
+        assertNull(store.getMailbox(inbox, "a"));
+        assertSame(xa, store.getMailbox(x, "a"));
+        assertSame(a, store.getMailbox(x, "c"));
+        assertSame(a, store.getMailbox("#mail.foo.INBOX.x.c"));
+        // Changing the case only is no conflict
+        store.renameMailbox(b, "INBOX.B");
+        assertSame(b, store.getMailbox("#mail.foo.INBOX.B"));
+        assertEquals("B", b.getName());
+    }
+
+    @Test
+    public void testCopyMessageSharesRawContent() throws Exception {
+        InMemoryStore store = new InMemoryStore(new GreenMailConfiguration());
+        MailFolder user = store.createMailbox(store.getMailbox("#mail"), "foo", false);
+        MailFolder inbox = store.createMailbox(user, "INBOX", true);
+        MailFolder target = store.createMailbox(inbox, "target", true);
+        long uid = inbox.appendMessage(new SharedMimeMessage("Subject: copied\r\n\r\nbody\r\n".getBytes("US-ASCII")),
+                new Flags(Flags.Flag.SEEN), new Date());
+
+        long copyUid = inbox.copyMessage(uid, target);
+        StoredMessage original = inbox.getMessage(uid);
+        StoredMessage copy = target.getMessage(copyUid);
+        assertSame(original.getRawContent(), copy.getRawContent());
+        assertFalse(original.isParsed());
+        assertFalse(copy.isParsed());
+        assertEquals("copied", copy.getMimeMessage().getSubject());
+        assertTrue(copy.isSet(Flags.Flag.SEEN));
+
+        // Copies include modifications of the parsed message
+        original.getMimeMessage().setSubject("modified");
+        assertEquals("modified", target.getMessage(inbox.copyMessage(uid, target)).getMimeMessage().getSubject());
+    }
+}
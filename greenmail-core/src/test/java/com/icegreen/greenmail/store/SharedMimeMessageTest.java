@@ -0,0 +1,111 @@
+package com.icegreen.greenmail.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import javax.mail.Flags;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedFileInputStream;
+
+import com.icegreen.greenmail.util.GreenMailUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SharedMimeMessageTest {
+    private static final byte[] RAW = ("Subject: shared\r\n"
+            + "From: from@localhost\r\n"
+            + "\r\n"
+            + "body\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCopySharesRawContent() throws MessagingException, IOException {
+        SharedMimeMessage message = new SharedMimeMessage(RAW);
+        SharedMimeMessage copy = new SharedMimeMessage(message);
+        StoredMessage stored = new StoredMessage(copy, new java.util.Date(), 1L);
+
+        assertSame(message.getRawContent(), copy.getRawContent());
+        assertSame(message.getRawContent(), ((SharedMimeMessage) stored.getMimeMessage()).getRawContent());
+        assertEquals("shared", stored.getMimeMessage().getSubject());
+        assertEquals("body", GreenMailUtil.getBody(stored.getMimeMessage()).trim());
+    }
+
+    @Test
+    public void testCopyOfFileBackedMessage() throws MessagingException, IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), RAW);
+        SharedFileInputStream content = new SharedFileInputStream(file);
+        SharedMimeMessage message = new SharedMimeMessage(content);
+        StoredMessage stored = new StoredMessage(message, new java.util.Date(), 1L);
+        StoredMessage other = new StoredMessage(message, new java.util.Date(), 2L);
+        content.close();
+        assertTrue(file.delete());
+
+        // Copies outlive the file, sharing content copied once
+        SharedMimeMessage storedMessage = (SharedMimeMessage) stored.getMimeMessage();
+        assertNotSame(content, storedMessage.getRawContent());
+        assertSame(storedMessage.getRawContent(), ((SharedMimeMessage) other.getMimeMessage()).getRawContent());
+        assertEquals("shared", storedMessage.getSubject());
+        assertEquals("body", GreenMailUtil.getBody(storedMessage).trim());
+    }
+
+    @Test
+    public void testCopyHasOwnFlagsAndHeaders() throws MessagingException {
+        SharedMimeMessage message = new SharedMimeMessage(RAW);
+        message.setFlag(Flags.Flag.SEEN, true);
+        SharedMimeMessage copy = new SharedMimeMessage(message);
+        assertTrue(copy.isSet(Flags.Flag.SEEN));
+
+        copy.setFlag(Flags.Flag.DELETED, true);
+        copy.setSubject("changed");
+        assertFalse(message.isSet(Flags.Flag.DELETED));
+        assertEquals("shared", message.getSubject());
+    }
+
+    @Test
+    public void testCopyOfModifiedMessage() throws MessagingException {
+        SharedMimeMessage message = new SharedMimeMessage(RAW);
+        message.setSubject("changed");
+        SharedMimeMessage copy = new SharedMimeMessage(message);
+
+        assertNotSame(message.getRawContent(), copy.getRawContent());
+        assertEquals("changed", copy.getSubject());
+    }
+
+    @Test
+    public void testCopyToArena() throws MessagingException, IOException {
+        MessageArena arena = new MessageArena(RAW.length * 2);
+        SharedMimeMessage message = new SharedMimeMessage(RAW);
+        StoredMessage stored = new StoredMessage(message, new java.util.Date(), 1L, arena);
+        StoredMessage other = new StoredMessage(message, new java.util.Date(), 1L, arena);
+
+        SharedMimeMessage storedMessage = (SharedMimeMessage) stored.getMimeMessage();
+        assertTrue(storedMessage.getRawContent() instanceof SharedByteBufferInputStream);
+        // Copied into the arena once for all mailboxes
+        assertSame(storedMessage.getRawContent(), ((SharedMimeMessage) other.getMimeMessage()).getRawContent());
+        assertEquals("shared", storedMessage.getSubject());
+        assertEquals("body", GreenMailUtil.getBody(storedMessage).trim());
+        assertEquals(6, storedMessage.getSize());
+
+        // Spans segments, and content larger than a segment
+        SharedMimeMessage changed = new SharedMimeMessage(RAW);
+        changed.setText(new String(new char[RAW.length * 3]).replace('\0', 'x'));
+        for (MimeMessage source : Arrays.<MimeMessage>asList(changed, message, changed)) {
+            SharedMimeMessage copy = new SharedMimeMessage(source, arena);
+            assertTrue(copy.getRawContent() instanceof SharedByteBufferInputStream);
+            assertEquals(GreenMailUtil.getBody(source), GreenMailUtil.getBody(copy));
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.icegreen.greenmail.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.mail.Flags;
+import javax.mail.MessagingException;
+
+import org.junit.Test;
+
+public class StoredMessageCollectionTest {
+    private static final byte[] RAW = ("Subject: test\r\n"
+            + "From: from@localhost\r\n"
+            + "\r\n"
+            + "body\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void testListBasedLookupByUid() throws Exception {
+        StoredMessageCollection messages = new ListBasedStoredMessageCollection();
+        List<StoredMessage> added = addMessages(messages, 50000);
+
+        assertEquals(1, messages.getMsn(1));
+        assertEquals(25000, messages.getMsn(25000));
+        assertSame(added.get(49999), messages.getByUid(50000));
+        assertNull(messages.getByUid(50001));
+        assertNoSuchMessage(messages, 0);
+        assertEquals(50000, messages.getLastMessageUid());
+    }
+
+    @Test
+    public void testListBasedExpunge() throws Exception {
+        StoredMessageCollection messages = new ListBasedStoredMessageCollection();
+        List<StoredMessage> added = addMessages(messages, 10);
+        added.get(1).setFlag(Flags.Flag.DELETED, true);
+        added.get(4).setFlag(Flags.Flag.DELETED, true);
+        added.get(9).setFlag(Flags.Flag.DELETED, true);
+
+        ExpungeListener listener = new ExpungeListener();
+        messages.expunge(Collections.<FolderListener>singletonList(listener));
+
+        // Highest MSN first, so each MSN is valid when notified
+        assertEquals(Arrays.asList(10, 5, 2), listener.expunged);
+        assertArrayEquals(new long[]{1, 3, 4, 6, 7, 8, 9}, messages.getMessageUids());
+        assertEquals(4, messages.getMsn(6));
+        assertNoSuchMessage(messages, 5);
+        assertEquals(9, messages.getLastMessageUid());
+
+        addMessage(messages, 11);
+        assertEquals(8, messages.getMsn(11));
+    }
+
+    @Test
+    public void testListBasedCounters() throws Exception {
+        StoredMessageCollection messages = new ListBasedStoredMessageCollection();
+        List<StoredMessage> added = addMessages(messages, 5);
+        assertEquals(5, messages.getUnseenCount());
+        assertEquals(0, messages.getRecentCount());
+        assertEquals(1, messages.getFirstUnseen());
+
+        added.get(0).setFlag(Flags.Flag.SEEN, true);
+        added.get(1).setFlags(new Flags(Flags.Flag.SEEN), true);
+        // Flags changed directly via the mime message are counted as well
+        added.get(2).getMimeMessage().setFlag(Flags.Flag.RECENT, true);
+        assertEquals(3, messages.getUnseenCount());
+        assertEquals(1, messages.getRecentCount());
+        assertEquals(3, messages.getFirstUnseen());
+
+        added.get(0).setFlag(Flags.Flag.SEEN, false);
+        added.get(1).setFlag(Flags.Flag.DELETED, true);
+        assertEquals(1, messages.getFirstUnseen());
+        messages.expunge(Collections.<FolderListener>emptyList());
+        assertEquals(4, messages.size());
+        assertEquals(4, messages.getUnseenCount());
+
+        // Expunged messages no longer affect the counters
+        added.get(1).setFlag(Flags.Flag.SEEN, false);
+        assertEquals(4, messages.getUnseenCount());
+
+        for (StoredMessage message : added) {
+            message.setFlag(Flags.Flag.SEEN, true);
+        }
+        assertEquals(0, messages.getUnseenCount());
+        assertEquals(-1, messages.getFirstUnseen());
+        messages.clear();
+        assertEquals(0, messages.getRecentCount());
+    }
+
+    @Test
+    public void testListBasedSnapshots() throws Exception {
+        StoredMessageCollection messages = new ListBasedStoredMessageCollection();
+        List<StoredMessage> added = addMessages(messages, 3);
+        List<StoredMessage> snapshot = messages.getMessages();
+        assertSame(snapshot, messages.getMessages());
+
+        // Flag changes keep the snapshot, while adding and expunging publish a new one
+        added.get(0).setFlag(Flags.Flag.DELETED, true);
+        assertSame(snapshot, messages.getMessages());
+        addMessages(messages, 4, 100);
+        messages.expunge(Collections.<FolderListener>emptyList());
+        assertEquals(added, snapshot);
+        assertEquals(102, messages.getMessages().size());
+        assertSame(added.get(1), messages.getMessages().get(0));
+
+        messages.clear();
+        assertEquals(added, snapshot);
+        assertTrue(messages.getMessages().isEmpty());
+        try {
+            snapshot.remove(0);
+            fail("Expected unmodifiable snapshot");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testListBasedConcurrentReaders() throws Exception {
+        final StoredMessageCollection messages = new ListBasedStoredMessageCollection();
+        final List<StoredMessage> added = addMessages(messages, 10);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        messages.getLock().readLock().lock();
+        try {
+            // Readers do not block each other
+            Future<StoredMessage> reader = executor.submit(new Callable<StoredMessage>() {
+                @Override
+                public StoredMessage call() throws Exception {
+                    assertEquals(10, messages.getMessages().size());
+                    return messages.getByUid(5);
+                }
+            });
+            assertSame(added.get(4), reader.get(10, TimeUnit.SECONDS));
+
+            // Writers wait for readers
+            Future<?> writer = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    addMessage(messages, 11);
+                    return null;
+                }
+            });
+            try {
+                writer.get(200, TimeUnit.MILLISECONDS);
+                fail("Expected writer to wait for read lock");
+            } catch (TimeoutException e) {
+                // Expected
+            }
+            assertFalse(writer.isDone());
+            assertEquals(10, messages.size());
+        } finally {
+            messages.getLock().readLock().unlock();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(11, messages.size());
+        assertEquals(11, messages.getLastMessageUid());
+    }
+
+    @Test
+    public void testMapBasedEviction() throws Exception {
+        StoredMessageCollection messages = new MapBasedStoredMessageCollection(100);
+        List<StoredMessage> added = addMessages(messages, 250);
+
+        assertEquals(100, messages.size());
+        assertNoSuchMessage(messages, 150);
+        assertEquals(1, messages.getMsn(151));
+        assertEquals(100, messages.getMsn(250));
+        assertSame(added.get(199), messages.get(49));
+        assertSame(added.get(199), messages.getByUid(200));
+        assertEquals(250, messages.getLastMessageUid());
+
+        added.get(150).setFlag(Flags.Flag.DELETED, true);
+        messages.expunge(Collections.<FolderListener>emptyList());
+        assertEquals(1, messages.getMsn(152));
+        assertEquals(99, messages.getMsn(250));
+    }
+
+    private static List<StoredMessage> addMessages(StoredMessageCollection messages, int count)
+            throws MessagingException {
+        return addMessages(messages, 1, count);
+    }
+
+    private static List<StoredMessage> addMessages(StoredMessageCollection messages, long firstUid, int count)
+            throws MessagingException {
+        List<StoredMessage> added = new ArrayList<>();
+        for (long uid = firstUid; uid < firstUid + count; uid++) {
+            added.add(addMessage(messages, uid));
+        }
+        return added;
+    }
+
+    private static StoredMessage addMessage(StoredMessageCollection messages, long uid) throws MessagingException {
+        StoredMessage message = new StoredMessage(new SharedMimeMessage(RAW), new Date(), uid);
+        messages.add(message);
+        return message;
+    }
+
+    private static void assertNoSuchMessage(StoredMessageCollection messages, long uid) {
+        try {
+            messages.getMsn(uid);
+            fail("Expected no message with UID " + uid);
+        } catch (FolderException e) {
+            // Expected
+        }
+    }
+
+    private static class ExpungeListener implements FolderListener {
+        final List<Integer> expunged = new ArrayList<>();
+
+        @Override
+        public void expunged(int msn) {
+            expunged.add(msn);
+        }
+
+        @Override
+        public void added(int msn) {
+        }
+
+        @Override
+        public void flagsUpdated(int msn, Flags flags, Long uid) {
+        }
+
+        @Override
+        public void mailboxDeleted() {
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.icegreen.greenmail.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import javax.mail.Flags;
+
+import org.junit.Test;
+
+public class StoredMessageTest {
+    private static final byte[] RAW = ("Subject: lazy\r\n"
+            + "From: from@localhost\r\n"
+            + "\r\n"
+            + "body\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void testFlagsBeforeAndAfterParsing() throws Exception {
+        SharedMimeMessage source = new SharedMimeMessage(RAW);
+        source.setFlag(Flags.Flag.ANSWERED, true);
+        StoredMessage message = new StoredMessage(source, new Date(), 1L);
+        final int[] notified = new int[1];
+        message.setFlagsListener(new StoredMessage.FlagsListener() {
+            @Override
+            public void flagsChanged(StoredMessage changed) {
+                notified[0]++;
+            }
+        });
+
+        message.setFlag(Flags.Flag.SEEN, true);
+        message.setFlags(new Flags("custom"), true);
+        message.setFlag(Flags.Flag.ANSWERED, false);
+        assertEquals(3, notified[0]);
+        assertTrue(message.isSet(Flags.Flag.SEEN));
+        assertFalse(message.isSet(Flags.Flag.ANSWERED));
+        // The source keeps its own flags
+        assertTrue(source.isSet(Flags.Flag.ANSWERED));
+
+        // Flags are kept by the mime message once parsed
+        assertEquals("lazy", message.getMimeMessage().getSubject());
+        assertTrue(message.getMimeMessage().isSet(Flags.Flag.SEEN));
+        assertTrue(message.getMimeMessage().getFlags().contains("custom"));
+        message.getMimeMessage().setFlag(Flags.Flag.DELETED, true);
+        assertEquals(4, notified[0]);
+        assertTrue(message.getFlags().contains(Flags.Flag.DELETED));
+    }
+
+    @Test
+    public void testUserFlags() throws Exception {
+        Flags sourceFlags = new Flags("Important");
+        sourceFlags.add(Flags.Flag.FLAGGED);
+        SharedMimeMessage source = new SharedMimeMessage(RAW);
+        source.setFlags(sourceFlags, true);
+        StoredMessage message = new StoredMessage(source, new Date(), 1L);
+        final int[] notified = new int[1];
+        message.setFlagsListener(new StoredMessage.FlagsListener() {
+            @Override
+            public void flagsChanged(StoredMessage changed) {
+                notified[0]++;
+            }
+        });
+
+        assertEquals(sourceFlags, message.getFlags());
+        assertTrue(message.getMimeMessage().isSet(Flags.Flag.FLAGGED));
+        // User flags are case insensitive, and unchanged flags are not notified
+        message.setFlags(new Flags("IMPORTANT"), true);
+        message.setFlag(Flags.Flag.FLAGGED, true);
+        assertEquals(0, notified[0]);
+
+        Flags flags = new Flags("$Forwarded");
+        flags.add("important");
+        message.setFlags(flags, true);
+        message.setFlags(new Flags("Important"), false);
+        assertEquals(2, notified[0]);
+        assertFalse(message.getFlags().contains("Important"));
+        assertTrue(message.getMimeMessage().getFlags().contains("$forwarded"));
+        assertTrue(message.getFlags().contains(Flags.Flag.FLAGGED));
+    }
+
+    @Test
+    public void testUserFlagSpellingKeptPerMessage() throws Exception {
+        StoredMessage first = new StoredMessage(new SharedMimeMessage(RAW), new Date(), 1L);
+        StoredMessage second = new StoredMessage(new SharedMimeMessage(RAW), new Date(), 2L);
+        first.setFlags(new Flags("$Label1"), true);
+        second.setFlags(new Flags("$LABEL1"), true);
+        // Setting again with another spelling keeps the spelling the message was flagged with
+        first.setFlags(new Flags("$label1"), true);
+
+        assertArrayEquals(new String[]{"$Label1"}, first.getFlags().getUserFlags());
+        assertArrayEquals(new String[]{"$LABEL1"}, second.getFlags().getUserFlags());
+    }
+
+    @Test
+    public void testAttributesComputedOnce() throws Exception {
+        StoredMessage message = new StoredMessage(new SharedMimeMessage(RAW), new Date(), 5L);
+        message.setUid(7L);
+
+        MailMessageAttributes attributes = message.getAttributes();
+        assertSame(attributes, message.getAttributes());
+        assertTrue(attributes.getEnvelope().contains("\"lazy\""));
+        assertEquals(7L, ((StoredMessage.UidAwareMimeMessage) message.getMimeMessage()).getUid());
+    }
+}
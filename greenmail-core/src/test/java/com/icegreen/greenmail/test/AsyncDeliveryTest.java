@@ -0,0 +1,81 @@
+package com.icegreen.greenmail.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.internal.GreenMailRuleWithStoreChooser;
+import com.icegreen.greenmail.internal.StoreChooser;
+import com.icegreen.greenmail.smtp.DeliveryStatistics;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.Retriever;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class AsyncDeliveryTest {
+    @Rule
+    public final GreenMailRuleWithStoreChooser greenMail = new GreenMailRuleWithStoreChooser(
+            new ServerSetup[]{ServerSetupTest.SMTP, ServerSetupTest.IMAP},
+            GreenMailConfiguration.aConfig().withDeliveryThreads(4));
+
+    @Test
+    @StoreChooser(store="file,memory")
+    public void testDeliveryKeepsOrderPerMailbox() throws MessagingException {
+        final int count = 10;
+        for (int i = 0; i < count; i++) {
+            GreenMailUtil.sendTextEmailTest("to1@localhost, to2@localhost", "from@localhost", "subject" + i, "body");
+        }
+        // Acknowledged after store, so no waiting required
+        assertEquals(2 * count, greenMail.getReceivedMessages().length);
+
+        for (String to : new String[]{"to1@localhost", "to2@localhost"}) {
+            try (Retriever retriever = new Retriever(greenMail.getImap())) {
+                Message[] messages = retriever.getMessages(to);
+                List<String> subjects = new ArrayList<>();
+                for (Message message : messages) {
+                    subjects.add(message.getSubject());
+                }
+                assertEquals(count, subjects.size());
+                for (int i = 0; i < count; i++) {
+                    assertEquals("subject" + i, subjects.get(i));
+                }
+            }
+        }
+
+        DeliveryStatistics statistics = greenMail.getManagers().getSmtpManager().getDeliveryStatistics();
+        assertEquals(count, statistics.getDeliveredMessages());
+        assertEquals(0, statistics.getFailedMessages());
+        assertEquals(0, statistics.getQueuedDeliveries());
+        assertTrue(statistics.getAverageDeliveryTimeMillis() >= 0d);
+    }
+
+    @Test
+    @StoreChooser(store="file,memory")
+    public void testWaitForIncomingEmail() throws InterruptedException {
+        assertFalse(greenMail.waitForIncomingEmail(100L, 1));
+
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 3; i++) {
+                    GreenMailUtil.sendTextEmailTest("to@localhost", "from@localhost", "subject" + i, "body");
+                }
+            }
+        });
+        sender.start();
+        assertTrue(greenMail.waitForIncomingEmail(5000L, 3));
+        sender.join();
+        assertEquals(3, greenMail.getReceivedMessages().length);
+        // Already arrived
+        assertTrue(greenMail.waitForIncomingEmail(100L, 3));
+        assertFalse(greenMail.waitForIncomingEmail(100L, 4));
+    }
+}
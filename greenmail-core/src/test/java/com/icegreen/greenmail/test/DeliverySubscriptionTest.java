@@ -0,0 +1,119 @@
+package com.icegreen.greenmail.test;
+
+import static com.icegreen.greenmail.smtp.DeliveryPredicates.and;
+import static com.icegreen.greenmail.smtp.DeliveryPredicates.header;
+import static com.icegreen.greenmail.smtp.DeliveryPredicates.recipient;
+import static com.icegreen.greenmail.smtp.DeliveryPredicates.sender;
+import static com.icegreen.greenmail.smtp.DeliveryPredicates.subject;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import com.icegreen.greenmail.internal.GreenMailRuleWithStoreChooser;
+import com.icegreen.greenmail.internal.StoreChooser;
+import com.icegreen.greenmail.smtp.DeliveryListener;
+import com.icegreen.greenmail.smtp.DeliverySubscription;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DeliverySubscriptionTest {
+    @Rule
+    public final GreenMailRuleWithStoreChooser greenMail = new GreenMailRuleWithStoreChooser(ServerSetupTest.SMTP);
+
+    @Test
+    @StoreChooser(store="file,memory")
+    public void testSubscribeToNextMatchingMessage() throws Exception {
+        DeliverySubscription subscription = greenMail.subscribe(and(recipient("to2@localhost"), subject("wanted")));
+        final DeliverySubscription fromSubscription = greenMail.subscribe(sender("other@localhost"));
+
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                GreenMailUtil.sendTextEmailTest("to1@localhost", "from@localhost", "wanted", "body");
+                GreenMailUtil.sendTextEmailTest("to2@localhost", "from@localhost", "other", "body");
+                GreenMailUtil.sendTextEmailTest("to2@localhost", "from@localhost", "wanted", "body");
+            }
+        });
+        sender.start();
+
+        MimeMessage message = subscription.get(5, TimeUnit.SECONDS);
+        assertEquals("wanted", message.getSubject());
+        assertEquals("to2@localhost", message.getAllRecipients()[0].toString());
+        assertTrue(subscription.isDone());
+        sender.join();
+
+        assertFalse(fromSubscription.isDone());
+        try {
+            fromSubscription.get(10, TimeUnit.MILLISECONDS);
+            fail("Expected timeout");
+        } catch (TimeoutException expected) {
+            // No message from other sender
+        }
+        assertTrue(fromSubscription.cancel(true));
+        assertTrue(fromSubscription.isCancelled());
+        try {
+            fromSubscription.get();
+            fail("Expected cancellation");
+        } catch (CancellationException expected) {
+            // Cancelled
+        }
+    }
+
+    @Test
+    @StoreChooser(store="file,memory")
+    public void testSubscribeWithListener() throws Exception {
+        final List<String> recipients = Collections.synchronizedList(new ArrayList<String>());
+        DeliverySubscription subscription = greenMail.subscribe(header("Subject", "listened"), new DeliveryListener() {
+            @Override
+            public void delivered(MimeMessage message, String recipient) {
+                recipients.add(recipient);
+            }
+        });
+
+        GreenMailUtil.sendTextEmailTest("to1@localhost, to2@localhost", "from@localhost", "listened", "body");
+        GreenMailUtil.sendTextEmailTest("to3@localhost", "from@localhost", "ignored", "body");
+        assertEquals("listened", subscription.get(5, TimeUnit.SECONDS).getSubject());
+        assertFalse(subscription.cancel(false));
+
+        GreenMailUtil.sendTextEmailTest("to4@localhost", "from@localhost", "listened", "body");
+        Collections.sort(recipients);
+        assertEquals(2, recipients.size());
+        assertEquals("to1@localhost", recipients.get(0));
+        assertEquals("to2@localhost", recipients.get(1));
+    }
+
+    @Test
+    @StoreChooser(store="file,memory")
+    public void testListenerWaitsAndModifiesOwnCopy() throws Exception {
+        final List<Boolean> arrived = Collections.synchronizedList(new ArrayList<Boolean>());
+        DeliverySubscription subscription = greenMail.subscribe(subject("listened"), new DeliveryListener() {
+            @Override
+            public void delivered(MimeMessage message, String recipient) {
+                try {
+                    message.setSubject("changed");
+                } catch (MessagingException e) {
+                    throw new IllegalStateException(e);
+                }
+                // Invoked outside the delivery lock, so waiting for messages does not dead lock
+                arrived.add(greenMail.waitForIncomingEmail(1000L, 1));
+            }
+        });
+
+        GreenMailUtil.sendTextEmailTest("to@localhost", "from@localhost", "listened", "body");
+        assertEquals("changed", subscription.get(5, TimeUnit.SECONDS).getSubject());
+        assertEquals(Collections.singletonList(true), arrived);
+        assertEquals("listened", greenMail.getReceivedMessages()[0].getSubject());
+    }
+}
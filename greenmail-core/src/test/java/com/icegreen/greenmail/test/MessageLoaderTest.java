@@ -0,0 +1,79 @@
+package com.icegreen.greenmail.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.mail.MessagingException;
+
+import com.icegreen.greenmail.imap.ImapHostManager;
+import com.icegreen.greenmail.internal.GreenMailRuleWithStoreChooser;
+import com.icegreen.greenmail.internal.StoreChooser;
+import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.store.StoredMessage;
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.util.EncodingUtil;
+import com.icegreen.greenmail.util.RawMessage;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MessageLoaderTest {
+    @Rule
+    public final GreenMailRuleWithStoreChooser greenMail = new GreenMailRuleWithStoreChooser(ServerSetupTest.SMTP);
+
+    @Test
+    @StoreChooser(store="file,memory")
+    public void testLoadMessages() throws Exception {
+        final int count = 2500;
+        List<RawMessage> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            messages.add(new RawMessage("foo@localhost", createMessage("foo@localhost", i)));
+            if (i % 5 == 0) {
+                messages.add(new RawMessage("bar@localhost", "INBOX.archive", createMessage("bar@localhost", i)));
+            }
+        }
+
+        assertEquals(count + count / 5, greenMail.loadMessages(messages.iterator()));
+
+        assertMessages("foo@localhost", "INBOX", count, 1);
+        assertMessages("bar@localhost", "INBOX.archive", count / 5, 5);
+        assertEquals(0, getFolder("bar@localhost", "INBOX").getMessageCount());
+        // Loaded messages are visible to the counter used when waiting for messages
+        assertTrue(greenMail.waitForIncomingEmail(100, count + count / 5));
+    }
+
+    private void assertMessages(String email, String folderName, int expectedCount, int step)
+            throws MessagingException {
+        MailFolder folder = getFolder(email, folderName);
+        assertEquals(expectedCount, folder.getMessageCount());
+        List<StoredMessage> stored = folder.getMessageEntries();
+        long previousUid = 0;
+        for (int i = 0; i < stored.size(); i++) {
+            StoredMessage message = stored.get(i);
+            assertEquals("Message " + (i * step), message.getMimeMessage().getSubject());
+            assertTrue(message.getUid() > previousUid);
+            previousUid = message.getUid();
+        }
+    }
+
+    private MailFolder getFolder(String email, String folderName) {
+        GreenMailUser user = greenMail.getManagers().getUserManager().getUserByEmail(email);
+        assertNotNull(user);
+        ImapHostManager imapHostManager = greenMail.getManagers().getImapHostManager();
+        MailFolder folder = imapHostManager.getFolder(user, folderName);
+        assertNotNull(folder);
+        return folder;
+    }
+
+    private static byte[] createMessage(String to, int i) {
+        String message = "From: from@localhost\r\n"
+                + "To: " + to + "\r\n"
+                + "Subject: Message " + i + "\r\n"
+                + "\r\n"
+                + "Body " + i + "\r\n";
+        return message.getBytes(EncodingUtil.CHARSET_EIGHT_BIT_ENCODING);
+    }
+}
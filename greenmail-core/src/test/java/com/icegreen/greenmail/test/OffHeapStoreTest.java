@@ -0,0 +1,42 @@
+package com.icegreen.greenmail.test;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.internal.GreenMailRuleWithStoreChooser;
+import com.icegreen.greenmail.internal.StoreChooser;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.Retriever;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class OffHeapStoreTest {
+    @Rule
+    public final GreenMailRuleWithStoreChooser greenMail = new GreenMailRuleWithStoreChooser(ServerSetupTest.SMTP_IMAP,
+            GreenMailConfiguration.aConfig().withOffHeapMessageContent(true));
+
+    @Test
+    @StoreChooser(store="memory")
+    public void testReceiveOffHeapMessages() throws MessagingException {
+        greenMail.setUser("to@localhost", "to@localhost", "secret");
+        for (int i = 0; i < 3; i++) {
+            GreenMailUtil.sendTextEmailTest("to@localhost", "from@localhost", "subject" + i, "body" + i);
+        }
+
+        MimeMessage[] messages = greenMail.getReceivedMessages();
+        assertEquals(3, messages.length);
+        assertEquals("body1", GreenMailUtil.getBody(messages[1]));
+
+        try (Retriever retriever = new Retriever(greenMail.getImap())) {
+            Message[] retrieved = retriever.getMessages("to@localhost", "secret");
+            assertEquals(3, retrieved.length);
+            assertEquals("subject2", retrieved[2].getSubject());
+            assertEquals("body2", GreenMailUtil.getBody(retrieved[2]));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.icegreen.greenmail.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.foedus.util.SpoolingWorkspace;
+import com.icegreen.greenmail.internal.GreenMailRuleWithStoreChooser;
+import com.icegreen.greenmail.internal.StoreChooser;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SpoolingTest {
+    private static final File SPOOL_DIR = new File("target/spool");
+
+    @Rule
+    public final GreenMailRuleWithStoreChooser greenMail = new GreenMailRuleWithStoreChooser(ServerSetupTest.SMTP,
+            GreenMailConfiguration.aConfig().withSpoolThreshold(1024).withSpoolDirectory(SPOOL_DIR.getPath()));
+
+    @Test
+    @StoreChooser(store="file,memory")
+    public void testReceiveSpooledMessages() throws MessagingException {
+        assertEquals(SpoolingWorkspace.class, greenMail.getManagers().getSmtpManager().getWorkspace().getClass());
+
+        char[] line = new char[72];
+        Arrays.fill(line, 'x');
+        StringBuilder body = new StringBuilder(new String(line));
+        while (body.length() < 256 * 1024) {
+            body.append("\r\n").append(line);
+        }
+        for (int i = 0; i < 3; i++) {
+            GreenMailUtil.sendTextEmailTest("to@localhost", "from@localhost", "subject" + i, body.toString());
+        }
+        GreenMailUtil.sendTextEmailTest("to@localhost", "from@localhost", "small", "body");
+
+        MimeMessage[] messages = greenMail.getReceivedMessages();
+        assertEquals(4, messages.length);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("subject" + i, messages[i].getSubject());
+            assertEquals(body.toString(), GreenMailUtil.getBody(messages[i]));
+        }
+        assertEquals("body", GreenMailUtil.getBody(messages[3]));
+    }
+}
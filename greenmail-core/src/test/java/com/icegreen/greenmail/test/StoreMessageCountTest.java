@@ -0,0 +1,56 @@
+package com.icegreen.greenmail.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.mail.Flags;
+import javax.mail.Folder;
+import javax.mail.Message;
+
+import com.icegreen.greenmail.internal.GreenMailRuleWithStoreChooser;
+import com.icegreen.greenmail.internal.StoreChooser;
+import com.icegreen.greenmail.store.Store;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.Retriever;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class StoreMessageCountTest {
+    @Rule
+    public final GreenMailRuleWithStoreChooser greenMail = new GreenMailRuleWithStoreChooser(ServerSetupTest.SMTP_IMAP);
+
+    @Test
+    @StoreChooser(store="file,memory")
+    public void testMessageCountFollowsAppendsAndRemovals() throws Exception {
+        Store store = greenMail.getManagers().getImapHostManager().getStore();
+        assertEquals(0, store.getMessageCount());
+
+        greenMail.setUser("to@localhost", "to@localhost", "secret");
+        for (int i = 0; i < 3; i++) {
+            GreenMailUtil.sendTextEmailTest("to@localhost, other@localhost", "from@localhost", "subject" + i, "body");
+        }
+        assertTrue(greenMail.waitForIncomingEmail(5000L, 6));
+        assertEquals(6, store.getMessageCount());
+
+        try (Retriever retriever = new Retriever(greenMail.getImap())) {
+            Message[] messages = retriever.getMessages("to@localhost", "secret");
+            Folder folder = messages[0].getFolder();
+            if (folder.isOpen()) {
+                folder.close(false);
+            }
+            folder.open(Folder.READ_WRITE);
+            folder.getMessage(1).setFlag(Flags.Flag.DELETED, true);
+            folder.expunge();
+            folder.close(false);
+        }
+        assertEquals(5, store.getMessageCount());
+        // Already stored, so no waiting required
+        assertTrue(greenMail.waitForIncomingEmail(1L, 5));
+        assertFalse(greenMail.waitForIncomingEmail(100L, 6));
+
+        greenMail.purgeEmailFromAllMailboxes();
+        assertEquals(0, store.getMessageCount());
+    }
+}
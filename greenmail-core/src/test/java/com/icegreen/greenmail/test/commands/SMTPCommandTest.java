@@ -2,17 +2,29 @@ package com.icegreen.greenmail.test.commands;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.startsWith;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.equalToIgnoringWhiteSpace;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import javax.mail.MessagingException;
 import javax.mail.Session;
 import javax.mail.URLName;
 
 import com.icegreen.greenmail.internal.GreenMailRuleWithStoreChooser;
+import com.icegreen.greenmail.util.GreenMail;
 import com.icegreen.greenmail.internal.StoreChooser;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetup;
 import com.icegreen.greenmail.util.ServerSetupTest;
 import com.sun.mail.smtp.SMTPTransport;
 import org.junit.Rule;
@@ -44,4 +56,129 @@ public class SMTPCommandTest {
 			smtpTransport.close();
 		}
 	}
+
+	@Test
+	@StoreChooser(store="file,memory")
+	public void pipelining() throws IOException, MessagingException {
+		try (Socket socket = new Socket(greenMail.getSmtp().getBindTo(), greenMail.getSmtp().getPort())) {
+			socket.setSoTimeout(5000);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			OutputStream out = socket.getOutputStream();
+			assertThat(in.readLine(), startsWith("220 "));
+
+			// Whole command group in one write
+			out.write(("EHLO localhost\r\n"
+					+ "MAIL FROM:<from@localhost>\r\n"
+					+ "RCPT TO:<to1@localhost>\r\n"
+					+ "RCPT TO:<to2@localhost>\r\n"
+					+ "DATA\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			assertThat(readEhloExtensions(in), hasItems("PIPELINING"));
+			assertThat(in.readLine(), is(equalTo("250 OK")));
+			assertThat(in.readLine(), is(equalTo("250 OK")));
+			assertThat(in.readLine(), is(equalTo("250 OK")));
+			assertThat(in.readLine(), startsWith("354 "));
+
+			out.write("Subject: pipelining\r\n\r\nbody\r\n.\r\nQUIT\r\n".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			assertThat(in.readLine(), is(equalTo("250 OK")));
+			assertThat(in.readLine(), startsWith("221 "));
+		}
+		assertThat(greenMail.getReceivedMessages().length, is(equalTo(2)));
+	}
+
+	@Test
+	@StoreChooser(store="file,memory")
+	public void chunking() throws IOException, MessagingException {
+		byte[] header = "Subject: chunking\r\nContent-Transfer-Encoding: binary\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+		byte[] body = "first line\r\n.\r\nnot a terminator\r\n".getBytes(StandardCharsets.US_ASCII);
+		try (Socket socket = new Socket(greenMail.getSmtp().getBindTo(), greenMail.getSmtp().getPort())) {
+			socket.setSoTimeout(5000);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			OutputStream out = socket.getOutputStream();
+			assertThat(in.readLine(), startsWith("220 "));
+
+			out.write("EHLO localhost\r\n".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			assertThat(readEhloExtensions(in), hasItems("CHUNKING", "BINARYMIME"));
+
+			out.write(("MAIL FROM:<from@localhost> BODY=BINARYMIME\r\n"
+					+ "RCPT TO:<to@localhost>\r\n"
+					+ "DATA\r\n"
+					+ "BDAT " + header.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.write(header);
+			out.write(("BDAT " + body.length + " LAST\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.write(body);
+			out.write("QUIT\r\n".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			assertThat(in.readLine(), is(equalTo("250 OK")));
+			assertThat(in.readLine(), is(equalTo("250 OK")));
+			assertThat(in.readLine(), startsWith("503 ")); // DATA not allowed for BINARYMIME
+			assertThat(in.readLine(), is(equalTo("250 " + header.length + " octets received")));
+			assertThat(in.readLine(), is(equalTo("250 OK")));
+			assertThat(in.readLine(), startsWith("221 "));
+		}
+		assertThat(greenMail.getReceivedMessages().length, is(equalTo(1)));
+		assertThat(greenMail.getReceivedMessages()[0].getSubject(), is(equalTo("chunking")));
+		assertThat(GreenMailUtil.getBody(greenMail.getReceivedMessages()[0]),
+				is(equalTo("first line\r\n.\r\nnot a terminator")));
+	}
+
+	@Test
+	public void maxMessageSize() throws IOException {
+		ServerSetup setup = new ServerSetup(ServerSetupTest.SMTP.getPort() + 1, null, ServerSetup.PROTOCOL_SMTP);
+		setup.setMaxMessageSize(100);
+		GreenMail limitedGreenMail = new GreenMail(setup);
+		limitedGreenMail.start();
+		char[] body = new char[200];
+		Arrays.fill(body, 'x');
+		try (Socket socket = new Socket(setup.getBindAddress(), setup.getPort())) {
+			socket.setSoTimeout(5000);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			OutputStream out = socket.getOutputStream();
+			assertThat(in.readLine(), startsWith("220 "));
+
+			out.write("EHLO localhost\r\n".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			assertThat(readEhloExtensions(in), hasItems("SIZE 100"));
+
+			out.write(("MAIL FROM:<from@localhost> SIZE=101\r\n"
+					+ "MAIL FROM:<from@localhost> SIZE=10\r\n"
+					+ "RCPT TO:<to@localhost>\r\n"
+					+ "DATA\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			assertThat(in.readLine(), startsWith("552 ")); // Declared size exceeds limit
+			assertThat(in.readLine(), is(equalTo("250 OK")));
+			assertThat(in.readLine(), is(equalTo("250 OK")));
+			assertThat(in.readLine(), startsWith("354 "));
+
+			// Declared size was too small, so the content is consumed but rejected
+			out.write(("Subject: too large\r\n\r\n" + new String(body) + "\r\n.\r\n"
+					+ "RCPT TO:<to@localhost>\r\n"
+					+ "QUIT\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			assertThat(in.readLine(), startsWith("552 "));
+			assertThat(in.readLine(), startsWith("503 ")); // Transaction aborted
+			assertThat(in.readLine(), startsWith("221 "));
+			assertThat(limitedGreenMail.getReceivedMessages().length, is(equalTo(0)));
+		} finally {
+			limitedGreenMail.stop();
+		}
+	}
+
+	/**
+	 * Reads the multiline EHLO reply.
+	 *
+	 * @return the announced extensions.
+	 */
+	private static List<String> readEhloExtensions(BufferedReader in) throws IOException {
+		List<String> extensions = new ArrayList<>();
+		String line = in.readLine();
+		assertThat(line, startsWith("250"));
+		while (line.startsWith("250-")) {
+			line = in.readLine();
+			extensions.add(line.substring(4));
+		}
+		return extensions;
+	}
 }
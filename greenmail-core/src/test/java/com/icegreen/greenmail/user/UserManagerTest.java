@@ -2,8 +2,20 @@ package com.icegreen.greenmail.user;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import com.icegreen.greenmail.imap.ImapHostManager;
 import com.icegreen.greenmail.imap.ImapHostManagerImpl;
 import com.icegreen.greenmail.store.InMemoryStore;
@@ -99,4 +111,53 @@ public class UserManagerTest {
         assertFalse(userManager.listUser().isEmpty());
         assertTrue(userManager.test("foo","bar"));
     }
+
+    @Test
+    public void testRecreateUser() throws Exception {
+        ImapHostManager imapHostManager = new ImapHostManagerImpl(new InMemoryStore(null));
+        UserManager userManager = new UserManager(imapHostManager);
+        GreenMailUser user = userManager.createUser("foo@example.com", "foo", "pwd");
+        userManager.deleteUser(user);
+
+        user = userManager.createUser("foo@example.com", "foo", "pwd");
+        assertNotNull(imapHostManager.getInbox(user));
+        userManager.createUser("foo@example.com", "foo", "pwd2");
+        assertEquals(1, userManager.listUser().size());
+        assertNotNull(imapHostManager.getInbox(userManager.getUser("foo")));
+    }
+
+    @Test
+    public void testConcurrentGetOrCreateUser() throws Exception {
+        ImapHostManager imapHostManager = new ImapHostManagerImpl(new InMemoryStore(null));
+        final UserManager userManager = new UserManager(imapHostManager);
+        final int users = 100000;
+        final int threads = 8;
+        final Set<GreenMailUser> provisioned = Collections.newSetFromMap(new ConcurrentHashMap<GreenMailUser, Boolean>());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws UserException {
+                    // All threads provision all users, racing for each one
+                    for (int i = 0; i < users; i++) {
+                        String email = "user" + i + "@localhost";
+                        provisioned.add(userManager.getOrCreateUser(email, email, email));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(users, provisioned.size());
+        assertEquals(users, userManager.listUser().size());
+        GreenMailUser user = userManager.getUserByEmail("USER4711@localhost");
+        assertEquals("user4711@localhost", user.getLogin());
+        assertNotNull(imapHostManager.getInbox(user));
+    }
 }